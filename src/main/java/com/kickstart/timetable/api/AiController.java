@@ -1,18 +1,31 @@
 package com.kickstart.timetable.api;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.kickstart.timetable.api.dto.GenerateScheduleRequest;
+import com.kickstart.timetable.api.dto.ParseTaskBatchRequest;
 import com.kickstart.timetable.api.dto.ParseTaskRequest;
 import com.kickstart.timetable.service.AiAssistantService;
 import com.kickstart.timetable.service.AiStudioChatClient;
+import com.kickstart.timetable.service.Deadline;
+import com.kickstart.timetable.service.ImportJob;
+import com.kickstart.timetable.service.ImportJobService;
 import com.kickstart.timetable.service.SchedulePlannerService;
 import com.kickstart.timetable.service.TimetableAiService;
+import com.kickstart.timetable.service.TimetableStreamListener;
+import com.kickstart.timetable.service.UploadSource;
 import jakarta.validation.Valid;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,17 +35,24 @@ import java.util.Map;
 @Tag(name = "AI 接口", description = "OCR+大模型解析与排期相关接口")
 public class AiController {
 
+    private static final String CLIENT_GONE = "客户端已断开";
+
     private final TimetableAiService timetableAiService;
     private final AiAssistantService aiAssistantService;
     private final AiStudioChatClient aiStudioChatClient;
     private final SchedulePlannerService schedulePlannerService;
+    private final TaskExecutor aiTaskExecutor;
+    private final ImportJobService importJobService;
 
     public AiController(TimetableAiService timetableAiService, AiAssistantService aiAssistantService, AiStudioChatClient aiStudioChatClient,
-                        SchedulePlannerService schedulePlannerService) {
+                        SchedulePlannerService schedulePlannerService, @Qualifier("aiTaskExecutor") TaskExecutor aiTaskExecutor,
+                        ImportJobService importJobService) {
         this.timetableAiService = timetableAiService;
         this.aiAssistantService = aiAssistantService;
         this.aiStudioChatClient = aiStudioChatClient;
         this.schedulePlannerService = schedulePlannerService;
+        this.aiTaskExecutor = aiTaskExecutor;
+        this.importJobService = importJobService;
     }
 
     @Operation(summary = "AIStudio 连通性测试", description = "最小化调用大模型，返回解析出的 content 以及部分原始响应字段，便于确认 Key/域名/路径是否正确")
@@ -67,7 +87,10 @@ public class AiController {
     @Operation(summary = "解析课表图片", description = "上传课表截图，后端调用PaddleOCR得到markdown，再调用大模型结构化为NDJSON并返回")
     @PostMapping(value = "/parse-schedule-image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> parseScheduleImage(@RequestPart("file") MultipartFile file) throws Exception {
-        return timetableAiService.parseTimetableFromImage(file.getBytes());
+        // 上传内容先落盘，只嗅探文件头，后续按流解码，避免整文件进堆
+        try (UploadSource upload = UploadSource.spool(file)) {
+            return timetableAiService.parseTimetableFromImage(upload);
+        }
     }
 
     @Operation(summary = "解析课表图片（NDJSON原文）", description = "上传课表截图，返回与示例文件一致的5行NDJSON原文（适合直接保存为.json导入）。")
@@ -84,8 +107,8 @@ public class AiController {
                     .body("ERROR: missing multipart file part. Please send form-data with key 'file'.");
         }
 
-        try {
-            Map<String, Object> res = timetableAiService.parseTimetableFromImage(f.getBytes());
+        try (UploadSource upload = UploadSource.spool(f)) {
+            Map<String, Object> res = timetableAiService.parseTimetableFromImage(upload);
             String ndjson = res.get("ndjson") == null ? "" : res.get("ndjson").toString();
             if (ndjson.isBlank()) {
                 return org.springframework.http.ResponseEntity.status(500)
@@ -103,15 +126,124 @@ public class AiController {
         }
     }
 
+    @Operation(summary = "解析课表图片（流式）", description = "与解析课表图片相同的流程，但以 SSE 推送：stage(阶段)、course(每门课程)、rule(每条上课规则) 会在大模型生成过程中逐条发送，最后发送 done（含完整 NDJSON）或 error")
+    @PostMapping(value = "/parse-schedule-image/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter parseScheduleImageStream(@RequestPart("file") MultipartFile file) throws IOException {
+        UploadSource upload = UploadSource.spool(file);
+        // OCR + 结构化可能需要几十秒，这里不设置 SSE 超时，由请求的 deadline 与上游调用自身的超时兜底
+        SseEmitter emitter = new SseEmitter(0L);
+        // 客户端断开后取消本请求的 deadline：进行中的上游调用被中断，后续阶段不再执行
+        Deadline deadline = Deadline.current();
+        emitter.onError(e -> deadline.cancel(CLIENT_GONE));
+        try {
+            aiTaskExecutor.execute(() -> {
+                try {
+                    Map<String, Object> res = timetableAiService.streamTimetableFromImage(upload, new TimetableStreamListener() {
+                        @Override
+                        public void onStage(String stage) {
+                            if (!send(emitter, "stage", Map.of("stage", stage))) deadline.cancel(CLIENT_GONE);
+                        }
+
+                        @Override
+                        public void onCourse(ObjectNode course) {
+                            if (!send(emitter, "course", course)) deadline.cancel(CLIENT_GONE);
+                        }
+
+                        @Override
+                        public void onRule(ObjectNode rule) {
+                            if (!send(emitter, "rule", rule)) deadline.cancel(CLIENT_GONE);
+                        }
+                    });
+                    send(emitter, "done", Map.of("ndjson", res.get("ndjson")));
+                    emitter.complete();
+                } catch (Exception e) {
+                    send(emitter, "error", Map.of("error", e.getMessage() == null ? e.toString() : e.getMessage()));
+                    emitter.complete();
+                } finally {
+                    closeQuietly(upload);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 线程池拒绝时任务不会执行，临时文件要在这里清理
+            closeQuietly(upload);
+            throw e;
+        }
+        return emitter;
+    }
+
+    @Operation(summary = "提交课表解析任务", description = "异步解析课表图片：立即返回 jobId（202），之后轮询任务状态或订阅进度。priority 越大越先执行；相同内容的任务仍在排队或执行时直接返回该任务（deduplicated=true）。队列已满时返回 503 并带 Retry-After")
+    @PostMapping(value = "/parse-schedule-image/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> submitParseJob(@RequestPart("file") MultipartFile file,
+                                                              @RequestParam(name = "priority", defaultValue = "0") int priority) throws IOException {
+        // 上传文件交给任务服务，任务结束（或去重、拒绝）时由它删除
+        ImportJobService.Submission submission = importJobService.submit(UploadSource.spool(file), priority);
+        Map<String, Object> body = submission.job().toMap(false);
+        body.put("deduplicated", submission.deduplicated());
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/ai/parse-schedule-image/jobs/" + submission.job().getId()))
+                .body(body);
+    }
+
+    @Operation(summary = "查询课表解析任务", description = "返回任务状态与当前阶段（queued/normalize/ocr/extract/ndjson/done）；完成后 result 与同步接口的返回一致。任务结果保留一段时间后过期（404）")
+    @GetMapping(value = "/parse-schedule-image/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Object>> getParseJob(@PathVariable("jobId") String jobId) {
+        ImportJob job = importJobService.get(jobId);
+        if (job == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "任务不存在或已过期"));
+        }
+        return ResponseEntity.ok(job.toMap(true));
+    }
+
+    @Operation(summary = "订阅课表解析任务进度", description = "SSE 推送 stage（每次阶段变化），最后发送 done（含 result）或 error")
+    @GetMapping(value = "/parse-schedule-image/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> watchParseJob(@PathVariable("jobId") String jobId) {
+        ImportJob job = importJobService.get(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        JobEventStream.subscribe(job, emitter);
+        return ResponseEntity.ok(emitter);
+    }
+
+    private static void closeQuietly(UploadSource upload) {
+        try {
+            upload.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** Returns false when the client went away. */
+    static boolean send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+    }
+
     @Operation(summary = "解析自然语言任务", description = "把一段自然语言的作业/DDL描述解析为结构化字段")
     @PostMapping(value = "/parse-task", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public Map<String, Object> parseTask(@Valid @RequestBody ParseTaskRequest req) {
         return aiAssistantService.parseTask(req.getInput());
     }
 
+    @Operation(summary = "批量解析自然语言任务", description = "一次提交多条任务描述（如整份作业清单），按上下文长度打包成尽量少的大模型调用并发解析，结果与输入按顺序一一对应；解析失败的条目为 {\"error\": ...}")
+    @PostMapping(value = "/parse-task/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Map<String, Object>> parseTaskBatch(@Valid @RequestBody ParseTaskBatchRequest req) {
+        return aiAssistantService.parseTasks(req.getInputs());
+    }
+
     @Operation(summary = "生成智能排期", description = "根据课程与任务生成建议排期块")
     @PostMapping(value = "/generate-schedule", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public List<Map<String, Object>> generateSchedule(@RequestBody GenerateScheduleRequest req) {
         return schedulePlannerService.generateSchedule(req);
     }
+
+    @Operation(summary = "排期诊断", description = "与生成智能排期相同的规划，但开启决策追踪，额外返回未能排入的任务及原因（截止时间、每日上限、分段限制等）")
+    @PostMapping(value = "/generate-schedule/explain", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> explainSchedule(@RequestBody GenerateScheduleRequest req) {
+        return schedulePlannerService.explainSchedule(req);
+    }
 }
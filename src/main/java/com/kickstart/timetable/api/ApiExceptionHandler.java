@@ -1,10 +1,15 @@
 package com.kickstart.timetable.api;
 
+import com.kickstart.timetable.service.DeadlineExceededException;
+import com.kickstart.timetable.service.JobQueueFullException;
+import com.kickstart.timetable.service.UpstreamUnavailableException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.time.Duration;
 import java.util.Map;
 
 @RestControllerAdvice
@@ -17,10 +22,45 @@ public class ApiExceptionHandler {
         ));
     }
 
+    /**
+     * Upstream overloaded or its circuit breaker open: 503 with Retry-After in whole seconds.
+     */
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> handleUpstreamUnavailable(UpstreamUnavailableException e) {
+        return serviceUnavailable(e.getMessage(), e.getRetryAfter());
+    }
+
+    @ExceptionHandler(JobQueueFullException.class)
+    public ResponseEntity<Map<String, Object>> handleJobQueueFull(JobQueueFullException e) {
+        return serviceUnavailable(e.getMessage(), e.getRetryAfter());
+    }
+
+    /** The request's deadline ran out (or the client left) before the work could finish. */
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<Map<String, Object>> handleDeadlineExceeded(DeadlineExceededException e) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of(
+                "error", e.getMessage()
+        ));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleAny(Exception e) {
+        // The refusal may arrive wrapped, e.g. by a parallel page or chunk call.
+        for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+            if (t instanceof UpstreamUnavailableException u) return handleUpstreamUnavailable(u);
+            if (t instanceof DeadlineExceededException d) return handleDeadlineExceeded(d);
+        }
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
                 "error", e.getMessage()
         ));
     }
+
+    private static ResponseEntity<Map<String, Object>> serviceUnavailable(String message, Duration retryAfter) {
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                .body(Map.of(
+                        "error", message
+                ));
+    }
 }
@@ -0,0 +1,73 @@
+package com.kickstart.timetable.api;
+
+import com.kickstart.timetable.service.ImportJob;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Sends the changes of one {@link ImportJob} to one SSE client.
+ *
+ * The watcher only snapshots the job and queues it; the events are written by a virtual thread of this
+ * subscription, in order, so a slow client never holds up the import worker or other subscribers. The
+ * subscription ends (watcher removed, sender stopped) after done/error, when a send fails, or when the
+ * emitter completes, times out or errors.
+ */
+final class JobEventStream implements Consumer<ImportJob> {
+
+    private final ImportJob job;
+    private final SseEmitter emitter;
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("job-events-", 0).factory());
+    private volatile boolean closed;
+
+    private JobEventStream(ImportJob job, SseEmitter emitter) {
+        this.job = job;
+        this.emitter = emitter;
+    }
+
+    /** Subscribe {@code emitter} to {@code job}; the current state is sent first. */
+    static void subscribe(ImportJob job, SseEmitter emitter) {
+        JobEventStream stream = new JobEventStream(job, emitter);
+        emitter.onCompletion(stream::close);
+        emitter.onTimeout(stream::close);
+        emitter.onError(e -> stream.close());
+        job.watch(stream);
+    }
+
+    @Override
+    public void accept(ImportJob j) {
+        if (closed) return;
+        ImportJob.Status status = j.getStatus();
+        Map<String, Object> view = j.toMap(status == ImportJob.Status.DONE);
+        try {
+            sender.execute(() -> send(status, view));
+        } catch (RejectedExecutionException ignored) {
+            // Closed meanwhile.
+        }
+    }
+
+    private void send(ImportJob.Status status, Map<String, Object> view) {
+        if (closed) return;
+        String event = switch (status) {
+            case DONE -> "done";
+            case FAILED -> "error";
+            default -> "stage";
+        };
+        if (!AiController.send(emitter, event, view)) {
+            close();
+        } else if (status == ImportJob.Status.DONE || status == ImportJob.Status.FAILED) {
+            emitter.complete();
+            close();
+        }
+    }
+
+    private void close() {
+        closed = true;
+        job.unwatch(this);
+        sender.shutdown();
+    }
+}
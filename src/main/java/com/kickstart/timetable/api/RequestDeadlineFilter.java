@@ -0,0 +1,60 @@
+package com.kickstart.timetable.api;
+
+import com.kickstart.timetable.config.DeadlineProperties;
+import com.kickstart.timetable.service.Deadline;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Binds a {@link Deadline} to every /api/ai/** request: the client's budget from the
+ * timetable.deadline.header header (capped at max-timeout), else default-timeout, else an unbounded one
+ * that the streaming endpoints still cancel when the client disconnects.
+ */
+@Component
+public class RequestDeadlineFilter extends OncePerRequestFilter {
+
+    private final DeadlineProperties props;
+
+    public RequestDeadlineFilter(DeadlineProperties props) {
+        this.props = props;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith(request.getContextPath() + "/api/ai/");
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Duration timeout = timeout(request.getHeader(props.getHeader()));
+        Deadline deadline = timeout == null ? Deadline.unbounded() : Deadline.after(timeout);
+        try (Deadline.Scope ignored = deadline.bind()) {
+            chain.doFilter(request, response);
+        }
+    }
+
+    /** The requested budget, or null for none. A malformed header falls back to the default. */
+    Duration timeout(String header) {
+        Duration timeout = props.getDefaultTimeout();
+        if (header != null && !header.isBlank()) {
+            try {
+                timeout = DurationStyle.detectAndParse(header.trim(), ChronoUnit.SECONDS);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        if (timeout == null || timeout.isZero() || timeout.isNegative()) return null;
+        Duration max = props.getMaxTimeout();
+        return max != null && !max.isZero() && timeout.compareTo(max) > 0 ? max : timeout;
+    }
+}
@@ -0,0 +1,23 @@
+package com.kickstart.timetable.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public class ParseTaskBatchRequest {
+    @NotEmpty
+    @Size(max = 200)
+    @JsonAlias({"texts", "lines"})
+    private List<@NotBlank String> inputs;
+
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    public void setInputs(List<String> inputs) {
+        this.inputs = inputs;
+    }
+}
@@ -0,0 +1,127 @@
+package com.kickstart.timetable.config;
+
+import com.kickstart.timetable.service.Deadline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Bounded executors for AI work that runs off the request thread.
+ *
+ * aiTaskExecutor runs whole pipelines (SSE streaming); ocrPageExecutor runs per-page OCR calls and
+ * extractChunkExecutor the chunked LLM extraction calls fanned out from inside a pipeline. They are
+ * separate so a pipeline never waits on work queued behind itself.
+ *
+ * With spring.threads.virtual.enabled (which also moves Tomcat's request threads to virtual threads) the
+ * two executors that only wait on upstream calls hand out virtual threads, capped at the same
+ * concurrency as their pools; upstream load stays bounded by the per-upstream slots and adaptive limit
+ * (*.http.*). ocrPageExecutor and imageExecutor stay platform pools: PDFBox rendering and ImageIO
+ * decoding are CPU-bound and hold monitors, which on Java 21 would pin the carrier threads every virtual
+ * thread shares.
+ *
+ * Every executor carries the submitting request's {@link Deadline} to the task.
+ */
+@Configuration
+public class AiExecutorConfig {
+
+    @Value("${ai.executor.core-threads:4}")
+    private int coreThreads;
+
+    @Value("${ai.executor.max-threads:16}")
+    private int maxThreads;
+
+    @Value("${ai.executor.queue-capacity:64}")
+    private int queueCapacity;
+
+    /** Threads for PDF rendering / image decoding; 0 = one per CPU. */
+    @Value("${ai.executor.image-threads:0}")
+    private int imageThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean(name = "aiTaskExecutor")
+    public AsyncTaskExecutor aiTaskExecutor() {
+        if (virtualThreads) {
+            return virtualExecutor("ai-", Math.max(coreThreads, maxThreads) + queueCapacity);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreThreads);
+        executor.setMaxPoolSize(Math.max(coreThreads, maxThreads));
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("ai-");
+        executor.setTaskDecorator(Deadline::propagate);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Per-page OCR of multi-page PDFs. When all threads are busy and the queue is full the submitting
+     * thread runs the page itself, which throttles rendering instead of failing the upload.
+     */
+    @Bean(name = "ocrPageExecutor")
+    public ThreadPoolTaskExecutor ocrPageExecutor(ImportProperties importProperties) {
+        int threads = Math.max(1, importProperties.getPdfOcrThreads());
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(Math.max(1, importProperties.getPdfMaxPages()));
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("ocr-page-");
+        executor.setTaskDecorator(Deadline::propagate);
+        return executor;
+    }
+
+    /**
+     * Concurrent extraction chunks (timetable.import.extraction-mode=chunked) and batch parse-task chunks;
+     * same caller-runs throttling.
+     */
+    @Bean(name = "extractChunkExecutor")
+    public AsyncTaskExecutor extractChunkExecutor(ImportProperties importProperties) {
+        int threads = Math.max(1, importProperties.getExtractionThreads());
+        if (virtualThreads) {
+            // Over the limit the submitting thread blocks, the virtual-thread form of caller-runs throttling.
+            return virtualExecutor("extract-", threads);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(Math.max(1, importProperties.getExtractionChunks()) * 4);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("extract-");
+        executor.setTaskDecorator(Deadline::propagate);
+        return executor;
+    }
+
+    /**
+     * PDF rendering and image preprocessing handed off by virtual threads (TimetableAiService); callers on
+     * platform threads run that work themselves.
+     */
+    @Bean(name = "imageExecutor")
+    public ThreadPoolTaskExecutor imageExecutor() {
+        int threads = imageThreads > 0 ? imageThreads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("image-");
+        executor.setTaskDecorator(Deadline::propagate);
+        return executor;
+    }
+
+    private static SimpleAsyncTaskExecutor virtualExecutor(String prefix, int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(prefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        executor.setTaskTerminationTimeout(30_000);
+        executor.setTaskDecorator(Deadline::propagate);
+        return executor;
+    }
+}
@@ -2,6 +2,8 @@ package com.kickstart.timetable.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties(prefix = "aistudio")
 public class AiStudioProperties {
 
@@ -25,6 +27,15 @@ public class AiStudioProperties {
      */
     private String structuredModel = "ernie-4.5-turbo-128k-preview";
 
+    /** Response cache for deterministic (low-temperature) calls. */
+    private Cache cache = new Cache();
+
+    /** Size- and latency-aware model routing (fast model first, escalate on invalid output). */
+    private Routing routing = new Routing();
+
+    /** HTTP client: in-flight cap, timeouts, HTTP/2, compression. */
+    private UpstreamHttpProperties http = new UpstreamHttpProperties();
+
     public String getBaseUrl() {
         return baseUrl;
     }
@@ -64,4 +75,178 @@ public class AiStudioProperties {
     public void setStructuredModel(String structuredModel) {
         this.structuredModel = structuredModel;
     }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    public void setRouting(Routing routing) {
+        this.routing = routing;
+    }
+
+    public UpstreamHttpProperties getHttp() {
+        return http;
+    }
+
+    public void setHttp(UpstreamHttpProperties http) {
+        this.http = http;
+    }
+
+    public static class Cache {
+        /** Cache responses keyed by hash of (model, system, user, temperature, response_format). */
+        private boolean enabled = true;
+
+        /** Only calls with temperature <= this value are cached; higher temperatures always go upstream. */
+        private double maxTemperature = 0.2;
+
+        /** Max number of cached responses. */
+        private int maxEntries = 512;
+
+        /** How long a cached response stays valid. */
+        private Duration ttl = Duration.ofHours(6);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getMaxTemperature() {
+            return maxTemperature;
+        }
+
+        public void setMaxTemperature(double maxTemperature) {
+            this.maxTemperature = maxTemperature;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+    }
+
+    public static class Routing {
+        /** Route small inputs to fastModel; when off every call uses model / structuredModel as before. */
+        private boolean enabled = false;
+
+        /** Cheap, low-latency model for small inputs, e.g. ernie-speed-128k. */
+        private String fastModel = "ernie-speed-128k";
+
+        /**
+         * Model used for large inputs and for escalation. Empty = the endpoint's own model
+         * (model for chat, structuredModel for structured output).
+         */
+        private String strongModel;
+
+        /** Inputs (system + user, estimated tokens) up to this size go to fastModel. */
+        private int smallInputTokens = 1500;
+
+        /** Number of recent calls per model kept for the latency percentile. */
+        private int latencyWindow = 64;
+
+        /** Percentile of the latency window used to judge a model, 0..1. */
+        private double latencyPercentile = 0.9;
+
+        /** Samples needed before a model can be judged slow. */
+        private int minSamples = 8;
+
+        /** fastModel is skipped while its latency percentile is above this and above strongModel's. */
+        private Duration slowLatency = Duration.ofSeconds(15);
+
+        /** While fastModel is skipped as slow, one small input per this period still goes to it as a probe. */
+        private Duration probeInterval = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getFastModel() {
+            return fastModel;
+        }
+
+        public void setFastModel(String fastModel) {
+            this.fastModel = fastModel;
+        }
+
+        public String getStrongModel() {
+            return strongModel;
+        }
+
+        public void setStrongModel(String strongModel) {
+            this.strongModel = strongModel;
+        }
+
+        public int getSmallInputTokens() {
+            return smallInputTokens;
+        }
+
+        public void setSmallInputTokens(int smallInputTokens) {
+            this.smallInputTokens = smallInputTokens;
+        }
+
+        public int getLatencyWindow() {
+            return latencyWindow;
+        }
+
+        public void setLatencyWindow(int latencyWindow) {
+            this.latencyWindow = latencyWindow;
+        }
+
+        public double getLatencyPercentile() {
+            return latencyPercentile;
+        }
+
+        public void setLatencyPercentile(double latencyPercentile) {
+            this.latencyPercentile = latencyPercentile;
+        }
+
+        public int getMinSamples() {
+            return minSamples;
+        }
+
+        public void setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+        }
+
+        public Duration getSlowLatency() {
+            return slowLatency;
+        }
+
+        public void setSlowLatency(Duration slowLatency) {
+            this.slowLatency = slowLatency;
+        }
+
+        public Duration getProbeInterval() {
+            return probeInterval;
+        }
+
+        public void setProbeInterval(Duration probeInterval) {
+            this.probeInterval = probeInterval;
+        }
+    }
 }
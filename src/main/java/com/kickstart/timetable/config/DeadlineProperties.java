@@ -0,0 +1,42 @@
+package com.kickstart.timetable.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "timetable.deadline")
+public class DeadlineProperties {
+
+    /** Request header with the client's time budget: plain number = seconds, or a duration like 1500ms / 45s. */
+    private String header = "X-Request-Timeout";
+
+    /** Budget for requests without the header; 0 = none. */
+    private Duration defaultTimeout = Duration.ZERO;
+
+    /** Upper bound for the header value. */
+    private Duration maxTimeout = Duration.ofMinutes(5);
+
+    public String getHeader() {
+        return header;
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public Duration getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    public void setDefaultTimeout(Duration defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public Duration getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    public void setMaxTimeout(Duration maxTimeout) {
+        this.maxTimeout = maxTimeout;
+    }
+}
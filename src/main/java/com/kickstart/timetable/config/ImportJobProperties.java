@@ -0,0 +1,64 @@
+package com.kickstart.timetable.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "timetable.jobs")
+public class ImportJobProperties {
+
+    /** Import jobs run concurrently (worker threads). */
+    private int workers = 2;
+
+    /** Jobs that may wait for a worker; further submissions get 503. */
+    private int queueCapacity = 50;
+
+    /** How long a finished job (result or error) can still be polled. */
+    private Duration resultTtl = Duration.ofMinutes(30);
+
+    /** Max finished jobs kept; the least recently polled are dropped first. */
+    private int maxResults = 500;
+
+    /** Max summed result size (bytes, UTF-16 estimate) of finished jobs kept. */
+    private long maxResultBytes = 64L * 1024 * 1024;
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Duration getResultTtl() {
+        return resultTtl;
+    }
+
+    public void setResultTtl(Duration resultTtl) {
+        this.resultTtl = resultTtl;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public long getMaxResultBytes() {
+        return maxResultBytes;
+    }
+
+    public void setMaxResultBytes(long maxResultBytes) {
+        this.maxResultBytes = maxResultBytes;
+    }
+}
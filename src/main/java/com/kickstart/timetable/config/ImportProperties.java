@@ -0,0 +1,232 @@
+package com.kickstart.timetable.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "timetable.import")
+public class ImportProperties {
+
+    /** How the LLM extraction is issued when the local parser isn't confident. */
+    public enum ExtractionMode {
+        /** One structured completion for the whole timetable. */
+        SINGLE,
+        /** Several concurrent completions, each for a group of weekday columns. */
+        CHUNKED
+    }
+
+    /** Max PDF pages rendered and OCR'd per upload; later pages are ignored. */
+    private int pdfMaxPages = 8;
+
+    /** Render resolution for PDF pages. */
+    private int pdfDpi = 200;
+
+    /** Pages OCR'd concurrently (size of the ocrPageExecutor pool). */
+    private int pdfOcrThreads = 4;
+
+    /** Heap PDFBox may use for a document's buffers before spilling to temp files. */
+    private long pdfMaxMainMemoryBytes = 16L * 1024 * 1024;
+
+    /** Downscale / re-encode images before OCR to shrink the upload to PaddleOCR. */
+    private boolean preprocessEnabled = true;
+
+    /** Longest edge (px) after preprocessing; larger images are downscaled. */
+    private int maxLongEdge = 2048;
+
+    /** Convert to 8-bit grayscale before encoding (timetables don't need color for OCR). */
+    private boolean grayscale = true;
+
+    /** Crop to the bounding box of the table found by a row/column ink projection. */
+    private boolean cropToContent = false;
+
+    /** JPEG quality (0-1) used when JPEG is cheaper than PNG. */
+    private float jpegQuality = 0.85f;
+
+    /** Try the local table parser before the LLM extraction. */
+    private boolean localParseEnabled = true;
+
+    /** Minimum share of timetable cells the local parser must explain for its result to be used. */
+    private double localParseMinConfidence = 0.9;
+
+    /** Compact the OCR markdown (dense tables, no markup noise) before putting it into the extraction prompt. */
+    private boolean compactPrompt = true;
+
+    /** Estimated-token budget for the OCR text in the extraction prompt; 0 = unlimited. */
+    private int promptTokenBudget = 6000;
+
+    /**
+     * Ask the model for the compact tuple schema ({courses:[...], rules:[[courseIdx, day, ...]]}) instead of
+     * verbose courseDefs / scheduleRules objects; max_tokens is then sized from the expected rule count.
+     */
+    private boolean compactSchema = true;
+
+    /** single or chunked (split by weekday columns, needs compact-prompt). */
+    private ExtractionMode extractionMode = ExtractionMode.SINGLE;
+
+    /** Max number of weekday groups in chunked mode. */
+    private int extractionChunks = 3;
+
+    /** Extraction chunks in flight across all imports (size of the extractChunkExecutor pool). */
+    private int extractionThreads = 6;
+
+    /**
+     * Assumed OCR latency until enough calls were measured; a request whose deadline leaves less than the
+     * typical (median) latency skips the stage.
+     */
+    private Duration typicalOcrLatency = Duration.ofSeconds(5);
+
+    /** Same for the LLM extraction. */
+    private Duration typicalExtractLatency = Duration.ofSeconds(30);
+
+    public int getPdfMaxPages() {
+        return pdfMaxPages;
+    }
+
+    public void setPdfMaxPages(int pdfMaxPages) {
+        this.pdfMaxPages = pdfMaxPages;
+    }
+
+    public int getPdfDpi() {
+        return pdfDpi;
+    }
+
+    public void setPdfDpi(int pdfDpi) {
+        this.pdfDpi = pdfDpi;
+    }
+
+    public int getPdfOcrThreads() {
+        return pdfOcrThreads;
+    }
+
+    public void setPdfOcrThreads(int pdfOcrThreads) {
+        this.pdfOcrThreads = pdfOcrThreads;
+    }
+
+    public long getPdfMaxMainMemoryBytes() {
+        return pdfMaxMainMemoryBytes;
+    }
+
+    public void setPdfMaxMainMemoryBytes(long pdfMaxMainMemoryBytes) {
+        this.pdfMaxMainMemoryBytes = pdfMaxMainMemoryBytes;
+    }
+
+    public boolean isPreprocessEnabled() {
+        return preprocessEnabled;
+    }
+
+    public void setPreprocessEnabled(boolean preprocessEnabled) {
+        this.preprocessEnabled = preprocessEnabled;
+    }
+
+    public int getMaxLongEdge() {
+        return maxLongEdge;
+    }
+
+    public void setMaxLongEdge(int maxLongEdge) {
+        this.maxLongEdge = maxLongEdge;
+    }
+
+    public boolean isGrayscale() {
+        return grayscale;
+    }
+
+    public void setGrayscale(boolean grayscale) {
+        this.grayscale = grayscale;
+    }
+
+    public boolean isCropToContent() {
+        return cropToContent;
+    }
+
+    public void setCropToContent(boolean cropToContent) {
+        this.cropToContent = cropToContent;
+    }
+
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+
+    public void setJpegQuality(float jpegQuality) {
+        this.jpegQuality = jpegQuality;
+    }
+
+    public boolean isLocalParseEnabled() {
+        return localParseEnabled;
+    }
+
+    public void setLocalParseEnabled(boolean localParseEnabled) {
+        this.localParseEnabled = localParseEnabled;
+    }
+
+    public double getLocalParseMinConfidence() {
+        return localParseMinConfidence;
+    }
+
+    public void setLocalParseMinConfidence(double localParseMinConfidence) {
+        this.localParseMinConfidence = localParseMinConfidence;
+    }
+
+    public boolean isCompactPrompt() {
+        return compactPrompt;
+    }
+
+    public void setCompactPrompt(boolean compactPrompt) {
+        this.compactPrompt = compactPrompt;
+    }
+
+    public int getPromptTokenBudget() {
+        return promptTokenBudget;
+    }
+
+    public void setPromptTokenBudget(int promptTokenBudget) {
+        this.promptTokenBudget = promptTokenBudget;
+    }
+
+    public ExtractionMode getExtractionMode() {
+        return extractionMode;
+    }
+
+    public void setExtractionMode(ExtractionMode extractionMode) {
+        this.extractionMode = extractionMode;
+    }
+
+    public int getExtractionChunks() {
+        return extractionChunks;
+    }
+
+    public void setExtractionChunks(int extractionChunks) {
+        this.extractionChunks = extractionChunks;
+    }
+
+    public int getExtractionThreads() {
+        return extractionThreads;
+    }
+
+    public void setExtractionThreads(int extractionThreads) {
+        this.extractionThreads = extractionThreads;
+    }
+
+    public boolean isCompactSchema() {
+        return compactSchema;
+    }
+
+    public void setCompactSchema(boolean compactSchema) {
+        this.compactSchema = compactSchema;
+    }
+
+    public Duration getTypicalOcrLatency() {
+        return typicalOcrLatency;
+    }
+
+    public void setTypicalOcrLatency(Duration typicalOcrLatency) {
+        this.typicalOcrLatency = typicalOcrLatency;
+    }
+
+    public Duration getTypicalExtractLatency() {
+        return typicalExtractLatency;
+    }
+
+    public void setTypicalExtractLatency(Duration typicalExtractLatency) {
+        this.typicalExtractLatency = typicalExtractLatency;
+    }
+}
@@ -0,0 +1,89 @@
+package com.kickstart.timetable.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "ocr.cache")
+public class OcrCacheProperties {
+
+    /** Cache PaddleOCR markdown by SHA-256 of the normalized image bytes. */
+    private boolean enabled = true;
+
+    /** How long a cached OCR result stays valid (both tiers). */
+    private Duration ttl = Duration.ofDays(7);
+
+    /** Max entries kept in the in-memory tier. */
+    private int memoryMaxEntries = 256;
+
+    /** Max summed markdown size (bytes, UTF-16 estimate) kept in the in-memory tier. */
+    private long memoryMaxBytes = 32L * 1024 * 1024;
+
+    /** Enable the on-disk tier (append-only segment file, survives restarts). */
+    private boolean diskEnabled = true;
+
+    /** Directory for the on-disk segment file. */
+    private String diskDir = "./data/ocr-cache";
+
+    /**
+     * Max segment file size in bytes; the file is compacted when it grows past this. At most 1 GiB (larger
+     * values are clamped) so the file can be read through a single memory mapping.
+     */
+    private long diskMaxBytes = 256L * 1024 * 1024;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getMemoryMaxEntries() {
+        return memoryMaxEntries;
+    }
+
+    public void setMemoryMaxEntries(int memoryMaxEntries) {
+        this.memoryMaxEntries = memoryMaxEntries;
+    }
+
+    public long getMemoryMaxBytes() {
+        return memoryMaxBytes;
+    }
+
+    public void setMemoryMaxBytes(long memoryMaxBytes) {
+        this.memoryMaxBytes = memoryMaxBytes;
+    }
+
+    public boolean isDiskEnabled() {
+        return diskEnabled;
+    }
+
+    public void setDiskEnabled(boolean diskEnabled) {
+        this.diskEnabled = diskEnabled;
+    }
+
+    public String getDiskDir() {
+        return diskDir;
+    }
+
+    public void setDiskDir(String diskDir) {
+        this.diskDir = diskDir;
+    }
+
+    public long getDiskMaxBytes() {
+        return diskMaxBytes;
+    }
+
+    public void setDiskMaxBytes(long diskMaxBytes) {
+        this.diskMaxBytes = diskMaxBytes;
+    }
+}
@@ -2,6 +2,8 @@ package com.kickstart.timetable.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties(prefix = "paddle")
 public class PaddleProperties {
     /** Full URL of PaddleOCR layout parsing endpoint. */
@@ -10,6 +12,16 @@ public class PaddleProperties {
     /** Authorization token used as: Authorization: token <TOKEN> */
     private String token;
 
+    /** HTTP client: in-flight cap, timeouts, HTTP/2, compression. OCR of a large page is slow, hence the longer read timeout. */
+    private UpstreamHttpProperties http = defaultHttp();
+
+    private static UpstreamHttpProperties defaultHttp() {
+        UpstreamHttpProperties http = new UpstreamHttpProperties();
+        http.setMaxConnections(16);
+        http.setReadTimeout(Duration.ofSeconds(180));
+        return http;
+    }
+
     public String getApiUrl() {
         return apiUrl;
     }
@@ -25,4 +37,12 @@ public class PaddleProperties {
     public void setToken(String token) {
         this.token = token;
     }
+
+    public UpstreamHttpProperties getHttp() {
+        return http;
+    }
+
+    public void setHttp(UpstreamHttpProperties http) {
+        this.http = http;
+    }
 }
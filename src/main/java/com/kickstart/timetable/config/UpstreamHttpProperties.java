@@ -0,0 +1,284 @@
+package com.kickstart.timetable.config;
+
+import java.time.Duration;
+
+/**
+ * HTTP client settings of one upstream (aistudio.http.*, paddle.http.*).
+ */
+public class UpstreamHttpProperties {
+
+    /** Max requests in flight to this upstream; further calls wait up to acquireTimeout for a slot. */
+    private int maxConnections = 32;
+
+    /** How long a call may wait for a free slot before it fails. */
+    private Duration acquireTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Idle keep-alive of pooled connections. The JDK client has one process-wide setting
+     * (jdk.httpclient.keepalive.timeout); the first upstream client built sets it unless it is already set.
+     */
+    private Duration keepAlive = Duration.ofMinutes(2);
+
+    /** TCP/TLS connect timeout. */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /** Time until the response headers arrive. */
+    private Duration readTimeout = Duration.ofSeconds(120);
+
+    /** Whole call including reading the body (e.g. a streamed completion); 0 = no limit. */
+    private Duration responseTimeout = Duration.ofMinutes(5);
+
+    /** Negotiate HTTP/2 (ALPN on TLS, upgrade on plain HTTP); false forces HTTP/1.1. */
+    private boolean http2 = true;
+
+    /** Send Accept-Encoding: gzip and decode gzip responses. */
+    private boolean compressResponses = true;
+
+    /** Gzip request bodies (Content-Encoding: gzip). Only enable for upstreams that accept it. */
+    private boolean compressRequests = false;
+
+    /**
+     * Send a second identical request when the first has not answered within hedgePercentile of recent
+     * latencies; the first response wins and the other is cancelled. Limited by upstream.hedge.budget.
+     */
+    private boolean hedgeEnabled = false;
+
+    /** Percentile of the recent latency window after which a hedge is sent, 0..1. */
+    private double hedgePercentile = 0.95;
+
+    /** Never hedge earlier than this. */
+    private Duration hedgeMinDelay = Duration.ofSeconds(2);
+
+    /** Recent successful calls kept for the hedge percentile. */
+    private int hedgeWindow = 128;
+
+    /** Calls needed before hedging starts. */
+    private int hedgeMinSamples = 20;
+
+    /**
+     * Adapt the number of calls let through to this upstream (AIMD, between limitMin and maxConnections).
+     * Calls over the current limit fail at once with 503 instead of waiting for a slot. The defaults are
+     * conservative: the limit starts at maxConnections, each congestion signal only takes 10% off, and it
+     * climbs back every limitRecovery. Raise limitTolerance if the upstream's normal latency spread is wide.
+     */
+    private boolean adaptiveLimit = true;
+
+    /** Lowest concurrency limit the adaptive limiter backs off to. */
+    private int limitMin = 2;
+
+    /** A call slower than this multiple of the recent median latency counts as congestion. */
+    private double limitTolerance = 2.0;
+
+    /** Factor the limit is multiplied by on congestion or failure, 0..1. */
+    private double limitBackoff = 0.9;
+
+    /** The limit rises by one for every period this long without congestion or failures; 0 = never. */
+    private Duration limitRecovery = Duration.ofSeconds(10);
+
+    /** Stop calling this upstream for breakerOpenDuration while too many recent calls fail. */
+    private boolean breakerEnabled = true;
+
+    /** Recent calls the circuit breaker's failure rate is computed over. */
+    private int breakerWindow = 20;
+
+    /** Calls needed in the window before the breaker may open. */
+    private int breakerMinCalls = 10;
+
+    /** Failure rate (0..1) of the window at which the breaker opens. */
+    private double breakerFailureRate = 0.5;
+
+    /** How long an open breaker fails calls fast before letting one probe call through. */
+    private Duration breakerOpenDuration = Duration.ofSeconds(30);
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Duration getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(Duration acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    public void setResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public boolean isCompressResponses() {
+        return compressResponses;
+    }
+
+    public void setCompressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    public void setCompressRequests(boolean compressRequests) {
+        this.compressRequests = compressRequests;
+    }
+
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    public void setHedgeEnabled(boolean hedgeEnabled) {
+        this.hedgeEnabled = hedgeEnabled;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public Duration getHedgeMinDelay() {
+        return hedgeMinDelay;
+    }
+
+    public void setHedgeMinDelay(Duration hedgeMinDelay) {
+        this.hedgeMinDelay = hedgeMinDelay;
+    }
+
+    public int getHedgeWindow() {
+        return hedgeWindow;
+    }
+
+    public void setHedgeWindow(int hedgeWindow) {
+        this.hedgeWindow = hedgeWindow;
+    }
+
+    public int getHedgeMinSamples() {
+        return hedgeMinSamples;
+    }
+
+    public void setHedgeMinSamples(int hedgeMinSamples) {
+        this.hedgeMinSamples = hedgeMinSamples;
+    }
+
+    public boolean isAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    public void setAdaptiveLimit(boolean adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+    }
+
+    public int getLimitMin() {
+        return limitMin;
+    }
+
+    public void setLimitMin(int limitMin) {
+        this.limitMin = limitMin;
+    }
+
+    public double getLimitTolerance() {
+        return limitTolerance;
+    }
+
+    public void setLimitTolerance(double limitTolerance) {
+        this.limitTolerance = limitTolerance;
+    }
+
+    public double getLimitBackoff() {
+        return limitBackoff;
+    }
+
+    public void setLimitBackoff(double limitBackoff) {
+        this.limitBackoff = limitBackoff;
+    }
+
+    public Duration getLimitRecovery() {
+        return limitRecovery;
+    }
+
+    public void setLimitRecovery(Duration limitRecovery) {
+        this.limitRecovery = limitRecovery;
+    }
+
+    public boolean isBreakerEnabled() {
+        return breakerEnabled;
+    }
+
+    public void setBreakerEnabled(boolean breakerEnabled) {
+        this.breakerEnabled = breakerEnabled;
+    }
+
+    public int getBreakerWindow() {
+        return breakerWindow;
+    }
+
+    public void setBreakerWindow(int breakerWindow) {
+        this.breakerWindow = breakerWindow;
+    }
+
+    public int getBreakerMinCalls() {
+        return breakerMinCalls;
+    }
+
+    public void setBreakerMinCalls(int breakerMinCalls) {
+        this.breakerMinCalls = breakerMinCalls;
+    }
+
+    public double getBreakerFailureRate() {
+        return breakerFailureRate;
+    }
+
+    public void setBreakerFailureRate(double breakerFailureRate) {
+        this.breakerFailureRate = breakerFailureRate;
+    }
+
+    public Duration getBreakerOpenDuration() {
+        return breakerOpenDuration;
+    }
+
+    public void setBreakerOpenDuration(Duration breakerOpenDuration) {
+        this.breakerOpenDuration = breakerOpenDuration;
+    }
+}
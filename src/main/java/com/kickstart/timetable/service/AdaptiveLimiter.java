@@ -0,0 +1,99 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AIMD concurrency limit for one upstream (aistudio.http.limit-*, paddle.http.limit-*).
+ *
+ * The limit starts at max-connections. A call slower than limit-tolerance times the median of recent
+ * successful calls of the same class, or one that fails, multiplies it by limit-backoff (not below
+ * limit-min); a normal call raises it by 1/limit, i.e. by about one per round of calls. Classes keep
+ * calls of different expected length apart (e.g. a 1k-token completion and an 8k-token one), so a long
+ * call is only compared with long calls. Every limit-recovery without a back-off also raises the limit
+ * by one, so it returns to max-connections when the upstream is healthy but lightly used. Calls beyond
+ * the limit are refused rather than queued.
+ */
+final class AdaptiveLimiter {
+
+    private static final int MIN_SAMPLES = 10;
+
+    /** Latency class of calls that don't name one. */
+    static final String DEFAULT_CLASS = "default";
+
+    private final UpstreamHttpProperties props;
+    private final int max;
+    private final Map<String, LatencyWindow> latencies = new HashMap<>();
+    private double limit;
+    private int inFlight;
+    private long lastChange = System.nanoTime();
+
+    AdaptiveLimiter(UpstreamHttpProperties props) {
+        this.props = props;
+        this.max = Math.max(1, props.getMaxConnections());
+        this.limit = max;
+    }
+
+    synchronized boolean tryAcquire() {
+        recover();
+        if (props.isAdaptiveLimit() && inFlight >= (int) limit) return false;
+        inFlight++;
+        return true;
+    }
+
+    /** A call of {@link #DEFAULT_CLASS} that completed normally after {@code nanos}. */
+    synchronized void onSuccess(long nanos) {
+        onSuccess(DEFAULT_CLASS, nanos);
+    }
+
+    /** A call of latency class {@code callClass} that completed normally after {@code nanos}. */
+    synchronized void onSuccess(String callClass, long nanos) {
+        inFlight--;
+        LatencyWindow window = latencies.computeIfAbsent(callClass, k -> new LatencyWindow(100));
+        long median = window.percentile(0.5, MIN_SAMPLES);
+        window.add(nanos);
+        if (median >= 0 && nanos > props.getLimitTolerance() * median) {
+            backOff();
+        } else {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+    }
+
+    /** A call the upstream failed (error status, timeout, broken connection). */
+    synchronized void onFailure() {
+        inFlight--;
+        backOff();
+    }
+
+    /** A call that says nothing about the upstream's health (e.g. rejected as a bad request). */
+    synchronized void onIgnore() {
+        inFlight--;
+    }
+
+    synchronized int limit() {
+        recover();
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private void backOff() {
+        limit = Math.max(Math.max(1, props.getLimitMin()), limit * props.getLimitBackoff());
+        lastChange = System.nanoTime();
+    }
+
+    /** One step back up per limit-recovery elapsed since the last back-off (or step). */
+    private void recover() {
+        long step = props.getLimitRecovery().toNanos();
+        if (limit >= max || step <= 0) return;
+        long now = System.nanoTime();
+        long steps = (now - lastChange) / step;
+        if (steps <= 0) return;
+        limit = Math.min(max, limit + steps);
+        lastChange += steps * step;
+    }
+}
@@ -1,48 +1,266 @@
 package com.kickstart.timetable.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.kickstart.timetable.util.JsonObjectExtractor;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kickstart.timetable.util.LenientJsonReader;
+import com.kickstart.timetable.util.MicroBatcher;
+import com.kickstart.timetable.util.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class AiAssistantService {
 
+    private static final Logger log = LoggerFactory.getLogger(AiAssistantService.class);
+    private static final TypeReference<Map<String, Object>> TASK = new TypeReference<>() {};
+    private static final String TASK_SYSTEM_PROMPT = "你是任务结构化抽取器。你只能输出JSON对象，禁止输出解释或多余文字。";
+    private static final String BATCH_SYSTEM_PROMPT = "你是任务结构化抽取器。你只能输出JSON数组，禁止输出解释或多余文字。";
+    private static final String TASK_FIELDS = "title(string), dueDate(string|null, ISO YYYY-MM-DD), priority(one of Low,Medium,High,Urgent)," +
+            "estimatedDurationMinutes(int), relatedCourse(string|null)。\n" +
+            "如果缺失dueDate则为null；estimatedDurationMinutes缺失时默认60；priority按紧急程度推断。";
+
+    /** Output tokens per parsed task in a batch answer, plus a fixed allowance for the array itself. */
+    private static final int BATCH_BASE_TOKENS = 128;
+    private static final int BATCH_TOKENS_PER_TASK = 80;
+    private static final int BATCH_MAX_TOKENS = 8192;
+
     private final AiStudioChatClient ai;
     private final ObjectMapper om;
+    private final TaskExecutor chunkExecutor;
+    private final int batchInputTokens;
+    private final int batchMaxItems;
+    private final TaskTextParser localParser = new TaskTextParser(Clock.systemDefaultZone());
+    private final boolean localParseEnabled;
+    private final double localMinConfidence;
+    private final Counter localParses;
+    private final Counter llmParses;
+    private final DistributionSummary localConfidence;
+    private final MicroBatcher<String, Map<String, Object>> batcher;
 
-    public AiAssistantService(AiStudioChatClient ai, ObjectMapper om) {
+    public AiAssistantService(AiStudioChatClient ai, ObjectMapper om,
+                              @Qualifier("extractChunkExecutor") TaskExecutor chunkExecutor,
+                              @Value("${ai.parse-task.batch-input-tokens:3000}") int batchInputTokens,
+                              @Value("${ai.parse-task.batch-max-items:40}") int batchMaxItems,
+                              @Value("${ai.parse-task.local-parse-enabled:true}") boolean localParseEnabled,
+                              @Value("${ai.parse-task.local-min-confidence:0.8}") double localMinConfidence,
+                              @Value("${ai.parse-task.micro-batch-max-items:8}") int microBatchMaxItems,
+                              @Value("${ai.parse-task.micro-batch-wait:20ms}") Duration microBatchWait,
+                              MeterRegistry registry) {
         this.ai = ai;
         this.om = om;
+        this.chunkExecutor = chunkExecutor;
+        this.batchInputTokens = batchInputTokens;
+        this.batchMaxItems = Math.max(1, Math.min(batchMaxItems, (BATCH_MAX_TOKENS - BATCH_BASE_TOKENS) / BATCH_TOKENS_PER_TASK));
+        this.localParseEnabled = localParseEnabled;
+        this.localMinConfidence = localMinConfidence;
+        this.localParses = Counter.builder("task.parse").tag("path", "local").register(registry);
+        this.llmParses = Counter.builder("task.parse").tag("path", "llm").register(registry);
+        this.localConfidence = DistributionSummary.builder("task.parse.local.confidence").register(registry);
+        this.batcher = new MicroBatcher<>("task.parse", Math.min(microBatchMaxItems, this.batchMaxItems), microBatchWait,
+                this::parseWithLlm, registry);
     }
 
     /**
-     * Parse a natural language task into structured JSON.
+     * Parse a natural language task into structured JSON. Formulaic inputs are handled by
+     * {@link TaskTextParser}; the LLM is only called when its confidence is below
+     * ai.parse-task.local-min-confidence.
+     *
+     * Concurrent LLM-bound calls are micro-batched: requests arriving within ai.parse-task.micro-batch-wait
+     * (up to micro-batch-max-items) share one indexed batch prompt, and each caller gets its own result.
+     * micro-batch-max-items=1 or a zero wait sends every request on its own.
      */
     public Map<String, Object> parseTask(String input) {
-        String system = "你是任务结构化抽取器。你只能输出JSON对象，禁止输出解释或多余文字。";
-        String user = "请将下面的中文任务描述解析成JSON对象，字段必须为：" +
-                "title(string), dueDate(string|null, ISO YYYY-MM-DD), priority(one of Low,Medium,High,Urgent)," +
-                "estimatedDurationMinutes(int), relatedCourse(string|null)。\n" +
-                "如果缺失dueDate则为null；estimatedDurationMinutes缺失时默认60；priority按紧急程度推断。\n\n" +
+        Map<String, Object> local = parseLocally(input);
+        if (local != null) return local;
+        return batcher.call(input);
+    }
+
+    /** Local parse result, or null if disabled or not confident enough. */
+    private Map<String, Object> parseLocally(String input) {
+        if (!localParseEnabled) return null;
+        TaskTextParser.Result result = localParser.parse(input);
+        localConfidence.record(result.confidence());
+        if (result.confidence() < localMinConfidence) return null;
+        localParses.increment();
+        return result.toMap();
+    }
+
+    private Map<String, Object> parseTaskWithLlm(String input) {
+        llmParses.increment();
+        String user = "请将下面的中文任务描述解析成JSON对象，字段必须为：" + TASK_FIELDS + "\n\n" +
                 "任务描述：" + input;
 
-        String raw = ai.chat(system, user, 0.2, 1024);
-        String json = JsonObjectExtractor.extractObject(raw);
-        if (json == null) {
+        String raw = ai.chat(TASK_SYSTEM_PROMPT, user, 0.2, 1024, out -> LenientJsonReader.firstObject(out, false) != null);
+        JsonNode n = LenientJsonReader.firstObject(raw, false);
+        if (n == null) {
             throw new RuntimeException("LLM 未返回有效 JSON");
         }
         try {
-            JsonNode n = om.readTree(json);
-            return om.convertValue(n, Map.class);
+            return om.convertValue(n, TASK);
         } catch (Exception e) {
             throw new RuntimeException("解析任务 JSON 失败", e);
         }
     }
 
+    /**
+     * Parse many task descriptions with as few LLM calls as possible. Inputs the local parser is confident
+     * about are answered directly; the others are packed in order into chunks
+     * of at most ai.parse-task.batch-input-tokens (estimated) and batch-max-items each; every chunk is one
+     * call that answers with an array of objects tagged by input index, and the chunks run concurrently.
+     * Indexes the model drops or garbles are parsed again one by one.
+     *
+     * Results are aligned with {@code inputs}; an input that still fails becomes {@code {"error": "..."}}.
+     */
+    public List<Map<String, Object>> parseTasks(List<String> inputs) {
+        List<CompletableFuture<Map<String, Object>>> results = new ArrayList<>();
+        List<String> pendingInputs = new ArrayList<>();
+        List<CompletableFuture<Map<String, Object>>> pending = new ArrayList<>();
+        for (String input : inputs) {
+            CompletableFuture<Map<String, Object>> result = new CompletableFuture<>();
+            Map<String, Object> local = parseLocally(input);
+            if (local != null) {
+                result.complete(local);
+            } else {
+                pendingInputs.add(input);
+                pending.add(result);
+            }
+            results.add(result);
+        }
+        if (!pendingInputs.isEmpty()) parseWithLlm(pendingInputs, pending);
+
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (CompletableFuture<Map<String, Object>> result : results) {
+            try {
+                out.add(result.join());
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                out.add(Map.of("error", cause.getMessage() == null ? cause.toString() : cause.getMessage()));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * LLM path for several inputs: packed chunk calls run concurrently, then every input without a valid
+     * answer is parsed on its own. Completes {@code results.get(i)} for {@code inputs.get(i)} and returns
+     * once all of them are done.
+     */
+    private void parseWithLlm(List<String> inputs, List<CompletableFuture<Map<String, Object>>> results) {
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        for (List<Integer> chunk : pack(inputs, batchInputTokens, batchMaxItems)) {
+            if (chunk.size() == 1) continue; // a single input is cheaper as a plain call below
+            calls.add(CompletableFuture.runAsync(() -> parseChunk(inputs, chunk, results), chunkExecutor));
+        }
+        calls.forEach(CompletableFuture::join);
+
+        List<CompletableFuture<Void>> retries = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            CompletableFuture<Map<String, Object>> result = results.get(i);
+            if (result.isDone()) continue;
+            String input = inputs.get(i);
+            retries.add(CompletableFuture.runAsync(() -> {
+                try {
+                    result.complete(parseTaskWithLlm(input));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }, chunkExecutor));
+        }
+        retries.forEach(CompletableFuture::join);
+    }
+
+    /** Input indexes grouped in order so that each group fits {@code budgetTokens} and {@code maxItems}. */
+    static List<List<Integer>> pack(List<String> inputs, int budgetTokens, int maxItems) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            // +8 for the {"index":n,"text":...} wrapper around each input
+            int cost = TokenEstimator.estimate(inputs.get(i)) + 8;
+            if (!current.isEmpty() && (tokens + cost > budgetTokens || current.size() >= maxItems)) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(i);
+            tokens += cost;
+        }
+        if (!current.isEmpty()) chunks.add(current);
+        return chunks;
+    }
+
+    /**
+     * One batch call. Valid answers complete the result at their input index; a failed call leaves every
+     * index of the chunk open, so they all get the individual retry, unless the upstream itself is failing:
+     * then the chunk's results fail with that error instead of sending one more call per input.
+     */
+    private void parseChunk(List<String> inputs, List<Integer> chunk, List<CompletableFuture<Map<String, Object>>> results) {
+        ArrayNode items = om.createArrayNode();
+        for (int index : chunk) {
+            items.addObject().put("index", index).put("text", inputs.get(index));
+        }
+        String user = "下面的JSON数组中每个元素是一条中文任务描述(index为编号)。请逐条解析，输出一个JSON数组，" +
+                "每条输入对应一个JSON对象，字段必须为：index(int, 与输入相同), " + TASK_FIELDS + "\n" +
+                "不得遗漏、合并或改变 index。\n\n任务列表：" + items;
+        int maxTokens = Math.min(BATCH_MAX_TOKENS, BATCH_BASE_TOKENS + chunk.size() * BATCH_TOKENS_PER_TASK);
+
+        llmParses.increment(chunk.size());
+        String raw;
+        try {
+            raw = ai.chat(BATCH_SYSTEM_PROMPT, user, 0.2, maxTokens, out -> LenientJsonReader.firstArray(out, false) != null);
+        } catch (RuntimeException e) {
+            if (isUpstreamFault(e)) {
+                log.warn("Batch task parse of {} inputs failed, not retrying them one by one: {}", chunk.size(), e.toString());
+                chunk.forEach(index -> results.get(index).completeExceptionally(e));
+            } else {
+                log.warn("Batch task parse of {} inputs failed, retrying them one by one: {}", chunk.size(), e.toString());
+            }
+            return;
+        }
+        // A batch cut off at max_tokens keeps its complete items; the rest are parsed again one by one.
+        JsonNode arr = LenientJsonReader.firstArray(raw, true);
+        if (arr == null) return;
+        for (JsonNode item : arr) {
+            if (!item.isObject() || !item.path("index").canConvertToInt()) continue;
+            int index = item.path("index").asInt();
+            if (!chunk.contains(index) || item.path("title").asText("").isBlank()) continue;
+            ObjectNode task = ((ObjectNode) item).deepCopy();
+            task.remove("index");
+            // First answer for an index wins; a repeated index is ignored.
+            results.get(index).complete(om.convertValue(task, TASK));
+        }
+    }
+
+    /** Failures that smaller requests would not avoid: the upstream is refusing, down, overloaded or out of time. */
+    private static boolean isUpstreamFault(RuntimeException e) {
+        if (e instanceof RestClientResponseException r) {
+            int status = r.getStatusCode().value();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return e instanceof UpstreamUnavailableException || e instanceof DeadlineExceededException
+                || e instanceof ResourceAccessException;
+    }
+
     /**
      * Generate schedule blocks for next 3 days. Returns JSON array.
      */
@@ -55,15 +273,13 @@ public class AiAssistantService {
                 "输入JSON如下：\n" +
                 safeStringify(payload);
 
-        String raw = ai.chat(system, user, 0.4, 2048);
-        // We want an array; reuse JsonArrayExtractor but take the first array
+        String raw = ai.chat(system, user, 0.4, 2048, out -> LenientJsonReader.firstArray(out, false) != null);
+        // We want an array: take the first one in the output
         try {
-            String arrayText = com.kickstart.timetable.util.JsonArrayExtractor.extractArrays(raw, 1).stream().findFirst().orElse(null);
-            if (arrayText == null) {
+            JsonNode arr = LenientJsonReader.firstArray(raw, false);
+            if (arr == null) {
                 throw new RuntimeException("LLM 未返回有效 JSON 数组");
             }
-            JsonNode arr = om.readTree(arrayText);
-            if (!arr.isArray()) throw new RuntimeException("LLM 输出不是数组");
             return om.convertValue(arr, List.class);
         } catch (Exception e) {
             throw new RuntimeException("解析排期 JSON 失败", e);
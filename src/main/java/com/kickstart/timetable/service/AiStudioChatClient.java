@@ -5,30 +5,75 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.kickstart.timetable.config.AiStudioProperties;
+import com.kickstart.timetable.util.ContentHash;
+import com.kickstart.timetable.util.LenientJsonReader;
+import com.kickstart.timetable.util.SingleFlight;
+import com.kickstart.timetable.util.TokenEstimator;
+import com.kickstart.timetable.util.TtlLruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
 @Component
 public class AiStudioChatClient {
 
     private final AiStudioProperties props;
     private final RestClient restClient;
     private final ObjectMapper om;
+    private final TtlLruCache<String, JsonNode> responseCache;
+    private final ModelRouter router;
+    private final RequestHedger hedger;
+    private final UpstreamGuard guard;
+    private final SingleFlight<String, JsonNode> inFlight;
+    private final Counter chatCacheHits;
+    private final Counter chatCacheMisses;
+    private final Counter structuredCacheHits;
+    private final Counter structuredCacheMisses;
 
-    public AiStudioChatClient(AiStudioProperties props, RestClient.Builder builder, ObjectMapper om) {
+    public AiStudioChatClient(AiStudioProperties props, RestClient.Builder builder, ObjectMapper om, MeterRegistry registry,
+                              HedgeBudget hedgeBudget) {
         this.props = props;
         this.om = om;
         // Build without baseUrl to avoid startup failure when env vars are not set yet.
-        this.restClient = builder.build();
+        this.restClient = builder.requestFactory(new UpstreamRequestFactory("aistudio", props.getHttp(), registry)).build();
+        AiStudioProperties.Cache cache = props.getCache();
+        this.responseCache = new TtlLruCache<>(cache.getMaxEntries(), 0, cache.getTtl(), null);
+        Gauge.builder("aistudio.cache.entries", responseCache, TtlLruCache::size).register(registry);
+        this.router = new ModelRouter(props.getRouting(), registry);
+        this.hedger = new RequestHedger("aistudio", props.getHttp(), hedgeBudget, registry);
+        this.guard = new UpstreamGuard("aistudio", props.getHttp(), registry);
+        this.inFlight = new SingleFlight<>("aistudio", registry);
+        this.chatCacheHits = cacheLookups(registry, "chat", "hit");
+        this.chatCacheMisses = cacheLookups(registry, "chat", "miss");
+        this.structuredCacheHits = cacheLookups(registry, "structured", "hit");
+        this.structuredCacheMisses = cacheLookups(registry, "structured", "miss");
     }
 
     /**
      * Call AIStudio Chat Completions (non-streaming) and return extracted assistant text.
      */
     public String chat(String system, String user, double temperature, int maxTokens) {
-        JsonNode resp = chatRawWith(system, user, temperature, maxTokens, null, null);
+        return chat(system, user, temperature, maxTokens, content -> true);
+    }
+
+    /**
+     * Like {@link #chat(String, String, double, int)}; with aistudio.routing enabled, an answer from the fast
+     * model that is blank or fails {@code valid} is retried once on the strong model.
+     */
+    public String chat(String system, String user, double temperature, int maxTokens, Predicate<String> valid) {
+        JsonNode resp = routedCall("chat", system, user, temperature, maxTokens, props.getModel(), null, valid);
         if (resp == null) {
             throw new RuntimeException("AIStudio 无响应");
         }
@@ -56,13 +101,10 @@ public class AiStudioChatClient {
      * 2) AIStudio 文档说明 response_format 结构化输出仅在部分模型上支持（如 ERNIE 4.5 / 4.0-turbo / 3.5）
      */
     public String chatStructuredJsonObject(String system, String user, double temperature, int maxTokens) {
-        ObjectNode rf = om.createObjectNode();
-        rf.put("type", "json_object");
-        String modelOverride = (props.getStructuredModel() == null || props.getStructuredModel().isBlank())
-                ? props.getModel()
-                : props.getStructuredModel();
-
-        JsonNode resp = chatRawWith(system, user, temperature, maxTokens, modelOverride, rf);
+        ObjectNode rf = jsonObjectFormat();
+        // Structured output is only valid if it contains a JSON object; otherwise escalate (when routed).
+        JsonNode resp = routedCall("structured", system, user, temperature, maxTokens, structuredModel(), rf,
+                content -> LenientJsonReader.firstObject(content, false) != null);
         if (resp == null) {
             throw new RuntimeException("AIStudio 无响应");
         }
@@ -76,21 +118,207 @@ public class AiStudioChatClient {
         return content;
     }
 
+    /**
+     * Streaming variant of {@link #chatStructuredJsonObject}: sends {@code "stream": true}, consumes the
+     * OpenAI-compatible SSE stream and passes every content delta to {@code onDelta} as it arrives.
+     * Returns the full content. A cached answer is replayed as a single delta.
+     *
+     * Routing picks the model by input size only: deltas are already forwarded, so there is no escalation.
+     */
+    public String chatStructuredJsonObjectStream(String system, String user, double temperature, int maxTokens,
+                                                 Consumer<String> onDelta) {
+        validateConfig();
+        ObjectNode rf = jsonObjectFormat();
+        String model = router.route(structuredModel(), inputTokens(system, user)).model();
+
+        AiStudioProperties.Cache cacheProps = props.getCache();
+        String cacheKey = null;
+        if (cacheProps.isEnabled() && temperature <= cacheProps.getMaxTemperature()) {
+            cacheKey = cacheKey(model, system, user, temperature, rf);
+            JsonNode cached = responseCache.get(cacheKey);
+            countCacheLookup("structured", cached != null);
+            if (cached != null) {
+                String content = extractFinalContent(cached);
+                onDelta.accept(content);
+                return content;
+            }
+        }
+
+        ObjectNode req = buildRequest(model, system, user, temperature, maxTokens, rf, true);
+        long start = System.nanoTime();
+        StreamResult result;
+        try {
+            // No latency class: a stream lasts as long as the answer is long.
+            result = guard.call(null, () -> restClient.post()
+                    .uri(chatUrl())
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + props.getApiKey())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM, MediaType.APPLICATION_JSON)
+                    .body(req)
+                    .exchange((request, response) -> {
+                        if (response.getStatusCode().isError()) {
+                            String body = new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+                            throw new RuntimeException("AIStudio 流式调用失败: HTTP " + response.getStatusCode().value() + " " + body);
+                        }
+                        MediaType type = response.getHeaders().getContentType();
+                        if (type != null && MediaType.APPLICATION_JSON.isCompatibleWith(type)) {
+                            // Upstream ignored stream=true and answered with a normal completion.
+                            JsonNode full = om.readTree(response.getBody());
+                            String content = extractFinalContent(full);
+                            if (!content.isEmpty()) onDelta.accept(content);
+                            return new StreamResult(content, full.at("/choices/0/finish_reason").asText(""));
+                        }
+                        return readEventStream(new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)), onDelta);
+                    }));
+        } finally {
+            router.record(model, System.nanoTime() - start);
+        }
+
+        if (result == null || result.content.isBlank()) {
+            throw new RuntimeException("AIStudio 流式返回为空（未收到 delta.content）。model=" + model
+                    + ", finish_reason=" + (result == null ? "" : result.finishReason));
+        }
+        if (cacheKey != null && !"length".equals(result.finishReason)) {
+            ObjectNode synthetic = om.createObjectNode();
+            synthetic.put("model", model);
+            ObjectNode choice = synthetic.putArray("choices").addObject();
+            choice.putObject("message").put("role", "assistant").put("content", result.content);
+            choice.put("finish_reason", result.finishReason);
+            responseCache.put(cacheKey, synthetic);
+        }
+        return result.content;
+    }
+
+    private StreamResult readEventStream(BufferedReader reader, Consumer<String> onDelta) throws IOException {
+        StringBuilder content = new StringBuilder();
+        String finishReason = "";
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) continue;
+            String data = line.substring(5).trim();
+            if (data.isEmpty()) continue;
+            if ("[DONE]".equals(data)) break;
+            JsonNode chunk = om.readTree(data);
+            if (chunk.hasNonNull("error")) {
+                throw new RuntimeException("AIStudio 流式返回错误: " + chunk.get("error"));
+            }
+            // thinking 模型的 reasoning_content 不转发，只取正文 delta.content
+            String delta = extractContentNode(chunk.at("/choices/0/delta/content"));
+            if (!delta.isEmpty()) {
+                content.append(delta);
+                onDelta.accept(delta);
+            }
+            String fr = chunk.at("/choices/0/finish_reason").asText("");
+            if (!fr.isBlank() && !"null".equals(fr)) finishReason = fr;
+        }
+        return new StreamResult(content.toString(), finishReason);
+    }
+
+    private record StreamResult(String content, String finishReason) {}
+
     /**
      * Minimal raw call for debugging connectivity and response shape.
      */
     public JsonNode chatRaw(String system, String user, double temperature, int maxTokens) {
-        return chatRawWith(system, user, temperature, maxTokens, null, null);
+        return call("raw", system, user, temperature, maxTokens, null, null);
     }
 
     /**
      * Raw call with optional model override and response_format.
      */
     public JsonNode chatRawWith(String system, String user, double temperature, int maxTokens, String modelOverride, JsonNode responseFormat) {
+        return call("raw", system, user, temperature, maxTokens, modelOverride, responseFormat);
+    }
+
+    /**
+     * Completion on the model chosen by {@link ModelRouter}. If the fast model's content is blank or fails
+     * {@code valid}, the call is repeated once on the strong model and that response is returned as is.
+     */
+    private JsonNode routedCall(String endpoint, String system, String user, double temperature, int maxTokens,
+                                String defaultModel, JsonNode responseFormat, Predicate<String> valid) {
+        validateConfig();
+        ModelRouter.Route route = router.route(defaultModel, inputTokens(system, user));
+        JsonNode resp = call(endpoint, system, user, temperature, maxTokens, route.model(), responseFormat);
+        String content = extractFinalContent(resp);
+        if (!content.isBlank() && valid.test(content)) {
+            return resp;
+        }
+        String stronger = router.escalation(route.model(), defaultModel);
+        return stronger == null ? resp : call(endpoint, system, user, temperature, maxTokens, stronger, responseFormat);
+    }
+
+    private static int inputTokens(String system, String user) {
+        return TokenEstimator.estimate(system) + TokenEstimator.estimate(user);
+    }
+
+    /**
+     * Shared path for all completions. Deterministic chat/structured calls (temperature <=
+     * aistudio.cache.max-temperature) are answered from the response cache when possible. Identical
+     * chat/structured calls already in flight are joined instead of sent again, whatever the temperature.
+     * Raw calls are used for connectivity checks and always go upstream.
+     */
+    private JsonNode call(String endpoint, String system, String user, double temperature, int maxTokens,
+                          String modelOverride, JsonNode responseFormat) {
         validateConfig();
 
         String model = (modelOverride == null || modelOverride.isBlank()) ? props.getModel() : modelOverride;
+        if ("raw".equals(endpoint)) {
+            return timedPost(model, system, user, temperature, maxTokens, responseFormat);
+        }
+
+        String key = cacheKey(model, system, user, temperature, responseFormat);
+        AiStudioProperties.Cache cacheProps = props.getCache();
+        boolean cacheable = cacheProps.isEnabled() && temperature <= cacheProps.getMaxTemperature();
+        if (cacheable) {
+            JsonNode cached = responseCache.get(key);
+            countCacheLookup(endpoint, cached != null);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        return inFlight.execute(key + "/" + maxTokens, () -> {
+            JsonNode resp = timedPost(model, system, user, temperature, maxTokens, responseFormat);
+            if (cacheable && isCacheable(resp)) {
+                responseCache.put(key, resp);
+            }
+            return resp;
+        });
+    }
+
+    private JsonNode timedPost(String model, String system, String user, double temperature, int maxTokens,
+                               JsonNode responseFormat) {
+        long start = System.nanoTime();
+        try {
+            return post(model, system, user, temperature, maxTokens, responseFormat);
+        } finally {
+            router.record(model, System.nanoTime() - start);
+        }
+    }
+
+    private JsonNode post(String model, String system, String user, double temperature, int maxTokens, JsonNode responseFormat) {
+        ObjectNode req = buildRequest(model, system, user, temperature, maxTokens, responseFormat, false);
+        // Non-streaming completions may be hedged (aistudio.http.hedge-enabled); streams never are. The guard
+        // admits the call as a whole, so a hedge doesn't take a second limiter slot.
+        return guard.call(latencyClass(model, maxTokens), () -> hedger.call(() -> restClient.post()
+                .uri(chatUrl())
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + props.getApiKey())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(req)
+                .retrieve()
+                .body(JsonNode.class)));
+    }
 
+    /**
+     * Limiter latency class: completions of the same model and max_tokens (rounded down to a power of two)
+     * are expected to take about as long.
+     */
+    private static String latencyClass(String model, int maxTokens) {
+        return model + "/" + Integer.highestOneBit(Math.max(1, maxTokens));
+    }
+
+    private ObjectNode buildRequest(String model, String system, String user, double temperature, int maxTokens,
+                                    JsonNode responseFormat, boolean stream) {
         ObjectNode req = om.createObjectNode();
         req.put("model", model);
 
@@ -100,7 +328,7 @@ public class AiStudioChatClient {
         req.set("messages", messages);
 
         req.put("temperature", temperature);
-        req.put("stream", false);
+        req.put("stream", stream);
 
         // AIStudio 官方示例使用 max_completion_tokens；为兼容也同时带上 max_tokens
         req.put("max_completion_tokens", maxTokens);
@@ -109,19 +337,56 @@ public class AiStudioChatClient {
         if (responseFormat != null && !responseFormat.isMissingNode() && !responseFormat.isNull()) {
             req.set("response_format", responseFormat);
         }
+        return req;
+    }
 
+    private String chatUrl() {
         String chatPath = (props.getChatPath() == null || props.getChatPath().isBlank())
                 ? "/chat/completions"
                 : props.getChatPath();
-        String url = props.getBaseUrl().replaceAll("/$", "") + chatPath;
+        return props.getBaseUrl().replaceAll("/$", "") + chatPath;
+    }
 
-        return restClient.post()
-                .uri(url)
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + props.getApiKey())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(req)
-                .retrieve()
-                .body(JsonNode.class);
+    private ObjectNode jsonObjectFormat() {
+        ObjectNode rf = om.createObjectNode();
+        rf.put("type", "json_object");
+        return rf;
+    }
+
+    private String structuredModel() {
+        return (props.getStructuredModel() == null || props.getStructuredModel().isBlank())
+                ? props.getModel()
+                : props.getStructuredModel();
+    }
+
+    /** Only complete, non-empty answers are cached; truncated or error responses must be retried upstream. */
+    private boolean isCacheable(JsonNode resp) {
+        if (resp == null || resp.hasNonNull("error")) return false;
+        if ("length".equals(resp.at("/choices/0/finish_reason").asText(""))) return false;
+        String content = extractFinalContent(resp);
+        return content != null && !content.isBlank();
+    }
+
+    private String cacheKey(String model, String system, String user, double temperature, JsonNode responseFormat) {
+        MessageDigest md = ContentHash.sha256();
+        for (String part : new String[]{model, system, user, Double.toString(temperature),
+                responseFormat == null ? "" : responseFormat.toString()}) {
+            md.update((part == null ? "" : part).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return ContentHash.toHex(md);
+    }
+
+    private void countCacheLookup(String endpoint, boolean hit) {
+        if ("structured".equals(endpoint)) {
+            (hit ? structuredCacheHits : structuredCacheMisses).increment();
+        } else {
+            (hit ? chatCacheHits : chatCacheMisses).increment();
+        }
+    }
+
+    private static Counter cacheLookups(MeterRegistry registry, String endpoint, String result) {
+        return Counter.builder("aistudio.cache.lookups").tag("endpoint", endpoint).tag("result", result).register(registry);
     }
 
     private void validateConfig() {
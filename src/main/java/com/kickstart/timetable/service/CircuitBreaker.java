@@ -0,0 +1,118 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Circuit breaker for one upstream (aistudio.http.breaker-*, paddle.http.breaker-*).
+ *
+ * CLOSED: calls pass and their outcomes fill a ring of the last breaker-window calls; once it holds
+ * breaker-min-calls and the failure rate reaches breaker-failure-rate the breaker opens. OPEN: every call
+ * is refused for breaker-open-duration. HALF_OPEN: one probe call is let through; its success closes the
+ * breaker with an empty window, its failure opens it again.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final UpstreamHttpProperties props;
+    private final boolean[] failures;
+    private int next;
+    private int calls;
+    private int failed;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(UpstreamHttpProperties props) {
+        this.props = props;
+        this.failures = new boolean[Math.max(1, props.getBreakerWindow())];
+    }
+
+    /** Whether a call may go upstream now; in HALF_OPEN only the single probe may. */
+    synchronized boolean tryAcquire() {
+        if (!props.isBreakerEnabled()) return true;
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos()) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.OPEN) return false;
+        if (state == State.HALF_OPEN) {
+            if (probing) return false;
+            probing = true;
+        }
+        return true;
+    }
+
+    /** Whether this outcome changed the state. */
+    synchronized boolean onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset();
+            state = State.CLOSED;
+            return true;
+        }
+        record(false);
+        return false;
+    }
+
+    /** Whether this outcome opened the breaker. */
+    synchronized boolean onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return true;
+        }
+        record(true);
+        if (state == State.CLOSED && calls >= Math.max(1, props.getBreakerMinCalls())
+                && failed >= props.getBreakerFailureRate() * calls) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    /** The call ended without saying anything about the upstream; a probe slot is handed back. */
+    synchronized void onIgnore() {
+        if (state == State.HALF_OPEN) probing = false;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /** Time until the next probe is let through; zero unless the breaker is open. */
+    synchronized Duration retryAfter() {
+        if (state != State.OPEN) return Duration.ZERO;
+        return Duration.ofNanos(Math.max(0, openNanos() - (System.nanoTime() - openedAt)));
+    }
+
+    private void record(boolean failure) {
+        if (calls == failures.length) {
+            if (failures[next]) failed--;
+        } else {
+            calls++;
+        }
+        failures[next] = failure;
+        if (failure) failed++;
+        next = (next + 1) % failures.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing = false;
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(failures, false);
+        next = 0;
+        calls = 0;
+        failed = 0;
+    }
+
+    private long openNanos() {
+        return props.getBreakerOpenDuration() == null ? 0 : props.getBreakerOpenDuration().toNanos();
+    }
+}
@@ -0,0 +1,82 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compact output schema for the timetable extraction and its server-side decoder.
+ *
+ * The model returns {@code {"courses":["离散数学[06]",...],"rules":[[0,1,1,2,1,18,1,"A101","张三"],...]}}:
+ * course names once, and every rule as a positional tuple
+ * {@code [courseIdx, day, startNode, step, startWeek, endWeek, type, room, teacher]}. Keys such as tableId,
+ * ownTime, level, startTime and endTime are constants that {@link TimetableNdjsonBuilder} fills in anyway,
+ * so they are never generated. Decoded nodes have the verbose courseDefs / scheduleRules shape.
+ */
+final class CompactExtraction {
+
+    static final String COURSES = "courses";
+    static final String RULES = "rules";
+
+    /** Output tokens reserved for the JSON envelope, and per expected rule (tuple + its course name). */
+    private static final int BASE_TOKENS = 256;
+    private static final int TOKENS_PER_RULE = 40;
+    private static final int MIN_MAX_TOKENS = 1024;
+    private static final int MAX_MAX_TOKENS = 8192;
+
+    static final String SCHEMA_PROMPT =
+            "请抽取并输出一个 JSON 对象，只包含两个字段：" +
+                    "\n1) courses：课程名字符串数组，按首次出现顺序、不重复" +
+                    "\n2) rules：数组，每条上课规则是一个定长数组 [课程下标, day, startNode, step, startWeek, endWeek, type, room, teacher]" +
+                    "\n   课程下标=courses 中的位置(从0开始)；day 1=周一..7=周日；step=连续节次数；type 0=全周,1=单周,2=双周；room/teacher 为字符串，缺失用\"\"" +
+                    "\n示例：{\"courses\":[\"离散数学[06]\"],\"rules\":[[0,1,1,2,1,18,1,\"A101\",\"张三\"]]}";
+
+    private CompactExtraction() {}
+
+    /** True if {@code root} uses the compact schema. */
+    static boolean isCompact(JsonNode root) {
+        return root != null && root.path(RULES).isArray() && root.path(COURSES).isArray();
+    }
+
+    /** Decode a whole compact result into {@code builder}. */
+    static void addTo(JsonNode root, TimetableNdjsonBuilder builder, ObjectMapper om) {
+        int index = 0;
+        for (JsonNode name : root.path(COURSES)) {
+            builder.addCourse(course(om, index++, name));
+        }
+        for (JsonNode tuple : root.path(RULES)) {
+            ObjectNode rule = rule(om, tuple);
+            if (rule != null) builder.addRule(rule);
+        }
+    }
+
+    /** courseDefs node for the {@code index}-th course name (a string, or an object with courseName). */
+    static ObjectNode course(ObjectMapper om, int index, JsonNode name) {
+        ObjectNode c = om.createObjectNode();
+        c.put("id", index);
+        c.put("courseName", name.isObject() ? name.path("courseName").asText("") : name.asText(""));
+        return c;
+    }
+
+    /** scheduleRules node for one tuple; null if it isn't an array. Missing trailing fields get defaults. */
+    static ObjectNode rule(ObjectMapper om, JsonNode tuple) {
+        if (!tuple.isArray() || tuple.isEmpty()) return null;
+        ObjectNode r = om.createObjectNode();
+        r.put("id", tuple.path(0).asInt(-1));
+        r.put("day", tuple.path(1).asInt(1));
+        r.put("startNode", tuple.path(2).asInt(1));
+        r.put("step", tuple.path(3).asInt(2));
+        r.put("startWeek", tuple.path(4).asInt(1));
+        r.put("endWeek", tuple.path(5).asInt(tuple.path(4).asInt(1)));
+        r.put("type", tuple.path(6).asInt(0));
+        r.put("room", tuple.path(7).asText(""));
+        r.put("teacher", tuple.path(8).asText(""));
+        return r;
+    }
+
+    /** max_tokens for a compact completion expected to hold about {@code expectedRules} rules. */
+    static int maxTokens(int expectedRules) {
+        long tokens = BASE_TOKENS + (long) Math.max(1, expectedRules) * TOKENS_PER_RULE;
+        return (int) Math.max(MIN_MAX_TOKENS, Math.min(MAX_MAX_TOKENS, tokens));
+    }
+}
@@ -0,0 +1,214 @@
+package com.kickstart.timetable.service;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Time budget of one request, bound to the thread handling it ({@link #bind()}) and carried to pool
+ * threads by {@link #propagate(Runnable)} (the task decorator of the AI executors).
+ *
+ * A deadline ends when it expires or is cancelled (the client went away). Blocking upstream calls run
+ * through {@link #interruptible(Supplier)}: when the deadline ends while they wait, their thread is
+ * interrupted, which aborts the HTTP exchange, and {@link DeadlineExceededException} is thrown instead of
+ * the I/O error. Threads without a bound deadline see {@link #NONE}, which never ends.
+ */
+public final class Deadline {
+
+    /** Never expires and cannot be cancelled. */
+    public static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "deadline-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Restores the previously bound deadline on close. */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private volatile long expiresAt;
+    private final Set<Thread> waiting = new HashSet<>();
+    private String cancelReason;
+    private boolean timerArmed;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /** A deadline {@code timeout} from now. */
+    public static Deadline after(Duration timeout) {
+        long now = System.nanoTime();
+        long nanos = Math.max(0, timeout.toNanos());
+        return new Deadline(nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos);
+    }
+
+    /** No time limit, but can still be cancelled (unlike {@link #NONE}). */
+    public static Deadline unbounded() {
+        return new Deadline(Long.MAX_VALUE);
+    }
+
+    /**
+     * A deadline for work shared by several callers, starting out as {@code first}'s expiry; each further
+     * caller is added with {@link #extendTo(Deadline)}, so the work may run as long as its latest caller waits.
+     */
+    public static Deadline sharedBy(Deadline first) {
+        return new Deadline(first.expiresAt);
+    }
+
+    /** Push the expiry out to {@code other}'s if that is later. No-op on {@link #NONE}. */
+    public void extendTo(Deadline other) {
+        if (this == NONE) return;
+        synchronized (this) {
+            long later = other.expiresAt;
+            if (isBounded() && (later == Long.MAX_VALUE || later - expiresAt > 0)) expiresAt = later;
+        }
+    }
+
+    /** The deadline bound to this thread, or {@link #NONE}. */
+    public static Deadline current() {
+        Deadline d = CURRENT.get();
+        return d == null ? NONE : d;
+    }
+
+    public Scope bind() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /** Wrap {@code task} so that it runs with the deadline of the submitting thread. */
+    @SuppressWarnings("try")
+    public static Runnable propagate(Runnable task) {
+        Deadline captured = CURRENT.get();
+        if (captured == null) return task;
+        return () -> {
+            try (Scope ignored = captured.bind()) {
+                task.run();
+            }
+        };
+    }
+
+    public boolean isBounded() {
+        return expiresAt != Long.MAX_VALUE;
+    }
+
+    public synchronized boolean isDone() {
+        return cancelReason != null || isBounded() && System.nanoTime() - expiresAt >= 0;
+    }
+
+    /** Time left; zero once done, {@code null} when unbounded and not cancelled. */
+    public synchronized Duration remaining() {
+        if (cancelReason != null) return Duration.ZERO;
+        if (!isBounded()) return null;
+        return Duration.ofNanos(Math.max(0, expiresAt - System.nanoTime()));
+    }
+
+    /** End the deadline now and interrupt the upstream calls waiting under it. No-op on {@link #NONE}. */
+    public void cancel(String reason) {
+        if (this == NONE) return;
+        synchronized (this) {
+            if (cancelReason != null) return;
+            cancelReason = reason;
+            waiting.forEach(Thread::interrupt);
+        }
+    }
+
+    /** Throw {@link DeadlineExceededException} if the deadline has ended before {@code stage} starts. */
+    public void check(String stage) {
+        if (this == NONE) return;
+        synchronized (this) {
+            if (isDone()) throw new DeadlineExceededException(stage + " 未执行：" + reason());
+        }
+    }
+
+    /**
+     * Run a blocking call that is interrupted when the deadline ends. A call failing after that, or one
+     * started too late, throws {@link DeadlineExceededException} (with the call's error as cause).
+     */
+    public <T> T interruptible(Supplier<T> call) {
+        if (this == NONE) return call.get();
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            if (isDone()) throw new DeadlineExceededException(reason());
+            waiting.add(thread);
+            if (!timerArmed && isBounded()) {
+                timerArmed = true;
+                TIMER.schedule(this::expire, Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            if (release(thread)) {
+                throw e instanceof DeadlineExceededException d ? d : new DeadlineExceededException(reason(), e);
+            }
+            throw e;
+        }
+        release(thread);
+        return result;
+    }
+
+    /**
+     * Wait for work shared with other callers (run under a deadline of its own): its result or failure, or
+     * {@link DeadlineExceededException} as soon as this deadline ends. The work itself is not stopped.
+     */
+    public <T> T await(Future<T> work) {
+        return interruptible(() -> {
+            try {
+                Duration left = remaining();
+                return left == null ? work.get() : work.get(left.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | InterruptedException e) {
+                // Our own interrupt is cleared again on release; anybody else's is kept.
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                throw new DeadlineExceededException(reason(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                if (e.getCause() instanceof Error err) throw err;
+                throw new IllegalStateException(e.getCause());
+            }
+        });
+    }
+
+    /** Stop watching {@code thread}; returns whether the deadline has ended (any interrupt of ours is cleared). */
+    private synchronized boolean release(Thread thread) {
+        waiting.remove(thread);
+        if (!isDone()) return false;
+        Thread.interrupted();
+        return true;
+    }
+
+    private synchronized void expire() {
+        if (isDone()) {
+            waiting.forEach(Thread::interrupt);
+        } else if (isBounded()) {
+            // Extended since the timer was armed.
+            TIMER.schedule(this::expire, Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } else {
+            timerArmed = false;
+        }
+    }
+
+    private synchronized String reason() {
+        return cancelReason != null ? cancelReason : "请求已超时";
+    }
+}
@@ -0,0 +1,18 @@
+package com.kickstart.timetable.service;
+
+/**
+ * Work stopped or skipped because the request's {@link Deadline} expired, could not cover the next stage,
+ * or was cancelled when the client went away. Answered with 504.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
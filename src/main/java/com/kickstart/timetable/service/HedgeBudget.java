@@ -0,0 +1,34 @@
+package com.kickstart.timetable.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Process-wide allowance for hedged upstream requests, shared by all upstream clients.
+ *
+ * Every primary request earns {@code ratio} of a token (upstream.hedge.budget, e.g. 0.05) and every
+ * hedge spends a whole one, so over time hedges stay at or below that fraction of all requests. The
+ * balance is capped so a quiet period can't save up for a burst of hedges.
+ */
+@Component
+public class HedgeBudget {
+
+    private static final double MAX_TOKENS = 10;
+
+    private final double ratio;
+    private double tokens;
+
+    public HedgeBudget(@Value("${upstream.hedge.budget:0.05}") double ratio) {
+        this.ratio = Math.max(0, ratio);
+    }
+
+    synchronized void onRequest() {
+        tokens = Math.min(MAX_TOKENS, tokens + ratio);
+    }
+
+    synchronized boolean tryAcquire() {
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+}
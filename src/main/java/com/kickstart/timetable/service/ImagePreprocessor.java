@@ -0,0 +1,305 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.ImportProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shrinks images before they are base64-encoded and sent to PaddleOCR.
+ *
+ * Steps: cap the longest edge, convert to grayscale, optionally crop to the table found by a row/column
+ * ink projection, then encode as PNG and as JPEG and keep whichever is smaller. If the image needed no
+ * resize/crop and the original file is already the smallest, the original bytes are returned unchanged.
+ * Images ImageIO can't decode (e.g. WebP without a plugin) are passed through. Uploads are decoded from a
+ * stream, subsampled while reading when they are at least twice the target size, so a huge photo never
+ * becomes a full-resolution raster on the heap.
+ */
+@Component
+public class ImagePreprocessor {
+
+    /** Gray level below which a pixel counts as "ink" for the projection profile. */
+    private static final int INK_THRESHOLD = 160;
+    private static final double CROP_PADDING = 0.02;
+
+    private final ImportProperties props;
+    private final DistributionSummary bytesBefore;
+    private final DistributionSummary bytesAfter;
+    private final Timer timer;
+    private final Counter keptOriginal;
+    private final Counter chosePng;
+    private final Counter choseJpeg;
+
+    public ImagePreprocessor(ImportProperties props, MeterRegistry registry) {
+        this.props = props;
+        this.bytesBefore = DistributionSummary.builder("ocr.preprocess.bytes").baseUnit("bytes").tag("stage", "before").register(registry);
+        this.bytesAfter = DistributionSummary.builder("ocr.preprocess.bytes").baseUnit("bytes").tag("stage", "after").register(registry);
+        this.timer = Timer.builder("ocr.preprocess.time").register(registry);
+        this.keptOriginal = Counter.builder("ocr.preprocess.codec").tag("codec", "original").register(registry);
+        this.chosePng = Counter.builder("ocr.preprocess.codec").tag("codec", "png").register(registry);
+        this.choseJpeg = Counter.builder("ocr.preprocess.codec").tag("codec", "jpeg").register(registry);
+    }
+
+    /** Preprocess an encoded image file. */
+    public byte[] preprocess(byte[] imageBytes) {
+        if (!props.isPreprocessEnabled() || imageBytes == null || imageBytes.length == 0) {
+            return imageBytes;
+        }
+        long t0 = System.nanoTime();
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+        } catch (IOException e) {
+            image = null;
+        }
+        if (image == null) {
+            return imageBytes;
+        }
+        byte[] out = process(image, false, imageBytes.length);
+        out = out == null ? imageBytes : out;
+        record(imageBytes.length, out.length, t0);
+        return out;
+    }
+
+    /** Preprocess an upload, decoding it from its stream. Undecodable payloads are returned as-is. */
+    public byte[] preprocess(UploadSource upload) {
+        if (!props.isPreprocessEnabled()) {
+            return upload.readAllBytes();
+        }
+        long t0 = System.nanoTime();
+        int[] subsampling = {1};
+        BufferedImage image;
+        try {
+            image = decode(upload, subsampling);
+        } catch (IOException | IllegalArgumentException e) {
+            image = null;
+        }
+        if (image == null) {
+            return upload.readAllBytes();
+        }
+        byte[] out = process(image, subsampling[0] > 1, upload.payloadSize());
+        out = out == null ? upload.readAllBytes() : out;
+        record(upload.payloadSize(), out.length, t0);
+        return out;
+    }
+
+    /** Preprocess an already decoded image (e.g. a rendered PDF page) and encode it. */
+    public byte[] preprocess(BufferedImage image) {
+        long t0 = System.nanoTime();
+        if (!props.isPreprocessEnabled()) {
+            return encodePng(image);
+        }
+        byte[] out = process(image, false, -1);
+        record((long) image.getWidth() * image.getHeight() * (image.getColorModel().getPixelSize() / 8), out.length, t0);
+        return out;
+    }
+
+    /**
+     * @param resized        the image was already downscaled while decoding
+     * @param originalLength size of the original encoded file, or -1 when there is none to fall back to
+     * @return the re-encoded image, or null when the original file is the better choice
+     */
+    private byte[] process(BufferedImage source, boolean resized, long originalLength) {
+        // Transparent areas (e.g. PNG screenshots) become white rather than black, and the original file,
+        // which still has them, is never kept.
+        boolean flattened = source.getColorModel().hasAlpha();
+        if (flattened) {
+            source = redraw(source, source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        }
+        BufferedImage image = scaleDown(source);
+        boolean changed = resized || flattened || image != source;
+        if (props.isGrayscale() && image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            image = toGray(image);
+        }
+        if (props.isCropToContent()) {
+            BufferedImage cropped = cropToContent(image);
+            changed |= cropped != image;
+            image = cropped;
+        }
+
+        byte[] png = encodePng(image);
+        byte[] jpeg = encodeJpeg(image, props.getJpegQuality());
+        byte[] best = (jpeg != null && jpeg.length < png.length) ? jpeg : png;
+        if (originalLength >= 0 && !changed && originalLength <= best.length) {
+            keptOriginal.increment();
+            return null;
+        }
+        (best == png ? chosePng : choseJpeg).increment();
+        return best;
+    }
+
+    private BufferedImage decode(UploadSource upload, int[] subsampling) throws IOException {
+        try (InputStream in = upload.openStream(); ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int maxEdge = props.getMaxLongEdge();
+                if (maxEdge > 0 && longEdge >= 2 * maxEdge) {
+                    // Integer step keeps the decoded image >= maxEdge; scaleDown() does the final smooth resize.
+                    subsampling[0] = longEdge / maxEdge;
+                    param.setSourceSubsampling(subsampling[0], subsampling[0], 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scaleDown(BufferedImage src) {
+        int maxEdge = props.getMaxLongEdge();
+        int longEdge = Math.max(src.getWidth(), src.getHeight());
+        if (maxEdge <= 0 || longEdge <= maxEdge) {
+            return src;
+        }
+        double scale = (double) maxEdge / longEdge;
+        int w = Math.max(1, (int) Math.round(src.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * scale));
+        int type = props.isGrayscale() ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+        return redraw(src, w, h, type);
+    }
+
+    private BufferedImage toGray(BufferedImage src) {
+        return redraw(src, src.getWidth(), src.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    /** Draw {@code src} scaled to w x h onto a new white raster of {@code type}. */
+    private static BufferedImage redraw(BufferedImage src, int w, int h, int type) {
+        BufferedImage dst = new BufferedImage(w, h, type);
+        Graphics2D g = dst.createGraphics();
+        try {
+            // New rasters start out black; anything transparent in src would blend onto that.
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, w, h);
+            if (w != src.getWidth() || h != src.getHeight()) {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            }
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return dst;
+    }
+
+    /**
+     * Crop to rows/columns that contain ink. The box is found on a gray raster: one pass fills the row
+     * and column histograms, then the first/last row and column above a small noise floor bound the table.
+     * The crop itself is taken from {@code source}, so a color image stays in color.
+     */
+    private BufferedImage cropToContent(BufferedImage source) {
+        Raster gray = (source.getType() == BufferedImage.TYPE_BYTE_GRAY ? source : toGray(source)).getRaster();
+        int w = gray.getWidth();
+        int h = gray.getHeight();
+        int[] line = new int[w];
+        int[] rows = new int[h];
+        int[] cols = new int[w];
+        for (int y = 0; y < h; y++) {
+            gray.getSamples(0, y, w, 1, 0, line);
+            for (int x = 0; x < w; x++) {
+                if (line[x] < INK_THRESHOLD) {
+                    rows[y]++;
+                    cols[x]++;
+                }
+            }
+        }
+        int top = first(rows, Math.max(2, w / 200));
+        int bottom = last(rows, Math.max(2, w / 200));
+        int left = first(cols, Math.max(2, h / 200));
+        int right = last(cols, Math.max(2, h / 200));
+        if (top < 0 || left < 0 || bottom <= top || right <= left) {
+            return source;
+        }
+        int padX = (int) (w * CROP_PADDING);
+        int padY = (int) (h * CROP_PADDING);
+        int x0 = Math.max(0, left - padX);
+        int y0 = Math.max(0, top - padY);
+        int x1 = Math.min(w, right + 1 + padX);
+        int y1 = Math.min(h, bottom + 1 + padY);
+        long area = (long) (x1 - x0) * (y1 - y0);
+        // Skip crops that barely help, and crops so small they probably only caught noise.
+        if (area > 0.9 * w * h || area < 0.1 * w * h) {
+            return source;
+        }
+        return source.getSubimage(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private static int first(int[] counts, int floor) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] >= floor) return i;
+        }
+        return -1;
+    }
+
+    private static int last(int[] counts, int floor) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] >= floor) return i;
+        }
+        return -1;
+    }
+
+    static byte[] encodePng(BufferedImage image) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("图片编码失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality) {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) return null;
+        ImageWriter writer = writers.next();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(output)) {
+                writer.setOutput(ios);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(Math.max(0.1f, Math.min(1f, quality)));
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            return output.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private void record(long before, long after, long startNanos) {
+        bytesBefore.record(before);
+        bytesAfter.record(after);
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
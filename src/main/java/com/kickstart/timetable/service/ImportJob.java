@@ -0,0 +1,150 @@
+package com.kickstart.timetable.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * One asynchronous timetable import (see {@link ImportJobService}): status, current pipeline stage and,
+ * once finished, the result of {@link TimetableAiService#parseTimetableFromImage} or the error message.
+ */
+public final class ImportJob {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final String contentHash;
+    private final int priority;
+    private final Instant createdAt = Instant.now();
+    private final List<Consumer<ImportJob>> watchers = new ArrayList<>();
+    /** Held while watchers are called, so every watcher sees the changes one at a time and in order. */
+    private final Object delivery = new Object();
+    private Status status = Status.QUEUED;
+    private String stage = "queued";
+    private Instant startedAt;
+    private Instant finishedAt;
+    private Map<String, Object> result;
+    private String error;
+
+    ImportJob(String id, String contentHash, int priority) {
+        this.id = id;
+        this.contentHash = contentHash;
+        this.priority = priority;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    String getContentHash() {
+        return contentHash;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    /** Result map; null unless {@link Status#DONE}. */
+    public synchronized Map<String, Object> getResult() {
+        return result;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    /** Status view for the API; the result is only included when {@code withResult}. */
+    public synchronized Map<String, Object> toMap(boolean withResult) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("jobId", id);
+        out.put("status", status.name().toLowerCase());
+        out.put("stage", stage);
+        out.put("createdAt", createdAt.toString());
+        if (startedAt != null) out.put("startedAt", startedAt.toString());
+        if (finishedAt != null) out.put("finishedAt", finishedAt.toString());
+        if (error != null) out.put("error", error);
+        if (withResult && result != null) out.put("result", result);
+        return out;
+    }
+
+    /**
+     * Call {@code watcher} now and after every later change until the job finishes (or {@link #unwatch}),
+     * exactly once with the finished state. Watchers run on the worker thread, one change at a time, and
+     * must not block: anything slow, such as writing to a client, belongs on another thread.
+     */
+    public void watch(Consumer<ImportJob> watcher) {
+        synchronized (delivery) {
+            synchronized (this) {
+                if (!isFinished()) watchers.add(watcher);
+            }
+            watcher.accept(this);
+        }
+    }
+
+    /** Stop calling {@code watcher}; a change already being delivered may still reach it. */
+    public synchronized void unwatch(Consumer<ImportJob> watcher) {
+        watchers.remove(watcher);
+    }
+
+    void start() {
+        update(() -> {
+            status = Status.RUNNING;
+            startedAt = Instant.now();
+        });
+    }
+
+    void stage(String stage) {
+        update(() -> this.stage = stage);
+    }
+
+    void complete(Map<String, Object> result) {
+        update(() -> {
+            this.result = result;
+            status = Status.DONE;
+            stage = "done";
+            finishedAt = Instant.now();
+        });
+    }
+
+    void fail(String error) {
+        update(() -> {
+            this.error = error;
+            status = Status.FAILED;
+            finishedAt = Instant.now();
+        });
+    }
+
+    /** Rough retained size in bytes (UTF-16) of the result, for the finished-job cache. */
+    synchronized long weight() {
+        long chars = error == null ? 0 : error.length();
+        if (result != null) {
+            for (Object v : result.values()) {
+                if (v instanceof CharSequence cs) chars += cs.length();
+            }
+        }
+        return chars * 2 + 256;
+    }
+
+    private void update(Runnable change) {
+        synchronized (delivery) {
+            List<Consumer<ImportJob>> notify;
+            synchronized (this) {
+                change.run();
+                notify = List.copyOf(watchers);
+                if (isFinished()) watchers.clear();
+            }
+            notify.forEach(w -> w.accept(this));
+        }
+    }
+}
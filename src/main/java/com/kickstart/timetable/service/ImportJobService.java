@@ -0,0 +1,208 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.ImportJobProperties;
+import com.kickstart.timetable.util.TtlLruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous timetable imports: submit an upload, then poll the job or watch its stages.
+ *
+ * Jobs run on timetable.jobs.workers threads. Waiting jobs are ordered by priority (higher first), then
+ * by submission, and at most queue-capacity may wait; beyond that submissions get
+ * {@link JobQueueFullException}. Submitting content (same SHA-256 of the decoded upload) that is already
+ * queued or running returns that job instead of a new one. Finished jobs stay pollable for result-ttl,
+ * bounded by max-results and max-result-bytes.
+ *
+ * Metrics: timetable.jobs.queued / running (gauges), timetable.jobs{result=done|failed|deduplicated|rejected}
+ * and timetable.jobs.wait (time spent queued).
+ */
+@Service
+public class ImportJobService {
+
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(5);
+
+    /** A submitted job and whether it was an already running one with the same content. */
+    public record Submission(ImportJob job, boolean deduplicated) {}
+
+    private final TimetableAiService timetableAiService;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor workers;
+    private final TtlLruCache<String, ImportJob> finished;
+    private final Map<String, ImportJob> active = new HashMap<>();
+    private final Map<String, ImportJob> activeByHash = new HashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Counter done;
+    private final Counter failed;
+    private final Counter deduplicated;
+    private final Counter rejected;
+    private final Timer queueWait;
+
+    public ImportJobService(TimetableAiService timetableAiService, ImportJobProperties props, MeterRegistry registry) {
+        this.timetableAiService = timetableAiService;
+        this.queueCapacity = Math.max(0, props.getQueueCapacity());
+        int threads = Math.max(1, props.getWorkers());
+        AtomicInteger ids = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(16, Comparator.comparing(r -> (Task) r)), r -> {
+                    Thread t = new Thread(r, "import-job-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.finished = new TtlLruCache<>(props.getMaxResults(), props.getMaxResultBytes(), props.getResultTtl(),
+                ImportJob::weight);
+        Gauge.builder("timetable.jobs.queued", queued, AtomicInteger::get).register(registry);
+        Gauge.builder("timetable.jobs.running", running, AtomicInteger::get).register(registry);
+        this.done = Counter.builder("timetable.jobs").tag("result", "done").register(registry);
+        this.failed = Counter.builder("timetable.jobs").tag("result", "failed").register(registry);
+        this.deduplicated = Counter.builder("timetable.jobs").tag("result", "deduplicated").register(registry);
+        this.rejected = Counter.builder("timetable.jobs").tag("result", "rejected").register(registry);
+        this.queueWait = Timer.builder("timetable.jobs.wait").register(registry);
+    }
+
+    /**
+     * Queue an import of {@code upload}; the service takes ownership of it and closes it when the job ends
+     * (or right away when the submission is deduplicated or refused).
+     */
+    public Submission submit(UploadSource upload, int priority) {
+        String hash;
+        try {
+            hash = upload.contentHash();
+        } catch (RuntimeException e) {
+            closeQuietly(upload);
+            throw e;
+        }
+        ImportJob job;
+        synchronized (this) {
+            ImportJob running = activeByHash.get(hash);
+            if (running != null) {
+                deduplicated.increment();
+                closeQuietly(upload);
+                return new Submission(running, true);
+            }
+            if (queued.get() >= queueCapacity) {
+                rejected.increment();
+                closeQuietly(upload);
+                throw new JobQueueFullException("解析任务排队已满，请稍后重试", RETRY_AFTER);
+            }
+            job = new ImportJob(UUID.randomUUID().toString(), hash, priority);
+            active.put(job.getId(), job);
+            activeByHash.put(hash, job);
+            queued.incrementAndGet();
+        }
+        try {
+            workers.execute(new Task(job, upload, sequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            // Shutting down: the job never becomes visible and its upload is not leaked.
+            synchronized (this) {
+                active.remove(job.getId());
+                activeByHash.remove(hash, job);
+            }
+            queued.decrementAndGet();
+            rejected.increment();
+            closeQuietly(upload);
+            throw e;
+        }
+        return new Submission(job, false);
+    }
+
+    /** The job, or null when unknown or no longer retained. */
+    public ImportJob get(String id) {
+        synchronized (this) {
+            ImportJob job = active.get(id);
+            if (job != null) return job;
+        }
+        return finished.get(id);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Jobs still waiting never run; their spooled uploads are deleted here.
+        for (Runnable r : workers.shutdownNow()) {
+            if (r instanceof Task t) closeQuietly(t.upload);
+        }
+    }
+
+    private void run(ImportJob job, UploadSource upload, long submittedAt) {
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        queueWait.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+        job.start();
+        try {
+            Map<String, Object> result = timetableAiService.parseTimetableFromImage(upload, new TimetableStreamListener() {
+                @Override
+                public void onStage(String stage) {
+                    job.stage(stage);
+                }
+            });
+            job.complete(result);
+            done.increment();
+        } catch (RuntimeException e) {
+            job.fail(e.getMessage() == null ? e.toString() : e.getMessage());
+            failed.increment();
+        } finally {
+            running.decrementAndGet();
+            retire(job);
+            closeQuietly(upload);
+        }
+    }
+
+    /** Move a finished job from the active maps to the finished cache. */
+    private void retire(ImportJob job) {
+        finished.put(job.getId(), job);
+        synchronized (this) {
+            active.remove(job.getId());
+            activeByHash.remove(job.getContentHash(), job);
+        }
+    }
+
+    private static void closeQuietly(UploadSource upload) {
+        try {
+            upload.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        private final ImportJob job;
+        private final UploadSource upload;
+        private final long seq;
+        private final long submittedAt = System.nanoTime();
+
+        Task(ImportJob job, UploadSource upload, long seq) {
+            this.job = job;
+            this.upload = upload;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            ImportJobService.this.run(job, upload, submittedAt);
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            int byPriority = Integer.compare(o.job.getPriority(), job.getPriority());
+            return byPriority != 0 ? byPriority : Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.kickstart.timetable.service;
+
+import java.time.Duration;
+
+/** An import job refused because the job queue is full. Answered with 503 and a Retry-After header. */
+public class JobQueueFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public JobQueueFullException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,38 @@
+package com.kickstart.timetable.service;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring of the most recent call latencies (nanos) with a percentile over the window.
+ */
+final class LatencyWindow {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    LatencyWindow(int size) {
+        this.samples = new long[Math.max(1, size)];
+    }
+
+    synchronized void add(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    /** Forget all samples. */
+    synchronized void clear() {
+        next = 0;
+        count = 0;
+    }
+
+    /** The {@code p} (0..1) percentile in nanos, or -1 while fewer than {@code minSamples} are recorded. */
+    synchronized long percentile(double p, int minSamples) {
+        if (count == 0 || count < minSamples) return -1;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(Math.min(1, Math.max(0, p)) * count) - 1;
+        return sorted[Math.max(0, idx)];
+    }
+}
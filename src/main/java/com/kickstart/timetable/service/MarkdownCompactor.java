@@ -0,0 +1,211 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.util.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks PaddleOCR markdown before it goes into the extraction prompt.
+ *
+ * Tables are rewritten row by row as {@code 行标签: 星期一=单元格; 星期三=单元格}: empty cells disappear,
+ * cell line breaks become " / ", and a cell merged over several rows or columns is written once with a
+ * (跨N行) / (跨N列) marker. Repeated header rows are dropped. Loose text loses HTML/markdown noise, and
+ * lines repeated across pages (headers, footers) are kept once. If the result is still over the token
+ * budget, loose text is dropped from the end. Table rows are never dropped: tables alone over the budget
+ * are returned whole (over budget) and the caller decides whether to split them by weekday.
+ *
+ * {@link #compactByDays} splits the same rendering by weekday column for chunked extraction.
+ */
+final class MarkdownCompactor {
+
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern IMAGE = Pattern.compile("!\\[[^\\]]*]\\([^)]*\\)");
+    private static final Pattern TAG = Pattern.compile("<[^>]+>");
+    private static final Pattern LINE_MARKUP = Pattern.compile("^[#>*\\-\\s]+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    /** Compacted prompt text plus estimated tokens before/after; {@code truncated} when loose text was dropped. */
+    record Compacted(String text, int tokensBefore, int tokensAfter, boolean truncated) {
+        Map<String, Object> stats() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("before", tokensBefore);
+            m.put("after", tokensAfter);
+            m.put("truncated", truncated);
+            return m;
+        }
+    }
+
+    private MarkdownCompactor() {}
+
+    static Compacted compact(String markdown, List<TimetableGrid> grids, int budgetTokens) {
+        return compact(markdown, grids, budgetTokens, day -> true, true);
+    }
+
+    /**
+     * Split the compacted text into up to {@code chunks} parts by weekday column. Each part holds only the
+     * columns of its days (days without any course are skipped); loose text and tables without a weekday
+     * header go into the first part only. Returns a single part when the tables can't be split.
+     */
+    static List<Compacted> compactByDays(String markdown, List<TimetableGrid> grids, int budgetTokens, int chunks) {
+        List<Integer> days = new ArrayList<>(activeDays(grids));
+        if (chunks < 2 || days.size() < 2) {
+            return List.of(compact(markdown, grids, budgetTokens));
+        }
+        int parts = Math.min(chunks, days.size());
+        List<Compacted> out = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            // Spread days as evenly as possible: part i gets days [i*n/parts, (i+1)*n/parts).
+            Set<Integer> group = new HashSet<>(days.subList(i * days.size() / parts, (i + 1) * days.size() / parts));
+            out.add(compact(markdown, grids, budgetTokens, group::contains, i == 0));
+        }
+        return out;
+    }
+
+    private static Compacted compact(String markdown, List<TimetableGrid> grids, int budgetTokens,
+                                     IntPredicate dayFilter, boolean includeShared) {
+        String source = markdown == null ? "" : markdown;
+        int before = TokenEstimator.estimate(source);
+
+        List<String> text = includeShared ? looseText(TimetableGrid.stripTables(source)) : new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        for (int i = 0; i < grids.size(); i++) {
+            List<String> rows = renderTable(grids.get(i), dayFilter, includeShared);
+            if (rows.isEmpty()) continue;
+            tables.add("[表格" + (i + 1) + "]");
+            tables.addAll(rows);
+        }
+
+        boolean truncated = false;
+        if (budgetTokens > 0) {
+            int total = cost(text) + cost(tables);
+            while (total > budgetTokens && !text.isEmpty()) {
+                total -= cost(text.remove(text.size() - 1));
+                truncated = true;
+            }
+        }
+
+        List<String> lines = new ArrayList<>(text);
+        lines.addAll(tables);
+        String out = String.join("\n", lines);
+        return new Compacted(out, before, TokenEstimator.estimate(out), truncated);
+    }
+
+    /** Weekdays that have at least one non-empty cell in some timetable grid. */
+    private static Set<Integer> activeDays(List<TimetableGrid> grids) {
+        Set<Integer> days = new TreeSet<>();
+        for (TimetableGrid grid : grids) {
+            int header = TimetableGridParser.headerRow(grid);
+            if (header < 0) continue;
+            int[] dayOfColumn = TimetableGridParser.daysOfColumns(grid, header);
+            String headerKey = rowKey(grid, header);
+            for (int c = 0; c < grid.cols(); c++) {
+                if (dayOfColumn[c] == 0) continue;
+                for (int r = header + 1; r < grid.rows(); r++) {
+                    if (!ownCell(grid, r, c).isEmpty() && !rowKey(grid, r).equals(headerKey)) {
+                        days.add(dayOfColumn[c]);
+                        break;
+                    }
+                }
+            }
+        }
+        return days;
+    }
+
+    private static List<String> renderTable(TimetableGrid grid, IntPredicate dayFilter, boolean includeHeaderless) {
+        int header = TimetableGridParser.headerRow(grid);
+        List<String> lines = new ArrayList<>();
+        String headerKey = header >= 0 ? rowKey(grid, header) : rowKey(grid, 0);
+
+        if (header < 0) {
+            if (!includeHeaderless) return lines;
+            for (int r = 0; r < grid.rows(); r++) {
+                if (r > 0 && rowKey(grid, r).equals(headerKey)) continue;
+                List<String> cells = new ArrayList<>();
+                for (int c = 0; c < grid.cols(); c++) {
+                    cells.add(ownCell(grid, r, c));
+                }
+                while (!cells.isEmpty() && cells.get(cells.size() - 1).isEmpty()) cells.remove(cells.size() - 1);
+                if (!cells.isEmpty()) lines.add(String.join("|", cells));
+            }
+            return lines;
+        }
+
+        int[] days = TimetableGridParser.daysOfColumns(grid, header);
+        List<String> names = new ArrayList<>();
+        for (int c = 0; c < grid.cols(); c++) {
+            if (days[c] > 0 && dayFilter.test(days[c])) names.add(flatten(grid.text(header, c)));
+        }
+        if (names.isEmpty()) return lines;
+        lines.add("列: " + String.join("|", names));
+        for (int r = header + 1; r < grid.rows(); r++) {
+            if (rowKey(grid, r).equals(headerKey)) continue;
+            StringBuilder label = new StringBuilder();
+            List<String> parts = new ArrayList<>();
+            for (int c = 0; c < grid.cols(); c++) {
+                if (days[c] == 0) {
+                    String l = flatten(grid.text(r, c));
+                    if (!l.isEmpty() && label.indexOf(l) < 0) label.append(label.isEmpty() ? "" : " ").append(l);
+                } else if (dayFilter.test(days[c])) {
+                    String cell = ownCell(grid, r, c);
+                    if (!cell.isEmpty()) parts.add(flatten(grid.text(header, c)) + "=" + cell);
+                }
+            }
+            if (!parts.isEmpty()) lines.add(label + ": " + String.join("; ", parts));
+        }
+        return lines.size() > 1 ? lines : List.of();
+    }
+
+    /** Text of the cell whose top-left corner is (r, c) with span markers; "" for empty or covered positions. */
+    private static String ownCell(TimetableGrid grid, int r, int c) {
+        TimetableGrid.Cell cell = grid.cell(r, c);
+        if (cell == null || cell.row != r || cell.col != c) return "";
+        String t = flatten(cell.text);
+        if (t.isEmpty()) return "";
+        if (cell.rowSpan > 1) t += "(跨" + cell.rowSpan + "行)";
+        if (cell.colSpan > 1) t += "(跨" + cell.colSpan + "列)";
+        return t;
+    }
+
+    private static String rowKey(TimetableGrid grid, int r) {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < grid.cols(); c++) {
+            sb.append(grid.text(r, c)).append('\u0001');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> looseText(String text) {
+        String s = COMMENT.matcher(text).replaceAll("\n");
+        s = IMAGE.matcher(s).replaceAll("");
+        s = TAG.matcher(s).replaceAll("\n");
+        List<String> lines = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String raw : s.split("\n")) {
+            String line = SPACES.matcher(LINE_MARKUP.matcher(raw).replaceAll("")).replaceAll(" ").strip();
+            if (!line.isEmpty() && seen.add(line)) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static String flatten(String cellText) {
+        return SPACES.matcher(cellText.replace("\n", " / ")).replaceAll(" ").strip();
+    }
+
+    private static int cost(List<String> lines) {
+        int total = 0;
+        for (String l : lines) total += cost(l);
+        return total;
+    }
+
+    private static int cost(String line) {
+        return TokenEstimator.estimate(line) + 1;
+    }
+}
@@ -0,0 +1,116 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.AiStudioProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the model for an AIStudio completion (aistudio.routing.*).
+ *
+ * Inputs up to small-input-tokens go to the fast model, everything else to the strong model. A caller
+ * whose fast-model answer fails validation asks {@link #escalation} for the strong model and retries once.
+ * Every completed call is recorded in a per-model ring window; while the fast model's latency percentile
+ * is above slow-latency and above the strong model's, small inputs skip it too.
+ *
+ * A backed-off fast model still gets one small input per probe-interval. The first fast-model call that
+ * comes back within slow-latency clears its window, so it is used again until min-samples new calls say
+ * otherwise; stale samples from a past slow spell never keep it out for good.
+ */
+final class ModelRouter {
+
+    /** Chosen model and why: small, large, slow (fast model backed off), probe or fixed (routing off). */
+    record Route(String model, String reason) {}
+
+    private final AiStudioProperties.Routing props;
+    private final MeterRegistry registry;
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicLong lastProbe = new AtomicLong(System.nanoTime());
+
+    ModelRouter(AiStudioProperties.Routing props, MeterRegistry registry) {
+        this.props = props;
+        this.registry = registry;
+    }
+
+    /** Route a call whose model would otherwise be {@code defaultModel}. */
+    Route route(String defaultModel, int inputTokens) {
+        String fast = props.getFastModel();
+        if (!props.isEnabled() || fast == null || fast.isBlank()) {
+            return new Route(defaultModel, "fixed");
+        }
+        String strong = strongModel(defaultModel);
+        Route route;
+        if (inputTokens > props.getSmallInputTokens() || fast.equals(strong)) {
+            route = new Route(strong, "large");
+        } else if (isSlow(fast, strong)) {
+            route = probeDue() ? new Route(fast, "probe") : new Route(strong, "slow");
+        } else {
+            route = new Route(fast, "small");
+        }
+        Counter.builder("aistudio.route").tag("model", route.model()).tag("reason", route.reason())
+                .register(registry).increment();
+        return route;
+    }
+
+    /** Model to retry with after {@code used} returned invalid output; null if there is nothing stronger. */
+    String escalation(String used, String defaultModel) {
+        if (!props.isEnabled()) return null;
+        String strong = strongModel(defaultModel);
+        if (strong.equals(used)) return null;
+        Counter.builder("aistudio.route").tag("model", strong).tag("reason", "escalated").register(registry).increment();
+        return strong;
+    }
+
+    void record(String model, long nanos) {
+        LatencyWindow w = windows.computeIfAbsent(model, this::newWindow);
+        if (model.equals(props.getFastModel()) && nanos <= props.getSlowLatency().toNanos()
+                && percentileMillis(model) > props.getSlowLatency().toMillis()) {
+            // Fast again: judge it on new calls only.
+            w.clear();
+        }
+        w.add(nanos);
+    }
+
+    /** Current latency percentile of {@code model} in ms; -1 until it has min-samples calls. */
+    long percentileMillis(String model) {
+        LatencyWindow w = windows.get(model);
+        if (w == null) return -1;
+        long nanos = w.percentile(props.getLatencyPercentile(), Math.max(1, props.getMinSamples()));
+        return nanos < 0 ? -1 : nanos / 1_000_000;
+    }
+
+    private boolean isSlow(String fast, String strong) {
+        long fastMs = percentileMillis(fast);
+        if (fastMs < 0 || fastMs <= props.getSlowLatency().toMillis()) return false;
+        long strongMs = percentileMillis(strong);
+        // No data for the strong model yet: give it a chance rather than keep waiting on the slow one.
+        return strongMs < 0 || strongMs < fastMs;
+    }
+
+    /** True for at most one caller per probe-interval. */
+    private boolean probeDue() {
+        long interval = props.getProbeInterval() == null ? 0 : props.getProbeInterval().toNanos();
+        if (interval <= 0) return false;
+        long now = System.nanoTime();
+        long last = lastProbe.get();
+        return now - last >= interval && lastProbe.compareAndSet(last, now);
+    }
+
+    private String strongModel(String defaultModel) {
+        String strong = props.getStrongModel();
+        return strong == null || strong.isBlank() ? defaultModel : strong;
+    }
+
+    private LatencyWindow newWindow(String model) {
+        LatencyWindow w = new LatencyWindow(Math.max(1, props.getLatencyWindow()));
+        Gauge.builder("aistudio.model.latency.percentile", this, r -> r.percentileMillis(model))
+                .tag("model", model)
+                .baseUnit("milliseconds")
+                .register(registry);
+        return w;
+    }
+}
@@ -0,0 +1,154 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.OcrCacheProperties;
+import com.kickstart.timetable.util.ContentHash;
+import com.kickstart.timetable.util.TtlLruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache for PaddleOCR markdown.
+ *
+ * Key: SHA-256 over the file type and the normalized image bytes (what is actually sent to PaddleOCR),
+ * so re-uploads of the same screenshot skip the OCR call. Lookups go memory tier -> disk tier -> loader;
+ * a disk hit is promoted into memory. A disk failure turns the disk tier off (until restart); it never fails
+ * the request.
+ */
+@Component
+public class OcrResultCache {
+
+    private static final Logger log = LoggerFactory.getLogger(OcrResultCache.class);
+    private static final String FILE_NAME = "ocr-cache.seg";
+
+    private final OcrCacheProperties props;
+    private final TtlLruCache<String, String> memory;
+    /** The disk tier, null when off. */
+    private final AtomicReference<SegmentFileStore> disk = new AtomicReference<>();
+
+    private final Counter memoryHits;
+    private final Counter memoryMisses;
+    private final Counter diskHits;
+    private final Counter diskMisses;
+    private final Counter diskErrors;
+
+    public OcrResultCache(OcrCacheProperties props, MeterRegistry registry) {
+        this.props = props;
+        this.memory = new TtlLruCache<>(props.getMemoryMaxEntries(), props.getMemoryMaxBytes(), props.getTtl(),
+                s -> 2L * s.length());
+        if (props.isEnabled() && props.isDiskEnabled()) {
+            try {
+                disk.set(new SegmentFileStore(Path.of(props.getDiskDir()).resolve(FILE_NAME),
+                        props.getDiskMaxBytes(), props.getTtl()));
+            } catch (IOException e) {
+                log.warn("OCR disk cache disabled, cannot open {}: {}", props.getDiskDir(), e.getMessage());
+            }
+        }
+
+        this.memoryHits = lookups(registry, "memory", "hit");
+        this.memoryMisses = lookups(registry, "memory", "miss");
+        this.diskHits = lookups(registry, "disk", "hit");
+        this.diskMisses = lookups(registry, "disk", "miss");
+        this.diskErrors = Counter.builder("ocr.cache.disk.errors").register(registry);
+        Gauge.builder("ocr.cache.entries", memory, TtlLruCache::size).tag("tier", "memory").register(registry);
+        Gauge.builder("ocr.cache.bytes", memory, TtlLruCache::weight).tag("tier", "memory").register(registry);
+        Gauge.builder("ocr.cache.evictions", memory, TtlLruCache::evictions).tag("tier", "memory").register(registry);
+        Gauge.builder("ocr.cache.entries", disk, r -> {
+            SegmentFileStore d = r.get();
+            return d == null ? 0 : d.entryCount();
+        }).tag("tier", "disk").register(registry);
+        Gauge.builder("ocr.cache.bytes", disk, r -> {
+            SegmentFileStore d = r.get();
+            return d == null ? 0 : d.sizeBytes();
+        }).tag("tier", "disk").register(registry);
+    }
+
+    /**
+     * Return cached markdown for these bytes, or call {@code loader} and cache its (non-blank) result.
+     */
+    public String getOrLoad(byte[] normalizedBytes, int fileType, Supplier<String> loader) {
+        if (!props.isEnabled() || normalizedBytes == null) {
+            return loader.get();
+        }
+        String key = contentKey(normalizedBytes, fileType);
+
+        String hit = memory.get(key);
+        if (hit != null) {
+            memoryHits.increment();
+            return hit;
+        }
+        memoryMisses.increment();
+
+        SegmentFileStore d = disk.get();
+        if (d != null) {
+            try {
+                hit = d.get(key);
+            } catch (IOException e) {
+                onDiskError(d, e);
+            }
+            if (hit != null) {
+                diskHits.increment();
+                memory.put(key, hit);
+                return hit;
+            }
+            diskMisses.increment();
+        }
+
+        String markdown = loader.get();
+        if (markdown != null && !markdown.isBlank()) {
+            memory.put(key, markdown);
+            if (d != null) {
+                try {
+                    d.put(key, markdown);
+                } catch (IOException e) {
+                    onDiskError(d, e);
+                }
+            }
+        }
+        return markdown;
+    }
+
+    /** Hex SHA-256 of {@code fileType} followed by the bytes. */
+    public static String contentKey(byte[] bytes, int fileType) {
+        MessageDigest md = ContentHash.sha256();
+        md.update((byte) fileType);
+        md.update(bytes);
+        return ContentHash.toHex(md);
+    }
+
+    @PreDestroy
+    public void close() {
+        closeQuietly(disk.getAndSet(null));
+    }
+
+    /** Stop using {@code d}: after an I/O error its file and index can no longer be trusted. */
+    private void onDiskError(SegmentFileStore d, IOException e) {
+        diskErrors.increment();
+        if (!disk.compareAndSet(d, null)) return;
+        log.warn("OCR disk cache disabled after error: {}", e.getMessage());
+        closeQuietly(d);
+    }
+
+    private static void closeQuietly(SegmentFileStore d) {
+        if (d != null) {
+            try {
+                d.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static Counter lookups(MeterRegistry registry, String tier, String result) {
+        return Counter.builder("ocr.cache.lookups").tag("tier", tier).tag("result", result).register(registry);
+    }
+}
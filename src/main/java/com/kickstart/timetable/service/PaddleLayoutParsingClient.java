@@ -1,15 +1,21 @@
 package com.kickstart.timetable.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.kickstart.timetable.config.PaddleProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
 
-import java.util.Base64;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 @Component
 public class PaddleLayoutParsingClient {
@@ -17,17 +23,32 @@ public class PaddleLayoutParsingClient {
     private final PaddleProperties props;
     private final RestClient restClient;
     private final ObjectMapper om;
+    private final RequestHedger hedger;
+    private final UpstreamGuard guard;
 
-    public PaddleLayoutParsingClient(PaddleProperties props, RestClient.Builder builder, ObjectMapper om) {
+    public PaddleLayoutParsingClient(PaddleProperties props, RestClient.Builder builder, ObjectMapper om, MeterRegistry registry,
+                                     HedgeBudget hedgeBudget) {
         this.props = props;
-        this.restClient = builder.build();
+        this.restClient = builder.requestFactory(new UpstreamRequestFactory("paddle", props.getHttp(), registry)).build();
         this.om = om;
+        this.hedger = new RequestHedger("paddle", props.getHttp(), hedgeBudget, registry);
+        this.guard = new UpstreamGuard("paddle", props.getHttp(), registry);
     }
 
     /**
-     * Calls PaddleOCR layout parsing endpoint and returns the markdown text.
+     * Calls PaddleOCR layout parsing endpoint and returns the markdown text. Only that field is read from
+     * the response ({@link PaddleMarkdownReader}); visualization images are not requested.
      */
     public String extractMarkdown(byte[] fileBytes, int fileType) {
+        return extractMarkdown(new ByteArrayResource(fileBytes), fileType);
+    }
+
+    /**
+     * Same as {@link #extractMarkdown(byte[], int)} but reads the file from any source (e.g. a file on disk).
+     * The request body is streamed: the file is base64-encoded chunk by chunk straight into the HTTP
+     * output stream, so no base64 String or JSON tree of the file is ever built.
+     */
+    public String extractMarkdown(InputStreamSource file, int fileType) {
         if (props.getApiUrl() == null || props.getApiUrl().isBlank()) {
             throw new IllegalStateException("paddle.api-url 未配置");
         }
@@ -35,32 +56,45 @@ public class PaddleLayoutParsingClient {
             throw new IllegalStateException("PADDLE_TOKEN 未配置（paddle.token）");
         }
 
-        String fileBase64 = Base64.getEncoder().encodeToString(fileBytes);
-
-        ObjectNode payload = om.createObjectNode();
-        payload.put("file", fileBase64);
-        payload.put("fileType", fileType); // 1=image, 0=pdf
-        payload.put("useDocOrientationClassify", false);
-        payload.put("useDocUnwarping", false);
-        payload.put("useChartRecognition", false);
-
-        JsonNode resp = restClient.post()
+        // A hedged attempt (paddle.http.hedge-enabled) re-reads the file from the source.
+        String markdown = guard.call(() -> hedger.call(() -> restClient.post()
                 .uri(props.getApiUrl())
                 .header(HttpHeaders.AUTHORIZATION, "token " + props.getToken())
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(payload)
-                .retrieve()
-                .body(JsonNode.class);
+                .body(out -> writePayload(out, file, fileType))
+                .exchange((request, response) -> {
+                    if (response.getStatusCode().isError()) {
+                        // Same exception retrieve() would throw, so the guard can tell 4xx from upstream faults.
+                        throw new RestClientResponseException("PaddleOCR 调用失败: HTTP " + response.getStatusCode().value(),
+                                response.getStatusCode(), response.getStatusText(), response.getHeaders(),
+                                response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    // Expected: result.layoutParsingResults[0].markdown.text
+                    return PaddleMarkdownReader.read(om.getFactory(), response.getBody());
+                })));
 
-        if (resp == null) {
-            throw new RuntimeException("PaddleOCR 无响应");
+        if (markdown == null || markdown.isBlank()) {
+            throw new RuntimeException("PaddleOCR 返回中未找到 markdown.text");
         }
+        return markdown;
+    }
 
-        // Expected: resp.result.layoutParsingResults[0].markdown.text
-        JsonNode markdownNode = resp.at("/result/layoutParsingResults/0/markdown/text");
-        if (markdownNode.isMissingNode() || markdownNode.asText().isBlank()) {
-            throw new RuntimeException("PaddleOCR 返回中未找到 markdown.text");
+    private void writePayload(OutputStream out, InputStreamSource file, int fileType) throws IOException {
+        try (JsonGenerator gen = om.getFactory().createGenerator(out);
+             InputStream in = file.getInputStream()) {
+            // The HTTP layer owns the output stream; closing the generator must only flush it.
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gen.writeStartObject();
+            gen.writeFieldName("file");
+            // Standard base64 with padding (same alphabet as Base64.getEncoder()), encoded in chunks from the stream.
+            gen.writeBinary(in, -1);
+            gen.writeNumberField("fileType", fileType); // 1=image, 0=pdf
+            gen.writeBooleanField("useDocOrientationClassify", false);
+            gen.writeBooleanField("useDocUnwarping", false);
+            gen.writeBooleanField("useChartRecognition", false);
+            // No visualization images in the response; only the markdown is used.
+            gen.writeBooleanField("visualize", false);
+            gen.writeEndObject();
         }
-        return markdownNode.asText();
     }
 }
@@ -0,0 +1,54 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads result.layoutParsingResults[0].markdown.text from a PaddleOCR layout parsing response in one
+ * streaming pass. Every other field (embedded base64 images, per-block layout data, later pages) is
+ * skipped with {@link JsonParser#skipChildren()}, so neither a JSON tree nor the skipped strings are
+ * ever materialized: memory per call is the markdown text plus the parser's buffers.
+ */
+final class PaddleMarkdownReader {
+
+    private PaddleMarkdownReader() {
+    }
+
+    /** The markdown text, or null when the response has no such string field. */
+    static String read(JsonFactory factory, InputStream body) throws IOException {
+        try (JsonParser p = factory.createParser(body)) {
+            String text = null;
+            if (p.nextToken() == JsonToken.START_OBJECT
+                    && field(p, "result") && p.currentToken() == JsonToken.START_OBJECT
+                    && field(p, "layoutParsingResults") && p.currentToken() == JsonToken.START_ARRAY
+                    && p.nextToken() == JsonToken.START_OBJECT
+                    && field(p, "markdown") && p.currentToken() == JsonToken.START_OBJECT
+                    && field(p, "text") && p.currentToken() == JsonToken.VALUE_STRING) {
+                text = p.getText();
+            }
+            // Read the rest without keeping it, so the connection can go back to the pool.
+            while (p.nextToken() != null) {
+                p.skipChildren();
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Inside an object, advance to the value of field {@code name}, skipping the values of the fields before
+     * it. Returns false (positioned at the object's end) when there is no such field.
+     */
+    private static boolean field(JsonParser p, String name) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            boolean match = name.equals(p.currentName());
+            p.nextToken();
+            if (match) return true;
+            p.skipChildren();
+        }
+        return false;
+    }
+}
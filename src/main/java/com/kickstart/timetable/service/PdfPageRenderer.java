@@ -0,0 +1,67 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.ImportProperties;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Renders PDF pages to images one page at a time.
+ *
+ * The document is opened straight from the spooled upload file when there is one, otherwise from the
+ * decoded stream with a mixed memory setting (small heap budget, temp files beyond it), so it is never
+ * fully on heap.
+ *
+ * A PDDocument must not be rendered from several threads, so pages are rendered sequentially and handed
+ * to {@code onPage} immediately; callers overlap the slow OCR of page n with rendering of page n+1 by
+ * doing the OCR on another pool.
+ */
+@Component
+public class PdfPageRenderer {
+
+    private final ImportProperties props;
+
+    public PdfPageRenderer(ImportProperties props) {
+        this.props = props;
+    }
+
+    /**
+     * Render up to {@code timetable.import.pdf-max-pages} pages in order.
+     *
+     * @return total number of pages in the document (may exceed the number rendered)
+     */
+    public int renderPages(UploadSource pdf, Consumer<BufferedImage> onPage) {
+        MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(Math.max(1, props.getPdfMaxMainMemoryBytes()));
+        try (PDDocument document = load(pdf, memory)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            int pages = document.getNumberOfPages();
+            int limit = Math.min(pages, Math.max(1, props.getPdfMaxPages()));
+            for (int i = 0; i < limit; i++) {
+                // Gray rendering is a third of the RGB raster and is all the OCR needs when grayscale is on.
+                ImageType type = props.isPreprocessEnabled() && props.isGrayscale() ? ImageType.GRAY : ImageType.RGB;
+                onPage.accept(renderer.renderImageWithDPI(i, props.getPdfDpi(), type));
+            }
+            return pages;
+        } catch (IOException e) {
+            throw new RuntimeException("PDF 转图片失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static PDDocument load(UploadSource pdf, MemoryUsageSetting memory) throws IOException {
+        Path file = pdf.file();
+        if (file != null) {
+            return PDDocument.load(file.toFile(), memory);
+        }
+        try (InputStream in = pdf.openStream()) {
+            return PDDocument.load(in, memory);
+        }
+    }
+}
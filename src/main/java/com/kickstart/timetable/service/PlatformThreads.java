@@ -0,0 +1,28 @@
+package com.kickstart.timetable.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Keeps CPU-bound work that holds monitors for long stretches (PDFBox rendering, ImageIO decoding) off
+ * virtual threads. On Java 21 a virtual thread inside {@code synchronized} pins its carrier, and a few such
+ * renders would stall every other request sharing the carriers.
+ */
+final class PlatformThreads {
+
+    private PlatformThreads() {}
+
+    /** Runs {@code work} on {@code platform} when called from a virtual thread, otherwise right here. */
+    static <T> T call(Executor platform, Supplier<T> work) {
+        if (!Thread.currentThread().isVirtual()) {
+            return work.get();
+        }
+        try {
+            return CompletableFuture.supplyAsync(work, platform).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+}
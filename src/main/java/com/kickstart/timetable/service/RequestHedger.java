@@ -0,0 +1,105 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hedged calls to one upstream (aistudio.http.hedge-*, paddle.http.hedge-*).
+ *
+ * The call runs on a worker thread while the caller waits. If it hasn't finished after the
+ * hedge-percentile of recent latencies (at least hedge-min-delay) and {@link HedgeBudget} allows it, the
+ * same call is started again; whichever succeeds first is returned and the other is cancelled by
+ * interrupting it, which aborts its HTTP exchange. Nothing is hedged until hedge-min-samples calls are
+ * recorded. A failure is only reported once both attempts have failed. Attempts run on virtual threads
+ * under the caller's {@link Deadline}.
+ *
+ * Metrics: upstream.hedge{upstream, result=sent|won|no_budget}.
+ */
+final class RequestHedger {
+
+    private final UpstreamHttpProperties props;
+    private final HedgeBudget budget;
+    private final LatencyWindow latencies;
+    private final Executor workers;
+    private final Counter sent;
+    private final Counter won;
+    private final Counter noBudget;
+
+    RequestHedger(String upstream, UpstreamHttpProperties props, HedgeBudget budget, MeterRegistry registry) {
+        this.props = props;
+        this.budget = budget;
+        this.latencies = new LatencyWindow(props.getHedgeWindow());
+        ThreadFactory threads = Thread.ofVirtual().name("hedge-" + upstream + "-", 0).factory();
+        this.workers = task -> threads.newThread(Deadline.propagate(task)).start();
+        this.sent = Counter.builder("upstream.hedge").tag("upstream", upstream).tag("result", "sent").register(registry);
+        this.won = Counter.builder("upstream.hedge").tag("upstream", upstream).tag("result", "won").register(registry);
+        this.noBudget = Counter.builder("upstream.hedge").tag("upstream", upstream).tag("result", "no_budget").register(registry);
+    }
+
+    <T> T call(Supplier<T> attempt) {
+        if (!props.isHedgeEnabled()) {
+            return attempt.get();
+        }
+        budget.onRequest();
+        long start = System.nanoTime();
+        long delay = hedgeDelayNanos();
+        if (delay < 0) {
+            T result = attempt.get();
+            latencies.add(System.nanoTime() - start);
+            return result;
+        }
+
+        CompletionService<T> done = new ExecutorCompletionService<>(workers);
+        List<Future<T>> attempts = new ArrayList<>(2);
+        attempts.add(done.submit(attempt::get));
+        try {
+            Future<T> first = done.poll(delay, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                if (budget.tryAcquire()) {
+                    sent.increment();
+                    attempts.add(done.submit(attempt::get));
+                } else {
+                    noBudget.increment();
+                }
+            }
+            ExecutionException failure = null;
+            for (int remaining = attempts.size(); remaining > 0; remaining--) {
+                Future<T> f = first != null ? first : done.take();
+                first = null;
+                try {
+                    T result = f.get();
+                    if (f != attempts.get(0)) won.increment();
+                    latencies.add(System.nanoTime() - start);
+                    return result;
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+            throw failure.getCause() instanceof RuntimeException re ? re : new RuntimeException(failure.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("上游请求被中断", e);
+        } finally {
+            attempts.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private long hedgeDelayNanos() {
+        long p = latencies.percentile(props.getHedgePercentile(), Math.max(1, props.getHedgeMinSamples()));
+        if (p < 0) return -1;
+        long min = props.getHedgeMinDelay() == null ? 0 : props.getHedgeMinDelay().toNanos();
+        return Math.max(min, p);
+    }
+}
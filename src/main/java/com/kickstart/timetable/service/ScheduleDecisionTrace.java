@@ -0,0 +1,192 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.api.dto.TaskPayload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in record of why the planner placed (or failed to place) each task.
+ *
+ * Entries live in a ring buffer that is allocated once per request and overwritten when full, so
+ * recording a decision never allocates. The shared {@link #DISABLED} instance has no slots and every
+ * hook returns after a single null check.
+ */
+final class ScheduleDecisionTrace {
+
+    enum Rejection {
+        /** Candidate would end after the task's due time. */
+        PAST_DEADLINE,
+        /** Free slot is shorter than the unsplit task. */
+        SLOT_TOO_SHORT,
+        /** The day's task budget (see dailyTaskLimitForDate) is already used up. */
+        DAILY_LIMIT,
+        /** Splitting would leave a segment shorter than the minimum split length. */
+        SEGMENT_TOO_SHORT,
+        /** The task would need more segments than maxSplitSegments allows. */
+        SEGMENT_LIMIT
+    }
+
+    enum Outcome { SCHEDULED, SPLIT, PARTIAL, UNSCHEDULED }
+
+    static final ScheduleDecisionTrace DISABLED = new ScheduleDecisionTrace(0);
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final Rejection[] REJECTIONS = Rejection.values();
+
+    private final Entry[] ring;
+    private int next;
+    private long recorded;
+    private Entry current;
+
+    private ScheduleDecisionTrace(int capacity) {
+        this.ring = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Entry();
+        }
+    }
+
+    static ScheduleDecisionTrace enabled(int capacity) {
+        return new ScheduleDecisionTrace(Math.max(1, capacity));
+    }
+
+    boolean isEnabled() {
+        return ring.length > 0;
+    }
+
+    void beginTask(TaskPayload task, int pass, boolean relaxed, int requiredMinutes) {
+        if (ring.length == 0) {
+            return;
+        }
+        Entry entry = ring[next];
+        next = (next + 1) % ring.length;
+        recorded++;
+        entry.reset(task, pass, relaxed, requiredMinutes);
+        current = entry;
+    }
+
+    void candidate() {
+        if (current != null) {
+            current.candidates++;
+        }
+    }
+
+    void reject(Rejection rejection) {
+        if (current != null) {
+            current.rejections[rejection.ordinal()]++;
+        }
+    }
+
+    void chosen(long score) {
+        if (current != null && (!current.hasScore || score > current.chosenScore)) {
+            current.chosenScore = score;
+            current.hasScore = true;
+        }
+    }
+
+    void finish(Outcome outcome, int segments, int unallocatedMinutes) {
+        if (current != null) {
+            current.outcome = outcome;
+            current.segments = segments;
+            current.unallocatedMinutes = unallocatedMinutes;
+            current = null;
+        }
+    }
+
+    /** Number of entries that were overwritten because the ring was full. */
+    long dropped() {
+        return Math.max(0, recorded - ring.length);
+    }
+
+    /** Entries from oldest to newest. */
+    List<Map<String, Object>> entries() {
+        int size = (int) Math.min(recorded, ring.length);
+        List<Map<String, Object>> out = new ArrayList<>(size);
+        int start = recorded > ring.length ? next : 0;
+        for (int i = 0; i < size; i++) {
+            out.add(ring[(start + i) % ring.length].toMap());
+        }
+        return out;
+    }
+
+    /** Summary of the newest decision for the given task, or null if it was never traced (or overwritten). */
+    Map<String, Object> explainUnscheduled(TaskPayload task) {
+        int size = (int) Math.min(recorded, ring.length);
+        for (int i = 1; i <= size; i++) {
+            Entry entry = ring[Math.floorMod(next - i, ring.length)];
+            if (entry.task == task) {
+                Map<String, Object> out = entry.toMap();
+                out.put("reason", entry.dominantReason());
+                return out;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        private TaskPayload task;
+        private int pass;
+        private boolean relaxed;
+        private int requiredMinutes;
+        private int candidates;
+        private final int[] rejections = new int[REJECTIONS.length];
+        private long chosenScore;
+        private boolean hasScore;
+        private Outcome outcome;
+        private int segments;
+        private int unallocatedMinutes;
+
+        private void reset(TaskPayload task, int pass, boolean relaxed, int requiredMinutes) {
+            this.task = task;
+            this.pass = pass;
+            this.relaxed = relaxed;
+            this.requiredMinutes = requiredMinutes;
+            this.candidates = 0;
+            Arrays.fill(rejections, 0);
+            this.chosenScore = 0;
+            this.hasScore = false;
+            this.outcome = null;
+            this.segments = 0;
+            this.unallocatedMinutes = 0;
+        }
+
+        private String dominantReason() {
+            if (candidates == 0) {
+                return "NO_FREE_SLOT";
+            }
+            int best = -1;
+            for (int i = 0; i < rejections.length; i++) {
+                if (rejections[i] > 0 && (best < 0 || rejections[i] > rejections[best])) {
+                    best = i;
+                }
+            }
+            return best < 0 ? "NO_FREE_SLOT" : REJECTIONS[best].name();
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("taskId", task == null ? "" : task.getId());
+            out.put("title", task == null ? "" : task.getTitle());
+            out.put("pass", pass);
+            out.put("relaxed", relaxed);
+            out.put("requiredMinutes", requiredMinutes);
+            out.put("candidates", candidates);
+            Map<String, Integer> rejected = new LinkedHashMap<>();
+            for (int i = 0; i < rejections.length; i++) {
+                if (rejections[i] > 0) {
+                    rejected.put(REJECTIONS[i].name(), rejections[i]);
+                }
+            }
+            out.put("rejections", rejected);
+            out.put("chosenScore", hasScore ? chosenScore : null);
+            out.put("outcome", outcome == null ? "" : outcome.name());
+            out.put("segments", segments);
+            out.put("unallocatedMinutes", unallocatedMinutes);
+            return out;
+        }
+    }
+}
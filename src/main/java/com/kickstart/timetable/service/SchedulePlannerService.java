@@ -49,22 +49,56 @@ public class SchedulePlannerService {
     private static final int DAYTIME_BONUS = 200;
 
     public List<Map<String, Object>> generateSchedule(GenerateScheduleRequest request) {
-        LocalDateTime now = parseDateTime(request.getCurrentDateTime());
-        if (now == null) {
-            now = LocalDateTime.now(ZoneId.systemDefault());
-        }
-
-        ScheduleContext context = buildContext(request, now);
+        ScheduleContext context = buildContext(request, ScheduleDecisionTrace.DISABLED);
         List<TimeBlock> availableSlots = buildAvailableSlots(context);
-        List<ScheduledItem> scheduledTasks = scheduleTasks(context, availableSlots);
+        return toResponse(scheduleTasks(context, availableSlots).scheduled);
+    }
 
-        return scheduledTasks.stream()
+    /**
+     * Same planning as {@link #generateSchedule} but with the decision trace enabled. Returns the
+     * schedule, the tasks that could not be placed together with the dominant rejection reason, and
+     * the raw per-task trace entries.
+     */
+    public Map<String, Object> explainSchedule(GenerateScheduleRequest request) {
+        ScheduleDecisionTrace trace = ScheduleDecisionTrace.enabled(ScheduleDecisionTrace.DEFAULT_CAPACITY);
+        ScheduleContext context = buildContext(request, trace);
+        List<TimeBlock> availableSlots = buildAvailableSlots(context);
+        ScheduleRun run = scheduleTasks(context, availableSlots);
+
+        List<Map<String, Object>> unscheduled = new ArrayList<>();
+        for (TaskPayload task : run.pending) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", task.getId() == null ? "" : task.getId());
+            item.put("title", task.getTitle() == null ? "" : task.getTitle());
+            item.put("dueDateTime", task.getDueDateTime() == null ? "" : task.getDueDateTime());
+            item.put("estimatedMinutes", task.getEstimatedMinutes());
+            Map<String, Object> decision = trace.explainUnscheduled(task);
+            item.put("reason", decision == null ? "UNKNOWN" : decision.get("reason"));
+            item.put("decision", decision);
+            unscheduled.add(item);
+        }
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("schedule", toResponse(run.scheduled));
+        out.put("unscheduled", unscheduled);
+        out.put("trace", trace.entries());
+        out.put("traceDropped", trace.dropped());
+        return out;
+    }
+
+    private List<Map<String, Object>> toResponse(List<ScheduledItem> scheduled) {
+        return scheduled.stream()
                 .sorted(Comparator.comparing((ScheduledItem item) -> item.start).thenComparing(item -> item.title))
                 .map(ScheduledItem::toMap)
                 .toList();
     }
 
-    private ScheduleContext buildContext(GenerateScheduleRequest request, LocalDateTime now) {
+    private ScheduleContext buildContext(GenerateScheduleRequest request, ScheduleDecisionTrace trace) {
+        LocalDateTime now = parseDateTime(request.getCurrentDateTime());
+        if (now == null) {
+            now = LocalDateTime.now(ZoneId.systemDefault());
+        }
+
         LocalDate startDate = now.toLocalDate();
         LocalDate endDate = computeScheduleEndDate(now, request.getTasks(), startDate.plusDays(3));
 
@@ -128,7 +162,7 @@ public class SchedulePlannerService {
         Map<LocalDate, Integer> fixedTaskMinutesByDate = summarizeFixedTaskMinutes(fixedTasks);
         List<TimeWindow> preferredTaskWindows = buildPreferredTaskWindows(courseTable);
         return new ScheduleContext(now, startDate, endDate, courses, pendingTasks, fixedTasks, courseMinutesByDate,
-                fixedTaskMinutesByDate, preferredTaskWindows);
+                fixedTaskMinutesByDate, preferredTaskWindows, trace);
     }
 
     private LocalDate computeScheduleEndDate(LocalDateTime now, List<TaskPayload> tasks, LocalDate fallback) {
@@ -184,14 +218,14 @@ public class SchedulePlannerService {
         return applyPreferredWindows(available, context.preferredTaskWindows);
     }
 
-    private List<ScheduledItem> scheduleTasks(ScheduleContext context, List<TimeBlock> availableSlots) {
+    private ScheduleRun scheduleTasks(ScheduleContext context, List<TimeBlock> availableSlots) {
         List<TaskPayload> tasks = context.tasks.stream()
                 .sorted(taskComparator())
                 .toList();
 
-        ScheduleRun initialRun = runScheduling(tasks, context, availableSlots, List.of(), context.fixedTasks);
+        ScheduleRun initialRun = runScheduling(tasks, context, availableSlots, List.of(), context.fixedTasks, 1);
         if (initialRun.pending.isEmpty()) {
-            return initialRun.scheduled;
+            return initialRun;
         }
 
         List<TaskPayload> deferred = initialRun.scheduledTasks.stream()
@@ -207,13 +241,12 @@ public class SchedulePlannerService {
         }
         reordered.addAll(deferred);
 
-        ScheduleRun retryRun = runScheduling(reordered, context, availableSlots, relaxed, context.fixedTasks);
-        return retryRun.scheduled;
+        return runScheduling(reordered, context, availableSlots, relaxed, context.fixedTasks, 2);
     }
 
     private ScheduleRun runScheduling(List<TaskPayload> tasks, ScheduleContext context,
                                       List<TimeBlock> availableSlots, List<TaskPayload> relaxedTasks,
-                                      List<ScheduledItem> fixedTasks) {
+                                      List<ScheduledItem> fixedTasks, int pass) {
         List<TimeBlock> slots = new ArrayList<>(availableSlots);
         List<ScheduledItem> scheduled = new ArrayList<>(fixedTasks);
         Map<LocalDate, Integer> dailyLoad = new HashMap<>();
@@ -226,7 +259,7 @@ public class SchedulePlannerService {
 
         for (TaskPayload task : tasks) {
             boolean relaxed = relaxedTasks.contains(task);
-            if (scheduleTask(task, context, slots, dailyLoad, scheduled, relaxed)) {
+            if (scheduleTask(task, context, slots, dailyLoad, scheduled, relaxed, pass)) {
                 scheduledTasks.add(task);
             } else {
                 pending.add(task);
@@ -238,8 +271,10 @@ public class SchedulePlannerService {
 
     private boolean scheduleTask(TaskPayload task, ScheduleContext context, List<TimeBlock> slots,
                                  Map<LocalDate, Integer> dailyLoad, List<ScheduledItem> scheduled,
-                                 boolean relaxed) {
+                                 boolean relaxed, int pass) {
         int remaining = Math.max(task.getEstimatedMinutes(), MIN_SPLIT_TASK_MINUTES);
+        ScheduleDecisionTrace trace = context.trace;
+        trace.beginTask(task, pass, relaxed, remaining);
         LocalDateTime due = parseDateTime(task.getDueDateTime());
         if (due == null) {
             due = LocalDateTime.of(context.endDate.minusDays(1), DEFAULT_DAY_END);
@@ -255,6 +290,7 @@ public class SchedulePlannerService {
             slots.clear();
             slots.addAll(updatedSlots);
             incrementDailyLoad(dailyLoad, selected.start.toLocalDate(), requiredMinutes);
+            trace.finish(ScheduleDecisionTrace.Outcome.SCHEDULED, 1, 0);
             return true;
         }
 
@@ -268,8 +304,11 @@ public class SchedulePlannerService {
         }
 
         if (allocations.isEmpty()) {
+            trace.finish(ScheduleDecisionTrace.Outcome.UNSCHEDULED, 0, remaining);
             return false;
         }
+        trace.finish(attempt.remaining > 0 ? ScheduleDecisionTrace.Outcome.PARTIAL : ScheduleDecisionTrace.Outcome.SPLIT,
+                allocations.size(), Math.max(0, attempt.remaining));
 
         for (int i = 0; i < allocations.size(); i++) {
             TimeBlock block = allocations.get(i);
@@ -304,16 +343,21 @@ public class SchedulePlannerService {
                                ScheduleContext context, Map<LocalDate, Integer> dailyLoad, boolean ignoreDailyLimit) {
         TimeBlock best = null;
         long bestScore = Long.MIN_VALUE;
+        ScheduleDecisionTrace trace = context.trace;
         for (int i = slots.size() - 1; i >= 0; i--) {
             TimeBlock slot = slots.get(i);
+            trace.candidate();
             LocalDateTime end = slot.start.plusMinutes(minutes);
             if (end.isAfter(cutoff)) {
+                trace.reject(ScheduleDecisionTrace.Rejection.PAST_DEADLINE);
                 continue;
             }
             if (slot.durationMinutes() < minutes) {
+                trace.reject(ScheduleDecisionTrace.Rejection.SLOT_TOO_SHORT);
                 continue;
             }
             if (!ignoreDailyLimit && !canFitWithinDailyLimit(context, dailyLoad, slot.start.toLocalDate(), minutes)) {
+                trace.reject(ScheduleDecisionTrace.Rejection.DAILY_LIMIT);
                 continue;
             }
             long score = scoreSlot(slot, end, cutoff, preferredDue, context, dailyLoad);
@@ -322,6 +366,9 @@ public class SchedulePlannerService {
                 best = slot;
             }
         }
+        if (best != null) {
+            trace.chosen(bestScore);
+        }
         return best;
     }
 
@@ -333,16 +380,22 @@ public class SchedulePlannerService {
         Map<LocalDate, Integer> tempLoad = new HashMap<>(dailyLoad);
         int remainingMinutes = remaining;
         List<SlotCandidate> candidates = new ArrayList<>();
+        ScheduleDecisionTrace trace = context.trace;
         for (TimeBlock slot : tempSlots) {
             if (remainingMinutes <= 0) {
                 break;
             }
+            trace.candidate();
             if (slot.start.isAfter(cutoff)) {
+                trace.reject(ScheduleDecisionTrace.Rejection.PAST_DEADLINE);
                 continue;
             }
             int allocMinutes = (int) Math.min(remainingMinutes, slot.durationMinutes());
+            boolean capacityLimited = false;
             if (!ignoreDailyLimit) {
-                allocMinutes = Math.min(allocMinutes, remainingDailyCapacity(context, tempLoad, slot.start.toLocalDate()));
+                int capacity = remainingDailyCapacity(context, tempLoad, slot.start.toLocalDate());
+                capacityLimited = capacity < allocMinutes;
+                allocMinutes = Math.min(allocMinutes, capacity);
             }
             if (remainingMinutes <= MIN_SPLIT_TASK_MINUTES * 2 && allocMinutes >= remainingMinutes) {
                 allocMinutes = remainingMinutes;
@@ -350,14 +403,15 @@ public class SchedulePlannerService {
                     && remainingMinutes - allocMinutes < MIN_SPLIT_TASK_MINUTES) {
                 allocMinutes = remainingMinutes - MIN_SPLIT_TASK_MINUTES;
             }
-            if (allocMinutes < MIN_SPLIT_TASK_MINUTES && remainingMinutes > MIN_SPLIT_TASK_MINUTES) {
-                continue;
-            }
-            if (allocMinutes <= 0) {
+            if ((allocMinutes < MIN_SPLIT_TASK_MINUTES && remainingMinutes > MIN_SPLIT_TASK_MINUTES) || allocMinutes <= 0) {
+                trace.reject(capacityLimited
+                        ? ScheduleDecisionTrace.Rejection.DAILY_LIMIT
+                        : ScheduleDecisionTrace.Rejection.SEGMENT_TOO_SHORT);
                 continue;
             }
             LocalDateTime end = slot.start.plusMinutes(allocMinutes);
             if (end.isAfter(cutoff)) {
+                trace.reject(ScheduleDecisionTrace.Rejection.PAST_DEADLINE);
                 continue;
             }
             long score = scoreSlot(slot, end, cutoff, preferredDue, context, tempLoad);
@@ -375,6 +429,7 @@ public class SchedulePlannerService {
                 continue;
             }
             if (allocations.size() >= maxSegments) {
+                trace.reject(ScheduleDecisionTrace.Rejection.SEGMENT_LIMIT);
                 break;
             }
             int allocMinutes = Math.min(remainingMinutes, candidate.allocMinutes);
@@ -388,12 +443,14 @@ public class SchedulePlannerService {
                 continue;
             }
             if (allocations.size() == maxSegments - 1 && remainingMinutes - allocMinutes > 0) {
+                trace.reject(ScheduleDecisionTrace.Rejection.SEGMENT_LIMIT);
                 continue;
             }
             LocalDateTime end = slot.start.plusMinutes(allocMinutes);
             if (end.isAfter(cutoff)) {
                 continue;
             }
+            trace.chosen(candidate.score);
             allocations.add(new TimeBlock(slot.start, end));
             tempSlots = consumeSlotWithBuffer(tempSlots, slot, new TimeBlock(slot.start, end));
             incrementDailyLoad(tempLoad, slot.start.toLocalDate(), allocMinutes);
@@ -705,11 +762,12 @@ public class SchedulePlannerService {
         private final Map<LocalDate, Integer> courseMinutesByDate;
         private final Map<LocalDate, Integer> fixedTaskMinutesByDate;
         private final List<TimeWindow> preferredTaskWindows;
+        private final ScheduleDecisionTrace trace;
         private ScheduleContext(LocalDateTime now, LocalDate startDate, LocalDate endDate,
                                 List<ScheduledItem> courses, List<TaskPayload> tasks, List<ScheduledItem> fixedTasks,
                                 Map<LocalDate, Integer> courseMinutesByDate,
                                 Map<LocalDate, Integer> fixedTaskMinutesByDate,
-                                List<TimeWindow> preferredTaskWindows) {
+                                List<TimeWindow> preferredTaskWindows, ScheduleDecisionTrace trace) {
             this.now = now;
             this.startDate = startDate;
             this.endDate = endDate;
@@ -719,6 +777,7 @@ public class SchedulePlannerService {
             this.courseMinutesByDate = courseMinutesByDate;
             this.fixedTaskMinutesByDate = fixedTaskMinutesByDate;
             this.preferredTaskWindows = preferredTaskWindows;
+            this.trace = trace;
         }
     }
 
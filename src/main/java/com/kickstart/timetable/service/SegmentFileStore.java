@@ -0,0 +1,254 @@
+package com.kickstart.timetable.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only on-disk key/value segment used as the second tier of {@link OcrResultCache}.
+ *
+ * Record layout: {@code magic(int) | key(32 bytes, SHA-256) | createdAtMillis(long) | length(int) | UTF-8 value}.
+ * The in-memory index (key -> offset) is rebuilt by scanning the file on startup, so the cache survives
+ * restarts. Reads go through a read-only memory mapping of the file. When the file grows past
+ * {@code maxBytes} it is compacted: the newest live records are rewritten to a fresh file that replaces
+ * the old one atomically. A torn record at the tail (e.g. after a crash) is truncated away on load.
+ * {@code maxBytes} is capped at {@link #MAX_BYTES} so the file always fits one mapping with int offsets;
+ * a file left over from a larger cap is compacted on load.
+ *
+ * Guarded by a {@link ReentrantLock} rather than {@code synchronized}: callers may be virtual threads, and
+ * file I/O under a monitor would pin their carrier thread.
+ */
+final class SegmentFileStore implements Closeable {
+
+    static final int KEY_BYTES = 32;
+    private static final int MAGIC = 0x4F435231; // "OCR1"
+    private static final int HEADER_BYTES = 4 + KEY_BYTES + 8 + 4;
+    private static final HexFormat HEX = HexFormat.of();
+    /** Cap on {@code maxBytes}; past it the file gains at most one record (under half the cap) before compaction. */
+    static final long MAX_BYTES = 1L << 30;
+    /** Largest file one read-only mapping, addressed with int offsets, can cover. */
+    private static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+    private final Path file;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Map<String, Location> index = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long size;
+
+    SegmentFileStore(Path file, long maxBytes, Duration ttl) throws IOException {
+        this.file = file;
+        this.maxBytes = Math.min(MAX_BYTES, Math.max(64 * 1024, maxBytes));
+        this.ttlMillis = (ttl == null || ttl.isZero() || ttl.isNegative()) ? 0 : ttl.toMillis();
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        open();
+        if (size > this.maxBytes) {
+            compact();
+        }
+    }
+
+    String get(String keyHex) throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            Location loc = index.get(keyHex);
+            if (loc == null) return null;
+            if (isExpired(loc.createdAt, System.currentTimeMillis())) {
+                index.remove(keyHex);
+                return null;
+            }
+            return new String(readValue(loc), StandardCharsets.UTF_8);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(String keyHex, String value) throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            byte[] key = HEX.parseHex(keyHex);
+            if (key.length != KEY_BYTES) {
+                throw new IllegalArgumentException("key must be a SHA-256 hex digest");
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (HEADER_BYTES + (long) bytes.length > maxBytes / 2) {
+                return;
+            }
+            long createdAt = System.currentTimeMillis();
+            long offset = size;
+            size += writeRecord(channel, offset, key, createdAt, bytes);
+            index.put(keyHex, new Location(offset, bytes.length, createdAt));
+            if (size > maxBytes) {
+                compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int entryCount() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long sizeBytes() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            mapped = null;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** After a failed reopen (or {@link #close()}) the store stays unusable; callers get an I/O error, not an NPE. */
+    private void ensureOpen() throws IOException {
+        if (channel == null) throw new IOException("segment file " + file + " is closed");
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = null;
+        index.clear();
+        size = channel.size();
+        long now = System.currentTimeMillis();
+        long pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        byte[] key = new byte[KEY_BYTES];
+        while (pos + HEADER_BYTES <= size) {
+            header.clear();
+            channel.read(header, pos);
+            header.flip();
+            if (header.getInt() != MAGIC) break;
+            header.get(key);
+            long createdAt = header.getLong();
+            int length = header.getInt();
+            long end = pos + HEADER_BYTES + length;
+            if (length < 0 || end > size || end > MAX_FILE_BYTES) break;
+            String keyHex = HEX.formatHex(key);
+            if (isExpired(createdAt, now)) {
+                index.remove(keyHex);
+            } else {
+                index.put(keyHex, new Location(pos, length, createdAt));
+            }
+            pos = end;
+        }
+        if (pos < size) {
+            // Torn, foreign or unmappable tail: drop it so the next append starts at a record boundary.
+            channel.truncate(pos);
+            size = pos;
+        }
+    }
+
+    private byte[] readValue(Location loc) throws IOException {
+        long end = loc.offset + HEADER_BYTES + loc.length;
+        if (mapped == null || mapped.capacity() < end) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        byte[] out = new byte[loc.length];
+        mapped.get((int) (loc.offset + HEADER_BYTES), out);
+        return out;
+    }
+
+    private void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Location>> live = new ArrayList<>();
+        for (Map.Entry<String, Location> e : index.entrySet()) {
+            if (!isExpired(e.getValue().createdAt, now)) live.add(e);
+        }
+        // Records are appended in write order and compaction keeps that order, so the offset orders them by
+        // age exactly; createdAt has millisecond ties.
+        live.sort(Comparator.comparingLong((Map.Entry<String, Location> e) -> e.getValue().offset).reversed());
+
+        // Keep the newest records up to half the cap so compaction doesn't run on every append.
+        long budget = maxBytes / 2;
+        List<Map.Entry<String, Location>> kept = new ArrayList<>();
+        long used = 0;
+        for (Map.Entry<String, Location> e : live) {
+            long recordBytes = HEADER_BYTES + (long) e.getValue().length;
+            if (used + recordBytes > budget) break;
+            kept.add(e);
+            used += recordBytes;
+        }
+        kept.sort(Comparator.comparingLong(e -> e.getValue().offset));
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = 0;
+            for (Map.Entry<String, Location> e : kept) {
+                Location loc = e.getValue();
+                pos += writeRecord(out, pos, HEX.parseHex(e.getKey()), loc.createdAt, readValue(loc));
+            }
+            out.force(true);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+        close();
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // The compacted file, or the old one if the move failed; either way the index is rebuilt from it.
+            open();
+        }
+    }
+
+    private static long writeRecord(FileChannel ch, long offset, byte[] key, long createdAt, byte[] value) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + value.length);
+        buf.putInt(MAGIC).put(key).putLong(createdAt).putInt(value.length).put(value).flip();
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+        return pos - offset;
+    }
+
+    private boolean isExpired(long createdAt, long now) {
+        return ttlMillis > 0 && now - createdAt > ttlMillis;
+    }
+
+    private record Location(long offset, int length, long createdAt) {}
+}
@@ -0,0 +1,253 @@
+package com.kickstart.timetable.service;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rule-based parser for formulaic task descriptions such as "下周三晚上12点前交离散数学作业，大概两小时，很急".
+ *
+ * Recognizes relative and absolute dates (今天/明天/后天, 周X/下周X, X月X日, X号, N天内, 月底), times of day and
+ * deadline markers (晚上12点前), durations (两小时, 1个半小时, 40分钟), urgency keywords and a course name in
+ * front of a task noun (离散数学作业, 高数期中考试). Whatever is left after removing those phrases becomes the
+ * title. The confidence says how much of the input was understood; {@link AiAssistantService} only trusts
+ * results above ai.parse-task.local-min-confidence and sends the rest to the LLM.
+ */
+final class TaskTextParser {
+
+    /** Same fields as the LLM answer of parseTask, plus how sure the parser is (0..1). */
+    record Result(String title, LocalDate dueDate, String priority, int estimatedDurationMinutes,
+                  String relatedCourse, double confidence) {
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("title", title);
+            m.put("dueDate", dueDate == null ? null : dueDate.toString());
+            m.put("priority", priority);
+            m.put("estimatedDurationMinutes", estimatedDurationMinutes);
+            m.put("relatedCourse", relatedCourse);
+            return m;
+        }
+    }
+
+    private static final String NUM = "[0-9]+|[零〇一二两三四五六七八九十]+";
+    private static final String DEADLINE = "(?:\\s*(?:之前|以前|前|截止|为止))?";
+
+    private static final Pattern ISO_DATE = Pattern.compile("(\\d{4})\\s*[-/.年]\\s*(\\d{1,2})\\s*[-/.月]\\s*(\\d{1,2})\\s*[日号]?" + DEADLINE);
+    private static final Pattern MONTH_DAY = Pattern.compile("(" + NUM + ")\\s*月\\s*(" + NUM + ")\\s*[日号]?" + DEADLINE);
+    private static final Pattern DAY_OF_MONTH = Pattern.compile("(?<![月\\d])(" + NUM + ")\\s*号" + DEADLINE);
+    private static final Pattern WEEKDAY = Pattern.compile("(下下|下个?|这个?|本)?\\s*(?:周|星期|礼拜)([一二三四五六日天1-7])" + DEADLINE);
+    private static final Pattern RELATIVE_DAY = Pattern.compile("(大后天|后天|明天|明日|明晚|今天|今日|今晚)" + DEADLINE);
+    private static final Pattern IN_DAYS = Pattern.compile("(" + NUM + ")\\s*天\\s*(?:后|以后|之后|内|之内|以内)" + DEADLINE);
+    private static final Pattern MONTH_END = Pattern.compile("(月底|月末|周末)" + DEADLINE);
+    private static final Pattern TIME = Pattern.compile(
+            "(?:早上|上午|中午|下午|傍晚|晚上|夜里|凌晨)?\\s*(?:(?:" + NUM + ")\\s*(?:点|时)\\s*(?:半|(?:" + NUM + ")\\s*分?)?|\\d{1,2}[:：]\\d{2})" + DEADLINE
+                    + "|(?:早上|上午|中午|下午|傍晚|晚上|夜里|凌晨)" + DEADLINE);
+    private static final Pattern DURATION = Pattern.compile(
+            "(?:大概|大约|约|预计|估计|需要|要花|花)?\\s*(?:"
+                    + "(" + NUM + ")(?:\\.(\\d+))?\\s*个?\\s*(半)?\\s*(?:小时|钟头|h\\b)(?:\\s*(" + NUM + ")\\s*分钟?)?"
+                    + "|半\\s*个?\\s*(?:小时|钟头)"
+                    + "|(" + NUM + ")\\s*(?:分钟|min\\b))"
+                    + "(?:左右)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern URGENCY = Pattern.compile(
+            "十万火急|非常急|特别急|超级急|很急|紧急|加急|马上|立刻|立即|不太急|不着急|不急|比较急|有点急|尽快|重要|有空再|有空|随便|慢慢|急");
+    private static final Pattern TASK = Pattern.compile(
+            "作业|实验报告|实验|报告|论文|期中考试|期末考试|考试|测验|小测|大作业|课程设计|课设|项目|习题|展示|PPT|ppt|复习|预习|提交|交|完成|背");
+    private static final Pattern COURSE = Pattern.compile(
+            "《([^》]{1,20})》|【([^】]{1,20})】"
+                    + "|(?:交|提交|完成|写|做|复习|预习|准备|背)?([\\u4e00-\\u9fa5A-Za-z]{2,10}?)(?:课的?|的)?"
+                    + "(?:作业|实验报告|实验|报告|论文|期中考试|期末考试|考试|测验|小测|大作业|课程设计|课设|习题|展示|PPT)");
+    private static final Pattern TASK_NOUN = Pattern.compile("作业|实验|报告|论文|考试|测验|小测|课设|课程设计|项目|习题|展示|PPT");
+    private static final Pattern LEADING_FILLER = Pattern.compile("^(?:要|需要|得|请|帮我|记得|把|在)+");
+    private static final Pattern SEPARATORS = Pattern.compile("[，,。.;；！!、~～\\s]+");
+    private static final Pattern LEFTOVER_DATE = Pattern.compile("[0-9]|月|号|周|星期|礼拜|点|时");
+
+    private static final int DEFAULT_DURATION = 60;
+    private static final int LONG_INPUT = 60;
+
+    private final Clock clock;
+
+    TaskTextParser(Clock clock) {
+        this.clock = clock;
+    }
+
+    Result parse(String input) {
+        String text = input == null ? "" : input.strip();
+        LocalDate today = LocalDate.now(clock);
+        StringBuilder rest = new StringBuilder(text);
+
+        Integer duration = null;
+        Matcher m = DURATION.matcher(text);
+        while (m.find()) {
+            Integer minutes = durationMinutes(m);
+            if (minutes == null) continue;
+            if (duration == null) duration = minutes;
+            blank(rest, m.start(), m.end());
+        }
+
+        LocalDate due = null;
+        for (Pattern p : List.of(ISO_DATE, MONTH_DAY, IN_DAYS, WEEKDAY, RELATIVE_DAY, MONTH_END, DAY_OF_MONTH)) {
+            m = p.matcher(rest);
+            while (m.find()) {
+                LocalDate d = date(p, m, today);
+                if (d == null) continue;
+                if (due == null) due = d;
+                blank(rest, m.start(), m.end());
+            }
+        }
+        m = TIME.matcher(rest);
+        while (m.find()) {
+            blank(rest, m.start(), m.end());
+        }
+
+        String priority = null;
+        m = URGENCY.matcher(rest);
+        while (m.find()) {
+            if (priority == null) priority = priority(m.group());
+            blank(rest, m.start(), m.end());
+        }
+        if (priority == null) {
+            priority = due != null && !due.isAfter(today.plusDays(1)) ? "High" : "Medium";
+        }
+
+        String title = title(rest.toString());
+        String course = null;
+        m = COURSE.matcher(title);
+        while (course == null && m.find()) {
+            String c = m.group(1) != null ? m.group(1) : m.group(2) != null ? m.group(2) : m.group(3);
+            // "提交实验报告" matches with 实验 as the course; a task noun is never a course name.
+            if (!TASK_NOUN.matcher(c).find()) course = c;
+        }
+
+        // Confidence in tenths: a task word, no date-like leftovers (周/号/点... the rules did not understand),
+        // a course and a short title each add to it; long free-form inputs are left to the LLM.
+        int score = 3;
+        if (TASK.matcher(title).find()) score += 3;
+        if (!LEFTOVER_DATE.matcher(title).find()) score += 2;
+        if (course != null) score += 1;
+        if (title.length() <= 20) score += 1;
+        if (text.length() > LONG_INPUT) score -= 2;
+        if (title.isEmpty()) score = 0;
+
+        return new Result(title.isEmpty() ? text : title, due, priority,
+                duration == null ? DEFAULT_DURATION : duration, course, Math.max(0, Math.min(10, score)) / 10.0);
+    }
+
+    private static LocalDate date(Pattern p, Matcher m, LocalDate today) {
+        try {
+            if (p == ISO_DATE) {
+                return LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+            }
+            if (p == MONTH_DAY) {
+                LocalDate d = LocalDate.of(today.getYear(), number(m.group(1)), number(m.group(2)));
+                return d.isBefore(today) ? d.plusYears(1) : d;
+            }
+            if (p == DAY_OF_MONTH) {
+                LocalDate d = today.withDayOfMonth(number(m.group(1)));
+                return d.isBefore(today) ? d.plusMonths(1) : d;
+            }
+            if (p == IN_DAYS) {
+                return today.plusDays(number(m.group(1)));
+            }
+            if (p == RELATIVE_DAY) {
+                return switch (m.group(1)) {
+                    case "大后天" -> today.plusDays(3);
+                    case "后天" -> today.plusDays(2);
+                    case "明天", "明日", "明晚" -> today.plusDays(1);
+                    default -> today;
+                };
+            }
+            if (p == MONTH_END) {
+                return "周末".equals(m.group(1))
+                        ? today.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY))
+                        : today.with(TemporalAdjusters.lastDayOfMonth());
+            }
+            if (p == WEEKDAY) {
+                DayOfWeek dow = DayOfWeek.of("一二三四五六日天".indexOf(m.group(2)) >= 0
+                        ? Math.min(7, "一二三四五六日天".indexOf(m.group(2)) + 1)
+                        : Integer.parseInt(m.group(2)));
+                String prefix = m.group(1) == null ? "" : m.group(1);
+                LocalDate monday = today.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                if (prefix.startsWith("下下")) return monday.plusWeeks(2).with(dow);
+                if (prefix.startsWith("下")) return monday.plusWeeks(1).with(dow);
+                if (!prefix.isEmpty()) return monday.with(dow);
+                // Bare 周X: the next such day, today included.
+                return today.with(TemporalAdjusters.nextOrSame(dow));
+            }
+        } catch (RuntimeException e) {
+            // Invalid date such as 2月30日 or an out-of-range number: treat as not understood.
+        }
+        return null;
+    }
+
+    private static Integer durationMinutes(Matcher m) {
+        try {
+            return minutes(m);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Integer minutes(Matcher m) {
+        String g = m.group();
+        if (m.group(5) != null) return number(m.group(5));
+        if (m.group(1) == null) return g.contains("半") ? 30 : null;
+        int minutes = number(m.group(1)) * 60;
+        if (m.group(2) != null) minutes += (int) Math.round(Double.parseDouble("0." + m.group(2)) * 60);
+        if (m.group(3) != null) minutes += 30;
+        if (m.group(4) != null) minutes += number(m.group(4));
+        return minutes > 0 ? minutes : null;
+    }
+
+    private static String priority(String keyword) {
+        return switch (keyword) {
+            case "十万火急", "非常急", "特别急", "超级急", "很急", "紧急", "加急", "马上", "立刻", "立即" -> "Urgent";
+            case "不太急", "不着急", "不急", "有空再", "有空", "随便", "慢慢" -> "Low";
+            default -> "High";
+        };
+    }
+
+    private static String title(String rest) {
+        List<String> parts = new ArrayList<>();
+        for (String part : SEPARATORS.split(rest)) {
+            String p = LEADING_FILLER.matcher(part.strip()).replaceAll("");
+            if (p.endsWith("的")) p = p.substring(0, p.length() - 1);
+            if (!p.isEmpty()) parts.add(p);
+        }
+        return String.join("，", parts);
+    }
+
+    /** Replace [start, end) by spaces so that later matches keep their positions and phrases stay separated. */
+    private static void blank(StringBuilder sb, int start, int end) {
+        for (int i = start; i < end; i++) sb.setCharAt(i, ' ');
+    }
+
+    /** Arabic or Chinese numeral up to 99 (十二, 二十五, 两). */
+    static int number(String s) {
+        if (s.chars().allMatch(Character::isDigit)) return Integer.parseInt(s);
+        String digits = "零一二三四五六七八九";
+        int ten = s.indexOf('十');
+        if (ten < 0) {
+            int v = 0;
+            for (char c : s.toCharArray()) v = v * 10 + digit(digits, c);
+            return v;
+        }
+        int tens = ten == 0 ? 1 : digit(digits, s.charAt(ten - 1));
+        int ones = ten == s.length() - 1 ? 0 : digit(digits, s.charAt(ten + 1));
+        return tens * 10 + ones;
+    }
+
+    private static int digit(String digits, char c) {
+        if (c == '两') return 2;
+        if (c == '〇') return 0;
+        int d = digits.indexOf(c);
+        if (d < 0) throw new NumberFormatException(String.valueOf(c));
+        return d;
+    }
+}
@@ -1,140 +1,243 @@
 package com.kickstart.timetable.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.kickstart.timetable.util.BellScheduleDefaults;
-import com.kickstart.timetable.util.ImportFormatDefaults;
-import com.kickstart.timetable.util.JsonArrayExtractor;
-import com.kickstart.timetable.util.PastelPalette;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import com.kickstart.timetable.config.ImportProperties;
+import com.kickstart.timetable.util.JsonArrayElementStream;
+import com.kickstart.timetable.util.LenientJsonReader;
+import com.kickstart.timetable.util.SingleFlight;
+import com.kickstart.timetable.util.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import javax.imageio.ImageIO;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
 
 @Service
 public class TimetableAiService {
 
+    private static final Logger log = LoggerFactory.getLogger(TimetableAiService.class);
+
+    private static final String EXTRACT_SYSTEM_PROMPT = "你是课表结构化抽取器。只输出一个 JSON 对象（不要解释、不要代码块、不要多余文本）。";
+
+    /** Measured stage runs needed before their median replaces timetable.import.typical-*-latency. */
+    private static final int MIN_LATENCY_SAMPLES = 5;
+
     private final PaddleLayoutParsingClient paddle;
     private final AiStudioChatClient ai;
     private final ObjectMapper om;
-
-    public TimetableAiService(PaddleLayoutParsingClient paddle, AiStudioChatClient ai, ObjectMapper om) {
+    private final OcrResultCache ocrCache;
+    private final PdfPageRenderer pdfRenderer;
+    private final TaskExecutor ocrPageExecutor;
+    private final ImagePreprocessor preprocessor;
+    private final ImportProperties importProps;
+    private final TaskExecutor extractChunkExecutor;
+    private final TaskExecutor imageExecutor;
+    private final TimetableGridParser gridParser;
+    private final Counter localExtractions;
+    private final Counter llmExtractions;
+    private final DistributionSummary localConfidence;
+    private final DistributionSummary promptTokensBefore;
+    private final DistributionSummary promptTokensAfter;
+    private final SingleFlight<String, Map<String, Object>> uploadsInFlight;
+    private final LatencyWindow ocrLatency = new LatencyWindow(50);
+    private final LatencyWindow extractLatency = new LatencyWindow(50);
+    private final Counter ocrSkipped;
+    private final Counter extractSkipped;
+    private final Counter savedTokens;
+
+    public TimetableAiService(PaddleLayoutParsingClient paddle, AiStudioChatClient ai, ObjectMapper om,
+                              OcrResultCache ocrCache, PdfPageRenderer pdfRenderer,
+                              @Qualifier("ocrPageExecutor") TaskExecutor ocrPageExecutor, ImagePreprocessor preprocessor,
+                              ImportProperties importProps, MeterRegistry registry,
+                              @Qualifier("extractChunkExecutor") TaskExecutor extractChunkExecutor,
+                              @Qualifier("imageExecutor") TaskExecutor imageExecutor) {
         this.paddle = paddle;
         this.ai = ai;
         this.om = om;
+        this.ocrCache = ocrCache;
+        this.pdfRenderer = pdfRenderer;
+        this.ocrPageExecutor = ocrPageExecutor;
+        this.preprocessor = preprocessor;
+        this.importProps = importProps;
+        this.extractChunkExecutor = extractChunkExecutor;
+        this.imageExecutor = imageExecutor;
+        this.gridParser = new TimetableGridParser(om);
+        this.localExtractions = Counter.builder("timetable.extract").tag("path", "local").register(registry);
+        this.llmExtractions = Counter.builder("timetable.extract").tag("path", "llm").register(registry);
+        this.localConfidence = DistributionSummary.builder("timetable.extract.local.confidence").register(registry);
+        this.promptTokensBefore = DistributionSummary.builder("timetable.prompt.tokens").baseUnit("tokens").tag("stage", "before").register(registry);
+        this.promptTokensAfter = DistributionSummary.builder("timetable.prompt.tokens").baseUnit("tokens").tag("stage", "after").register(registry);
+        this.uploadsInFlight = new SingleFlight<>("timetable.import", registry);
+        this.ocrSkipped = Counter.builder("deadline.skipped").tag("stage", "ocr").register(registry);
+        this.extractSkipped = Counter.builder("deadline.skipped").tag("stage", "extract").register(registry);
+        this.savedTokens = Counter.builder("deadline.saved.tokens").baseUnit("tokens").register(registry);
     }
 
     public Map<String, Object> parseTimetableFromImage(byte[] imageBytes) {
-        byte[] normalized = normalizeImageBytes(imageBytes);
-        String markdown = paddle.extractMarkdown(normalized, 1);
-        String ndjson = markdownToNdjson(markdown);
+        return parseTimetableFromImage(UploadSource.of(imageBytes));
+    }
+
+    /**
+     * OCR and extract an upload. Identical uploads (same decoded content) arriving while one is being parsed,
+     * e.g. a double-tapped upload or a shared screenshot, wait for that parse instead of repeating the OCR
+     * and LLM calls; each caller gets its own copy of the result.
+     */
+    public Map<String, Object> parseTimetableFromImage(UploadSource upload) {
+        return new HashMap<>(uploadsInFlight.execute(upload.contentHash(),
+                () -> parseTimetableFromImage(upload, TimetableStreamListener.NONE)));
+    }
+
+    /**
+     * Same pipeline reporting its stages (normalize, ocr, extract, ndjson) to {@code listener}. Not
+     * coalesced; used by {@link ImportJobService}, which deduplicates uploads itself.
+     */
+    public Map<String, Object> parseTimetableFromImage(UploadSource upload, TimetableStreamListener listener) {
+        String markdown = ocrUpload(upload, listener);
+        listener.onStage("extract");
+        List<TimetableGrid> grids = TimetableGrid.fromMarkdown(markdown);
+        TimetableGridParser.Result local = parseLocally(markdown, grids);
 
         Map<String, Object> out = new HashMap<>();
-        out.put("ndjson", ndjson);
+        if (local != null) {
+            listener.onStage("ndjson");
+            out.put("ndjson", localToNdjson(local, TimetableStreamListener.NONE));
+            out.put("extractor", "local");
+        } else {
+            int chunks = importProps.getExtractionMode() == ImportProperties.ExtractionMode.CHUNKED
+                    ? importProps.getExtractionChunks() : 1;
+            List<MarkdownCompactor.Compacted> parts = promptParts(markdown, grids, chunks, true);
+            out.put("ndjson", markdownToNdjson(parts, listener));
+            out.put("extractor", "llm");
+            out.put("promptTokens", promptStats(parts));
+        }
         // 给前端调试用（你可以删掉）
         out.put("markdown", markdown);
         return out;
     }
 
-    private byte[] normalizeImageBytes(byte[] imageBytes) {
-        if (imageBytes == null || imageBytes.length == 0) {
-            return imageBytes;
-        }
-        String text = new String(imageBytes, StandardCharsets.UTF_8).trim();
-        if (text.startsWith("data:") && text.contains("base64,")) {
-            int idx = text.indexOf("base64,");
-            String payload = text.substring(idx + "base64,".length()).trim();
-            byte[] decoded = decodeBase64(payload);
-            return decoded == null ? imageBytes : convertPdfIfNeeded(decoded);
-        }
-        if (looksLikeBase64(text)) {
-            byte[] decoded = decodeBase64(text);
-            if (decoded != null && isLikelyBinaryImage(decoded)) {
-                return convertPdfIfNeeded(decoded);
-            }
+    /**
+     * OCR an upload (image, PDF, data URI or base64 text) into markdown. PDFs are OCR'd page by page,
+     * up to timetable.import.pdf-max-pages, and the page markdown is merged in page order. Images are
+     * decoded from the upload stream and shrunk by {@link ImagePreprocessor} before OCR. Rendering and
+     * decoding run on a platform thread ({@link PlatformThreads}) when the request is on a virtual one.
+     * Reports the normalize stage, then ocr once only OCR is left (for PDFs: every page is rendered).
+     * Nothing is decoded once the request's {@link Deadline} has ended.
+     */
+    private String ocrUpload(UploadSource upload, TimetableStreamListener listener) {
+        Deadline.current().check("normalize");
+        listener.onStage("normalize");
+        if (upload.contentFormat() == UploadSource.Format.PDF) {
+            return ocrPdfPages(upload, listener);
         }
-        return convertPdfIfNeeded(imageBytes);
+        byte[] normalized = PlatformThreads.call(imageExecutor, () -> preprocessor.preprocess(upload));
+        listener.onStage("ocr");
+        return ocrImage(normalized);
     }
 
-    private boolean looksLikeBase64(String text) {
-        if (text.length() < 128) {
-            return false;
-        }
-        for (int i = 0; i < text.length(); i++) {
-            char ch = text.charAt(i);
-            if (Character.isWhitespace(ch)) {
-                continue;
-            }
-            if ((ch >= 'A' && ch <= 'Z')
-                    || (ch >= 'a' && ch <= 'z')
-                    || (ch >= '0' && ch <= '9')
-                    || ch == '+' || ch == '/' || ch == '=') {
-                continue;
-            }
-            return false;
-        }
-        return text.length() % 4 == 0;
+    private String ocrImage(byte[] normalized) {
+        return ocrCache.getOrLoad(normalized, 1, () -> {
+            reserve("ocr", ocrLatency, importProps.getTypicalOcrLatency(), ocrSkipped);
+            long start = System.nanoTime();
+            String markdown = paddle.extractMarkdown(normalized, 1);
+            ocrLatency.add(System.nanoTime() - start);
+            return markdown;
+        });
     }
 
-    private byte[] decodeBase64(String payload) {
+    /**
+     * Skip {@code stage} (throwing {@link DeadlineExceededException}) when the request's deadline has ended
+     * or leaves less than the stage's typical latency: the median of recent runs, {@code fallback} until
+     * enough were measured. Requests without a deadline always proceed.
+     */
+    private void reserve(String stage, LatencyWindow typical, Duration fallback, Counter skipped) {
+        Deadline deadline = Deadline.current();
+        Duration left = deadline.remaining();
+        if (left == null) return;
+        long median = typical.percentile(0.5, MIN_LATENCY_SAMPLES);
+        long needed = median >= 0 ? median : fallback.toNanos();
+        if (left.toNanos() >= needed && !deadline.isDone()) return;
+        skipped.increment();
+        deadline.check(stage);
+        throw new DeadlineExceededException(stage + " 未执行：剩余时间不足（剩余 " + left.toMillis() + " ms，通常需要 "
+                + Duration.ofNanos(needed).toMillis() + " ms）");
+    }
+
+    /** {@link #reserve} for the LLM extraction; a skip also counts the completion tokens not spent. */
+    private void reserveExtraction(List<MarkdownCompactor.Compacted> parts) {
         try {
-            return Base64.getDecoder().decode(payload);
-        } catch (IllegalArgumentException ignored) {
-            return null;
+            reserve("extract", extractLatency, importProps.getTypicalExtractLatency(), extractSkipped);
+        } catch (DeadlineExceededException e) {
+            parts.forEach(p -> savedTokens.increment(extractionMaxTokens(p)));
+            throw e;
         }
     }
 
-    private boolean isLikelyBinaryImage(byte[] bytes) {
-        if (bytes.length < 4) {
-            return false;
-        }
-        if ((bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8) {
-            return true; // JPEG
-        }
-        if ((bytes[0] & 0xFF) == 0x89 && bytes[1] == 0x50 && bytes[2] == 0x4E && bytes[3] == 0x47) {
-            return true; // PNG
-        }
-        if (bytes[0] == 0x25 && bytes[1] == 0x50 && bytes[2] == 0x44 && bytes[3] == 0x46) {
-            return true; // PDF
+    private String ocrPdfPages(UploadSource pdf, TimetableStreamListener listener) {
+        List<Future<String>> pages = new ArrayList<>();
+        try {
+            PlatformThreads.call(imageExecutor, () -> pdfRenderer.renderPages(pdf, image -> pages.add(
+                    submit(ocrPageExecutor, () -> ocrImage(preprocessor.preprocess(image))))));
+        } catch (RuntimeException e) {
+            pages.forEach(f -> f.cancel(true));
+            throw e;
         }
-        if (bytes.length >= 12 && bytes[0] == 0x52 && bytes[1] == 0x49 && bytes[2] == 0x46 && bytes[3] == 0x46
-                && bytes[8] == 0x57 && bytes[9] == 0x45 && bytes[10] == 0x42 && bytes[11] == 0x50) {
-            return true; // WEBP
+        listener.onStage("ocr");
+
+        List<String> markdowns = joinAll(pages);
+        StringBuilder merged = new StringBuilder();
+        for (int i = 0; i < markdowns.size(); i++) {
+            if (markdowns.size() > 1) {
+                merged.append(i == 0 ? "" : "\n\n").append("<!-- page ").append(i + 1).append(" -->\n\n");
+            }
+            merged.append(markdowns.get(i));
         }
-        return false;
+        return merged.toString();
     }
 
-    private byte[] convertPdfIfNeeded(byte[] bytes) {
-        if (!isPdf(bytes)) {
-            return bytes;
-        }
-        try (PDDocument document = PDDocument.load(bytes)) {
-            PDFRenderer renderer = new PDFRenderer(document);
-            BufferedImage image = renderer.renderImageWithDPI(0, 200);
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", output);
-            return output.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("PDF 转图片失败: " + e.getMessage(), e);
-        }
+    /**
+     * Run {@code work} on {@code executor}. Unlike a CompletableFuture's, the returned future's
+     * {@code cancel(true)} interrupts the thread running it, which aborts its upstream call.
+     */
+    private static <T> Future<T> submit(TaskExecutor executor, Supplier<T> work) {
+        FutureTask<T> task = new FutureTask<>(work::get);
+        executor.execute(task);
+        return task;
     }
 
-    private boolean isPdf(byte[] bytes) {
-        return bytes.length >= 4 && bytes[0] == 0x25 && bytes[1] == 0x50 && bytes[2] == 0x44 && bytes[3] == 0x46;
+    /** Results in order; on the first failure the remaining tasks are cancelled and the failure is thrown. */
+    private static <T> List<T> joinAll(List<Future<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> task : tasks) results.add(task.get());
+        } catch (ExecutionException e) {
+            tasks.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            if (e.getCause() instanceof Error err) throw err;
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            tasks.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return results;
     }
 
     /**
@@ -152,194 +255,257 @@ public class TimetableAiService {
      *   and leave message.content empty.
      * - Use response_format=json_object (AIStudio structured output feature) with a supported model.
      */
-    private String markdownToNdjson(String markdownText) {
-        String system = "你是课表结构化抽取器。只输出一个 JSON 对象（不要解释、不要代码块、不要多余文本）。";
+    private String markdownToNdjson(List<MarkdownCompactor.Compacted> parts, TimetableStreamListener listener) {
+        reserveExtraction(parts);
+        llmExtractions.increment();
+        long start = System.nanoTime();
+        if (parts.size() == 1) {
+            // Use structured output (json_object) with a supported model.
+            String raw = ai.chatStructuredJsonObject(EXTRACT_SYSTEM_PROMPT, extractionPrompt(parts.get(0), false), 0.1,
+                    extractionMaxTokens(parts.get(0)));
+            extractLatency.add(System.nanoTime() - start);
+            listener.onStage("ndjson");
+            return normalizeToNdjson(raw);
+        }
+
+        // Chunked mode: one smaller completion per group of weekday columns, all in flight at once, so the
+        // wall-clock time is roughly that of the slowest chunk. Results are merged in chunk order.
+        List<Future<String>> calls = new ArrayList<>();
+        for (MarkdownCompactor.Compacted part : parts) {
+            String prompt = extractionPrompt(part, true);
+            int maxTokens = extractionMaxTokens(part);
+            calls.add(submit(extractChunkExecutor,
+                    () -> ai.chatStructuredJsonObject(EXTRACT_SYSTEM_PROMPT, prompt, 0.1, maxTokens)));
+        }
+        List<String> raws = joinAll(calls);
+        extractLatency.add(System.nanoTime() - start);
+        listener.onStage("ndjson");
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        for (String raw : raws) {
+            // Every chunk numbers its courses from 0; course names are deduplicated across chunks.
+            builder.newIdScope();
+            addExtraction(raw, builder);
+        }
+        return builder.build();
+    }
+
+    /**
+     * OCR text for the extraction prompt(s): compacted to timetable.import.prompt-token-budget (see
+     * {@link MarkdownCompactor}) and split into up to {@code chunks} weekday groups, unless compaction is
+     * disabled. Estimated tokens are recorded either way.
+     *
+     * Tables are never cut to fit the budget. When they alone are over it, {@code splitOverBudget} splits
+     * them into more weekday groups, as many as the budget needs; whatever is still over goes out whole,
+     * with a warning.
+     */
+    private List<MarkdownCompactor.Compacted> promptParts(String markdown, List<TimetableGrid> grids, int chunks,
+                                                          boolean splitOverBudget) {
+        List<MarkdownCompactor.Compacted> parts;
+        if (importProps.isCompactPrompt()) {
+            int budget = importProps.getPromptTokenBudget();
+            parts = MarkdownCompactor.compactByDays(markdown, grids, budget, chunks);
+            if (budget > 0 && largestPart(parts) > budget) {
+                int total = parts.stream().mapToInt(MarkdownCompactor.Compacted::tokensAfter).sum();
+                int needed = (total + budget - 1) / budget;
+                if (splitOverBudget && needed > parts.size()) {
+                    parts = MarkdownCompactor.compactByDays(markdown, grids, budget, needed);
+                }
+                if (largestPart(parts) > budget) {
+                    log.warn("Timetable tables need ~{} prompt tokens, over timetable.import.prompt-token-budget={}; "
+                            + "sending them whole in {} part(s)", total, budget, parts.size());
+                }
+            }
+        } else {
+            int tokens = TokenEstimator.estimate(markdown);
+            parts = List.of(new MarkdownCompactor.Compacted(markdown, tokens, tokens, false));
+        }
+        promptTokensBefore.record(parts.get(0).tokensBefore());
+        promptTokensAfter.record(parts.stream().mapToInt(MarkdownCompactor.Compacted::tokensAfter).sum());
+        return parts;
+    }
+
+    private static int largestPart(List<MarkdownCompactor.Compacted> parts) {
+        return parts.stream().mapToInt(MarkdownCompactor.Compacted::tokensAfter).max().orElse(0);
+    }
+
+    private static Map<String, Object> promptStats(List<MarkdownCompactor.Compacted> parts) {
+        if (parts.size() == 1) return parts.get(0).stats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("before", parts.get(0).tokensBefore());
+        stats.put("after", parts.stream().mapToInt(MarkdownCompactor.Compacted::tokensAfter).sum());
+        stats.put("truncated", parts.stream().anyMatch(MarkdownCompactor.Compacted::truncated));
+        stats.put("chunks", parts.size());
+        return stats;
+    }
+
+    /**
+     * Run the deterministic table parser; returns its result only when it explained enough of the table
+     * (timetable.import.local-parse-min-confidence), otherwise null and the caller goes to the LLM.
+     */
+    private TimetableGridParser.Result parseLocally(String markdown, List<TimetableGrid> grids) {
+        if (!importProps.isLocalParseEnabled()) return null;
+        TimetableGridParser.Result local = gridParser.parse(markdown, grids);
+        localConfidence.record(local.confidence());
+        if (local.rules().isEmpty() || local.confidence() < importProps.getLocalParseMinConfidence()) {
+            return null;
+        }
+        localExtractions.increment();
+        return local;
+    }
+
+    private String localToNdjson(TimetableGridParser.Result local, TimetableStreamListener listener) {
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        for (ObjectNode n : local.courses()) {
+            ObjectNode course = builder.addCourse(n);
+            if (course != null) listener.onCourse(course);
+        }
+        for (ObjectNode n : local.rules()) {
+            ObjectNode rule = builder.addRule(n);
+            if (rule != null) listener.onRule(rule);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Streaming counterpart of {@link #parseTimetableFromImage}: the structured extraction is streamed and
+     * every courseDefs / scheduleRules element is normalized and handed to {@code listener} as soon as it
+     * is complete, so the client sees the first course long before the completion finishes.
+     */
+    public Map<String, Object> streamTimetableFromImage(UploadSource upload, TimetableStreamListener listener) {
+        String markdown = ocrUpload(upload, listener);
+        listener.onStage("extract");
+
+        List<TimetableGrid> grids = TimetableGrid.fromMarkdown(markdown);
+        TimetableGridParser.Result local = parseLocally(markdown, grids);
+        if (local != null) {
+            Map<String, Object> out = new HashMap<>();
+            out.put("ndjson", localToNdjson(local, listener));
+            out.put("markdown", markdown);
+            out.put("extractor", "local");
+            return out;
+        }
+        MarkdownCompactor.Compacted prompt = promptParts(markdown, grids, 1, false).get(0);
+        reserveExtraction(List.of(prompt));
+        llmExtractions.increment();
+
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        int[] courseIndex = {0};
+        Set<String> keys = Set.of("courseDefs", "scheduleRules", CompactExtraction.COURSES, CompactExtraction.RULES);
+        JsonArrayElementStream elements = new JsonArrayElementStream(keys, (key, json) -> {
+            JsonNode node;
+            try {
+                node = om.readTree(json);
+            } catch (Exception ignored) {
+                return;
+            }
+            boolean isCourse = "courseDefs".equals(key) || CompactExtraction.COURSES.equals(key);
+            if (CompactExtraction.COURSES.equals(key)) {
+                node = CompactExtraction.course(om, courseIndex[0]++, node);
+            } else if (CompactExtraction.RULES.equals(key)) {
+                node = CompactExtraction.rule(om, node);
+            }
+            if (isCourse) {
+                ObjectNode course = builder.addCourse(node);
+                if (course != null) listener.onCourse(course);
+                builder.resolveDeferred().forEach(listener::onRule);
+            } else if (node != null) {
+                ObjectNode rule = builder.addRule(node);
+                if (rule != null) listener.onRule(rule);
+            }
+        });
+        long start = System.nanoTime();
+        String raw = ai.chatStructuredJsonObjectStream(EXTRACT_SYSTEM_PROMPT, extractionPrompt(prompt, false), 0.1,
+                extractionMaxTokens(prompt), elements::feed);
+        extractLatency.add(System.nanoTime() - start);
+
+        // The model may not have used the expected top-level shape; fall back to the tolerant batch path.
+        String ndjson = builder.courseCount() > 0 ? builder.build() : normalizeToNdjson(raw);
 
-        String user = "给你一段来自课表截图 OCR 得到的 markdown 文本，请抽取并输出一个 JSON 对象，必须包含以下三个字段：" +
+        Map<String, Object> out = new HashMap<>();
+        out.put("ndjson", ndjson);
+        out.put("markdown", markdown);
+        out.put("extractor", "llm");
+        out.put("promptTokens", prompt.stats());
+        return out;
+    }
+
+    /**
+     * max_tokens for an extraction call. The verbose schema keeps the old fixed 8192; the compact schema is
+     * sized from the number of week specs ("1-16周" ...) in the prompt text, roughly one rule each.
+     */
+    private int extractionMaxTokens(MarkdownCompactor.Compacted prompt) {
+        if (!importProps.isCompactSchema()) return 8192;
+        int weekSpecs = TimetableGridParser.countWeekSpecs(prompt.text());
+        return CompactExtraction.maxTokens(weekSpecs > 0 ? weekSpecs : prompt.tokensAfter() / 10);
+    }
+
+    private String extractionPrompt(MarkdownCompactor.Compacted prompt, boolean partial) {
+        boolean compacted = importProps.isCompactPrompt();
+        String schema = importProps.isCompactSchema()
+                ? "给你一段来自课表截图 OCR 得到的 markdown 文本。" + CompactExtraction.SCHEMA_PROMPT
+                : "给你一段来自课表截图 OCR 得到的 markdown 文本，请抽取并输出一个 JSON 对象，必须包含以下三个字段：" +
                 "\n\n" +
                 "1) bellScheduleData：数组。元素字段：node(int), startTime(\"HH:mm\"), endTime(\"HH:mm\"), timeTable(固定1)" +
                 "\n2) courseDefs：数组。元素字段：id(从0递增), courseName(string), color(可以输出空字符串\"\"), tableId(固定1), credit(0.0), note(\"\")" +
                 "\n3) scheduleRules：数组。元素字段：id(引用courseDefs的id), day(1=周一..7=周日), startNode(开始节次), step(连续节次数), " +
                 "startWeek, endWeek, type(0=全周,1=单周,2=双周), room, teacher, tableId(固定1), ownTime(false), level(0), startTime(\"\"), endTime(\"\")" +
+                "\n- 如果无法从 markdown 判断 bellScheduleData，请输出空数组 []（后端会自动填默认作息表）";
+        return schema +
                 "\n\n规则：" +
                 "\n- 课程名尽量保留班级/编号，如：离散数学[06]" +
                 "\n- 周次：如 1-18周(单) => startWeek=1,endWeek=18,type=1；5-13周 => type=0" +
                 "\n- 节次：如 1-2节 => startNode=1, step=2；5-8节 => startNode=5, step=4" +
-                "\n- 如果无法从 markdown 判断 bellScheduleData，请输出空数组 []（后端会自动填默认作息表）" +
                 "\n- 如果信息缺失，用空字符串或合理默认值补齐，但必须保证 JSON 可解析" +
-                "\n\nmarkdown 文本如下：\n<<<OCR_MARKDOWN_TEXT>>>\n" + markdownText;
-
-        // Use structured output (json_object) with a supported model.
-        String raw = ai.chatStructuredJsonObject(system, user, 0.1, 8192);
-        return normalizeToNdjson(raw);
+                (compacted ? "\n- 表格已压缩：每行为“行标签: 列名=单元格; 列名=单元格”，空单元格已省略，单元格内换行写作 \" / \"，" +
+                        "(跨N行)/(跨N列) 表示该单元格纵向/横向合并了 N 行/列（如第1节行的单元格(跨2行) => startNode=1, step=2）" : "") +
+                (partial ? "\n- 这里只给出了部分星期的列（见“列:”行），只抽取这些列里的课程，课程列表只列出这些课程" : "") +
+                "\n\nmarkdown 文本如下：\n<<<OCR_MARKDOWN_TEXT>>>\n" + prompt.text();
     }
 
     private String normalizeToNdjson(String raw) {
-        ArrayNode bell = null;
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        addExtraction(raw, builder);
+        return builder.build();
+    }
+
+    /** Add the courseDefs / scheduleRules of one raw model output to {@code builder}. */
+    private void addExtraction(String raw, TimetableNdjsonBuilder builder) {
         ArrayNode courseDefs = null;
         ArrayNode rules = null;
 
-        // 0) Prefer parsing as a JSON object: { bellScheduleData:[], courseDefs:[], scheduleRules:[] }
-        JsonNode obj = tryParseFirstJsonObject(raw);
+        // 0) Prefer parsing as a JSON object: { bellScheduleData:[], courseDefs:[], scheduleRules:[] }.
+        // An answer cut off at max_tokens keeps its complete courses / rules.
+        JsonNode obj = LenientJsonReader.firstObject(raw, true);
+        if (CompactExtraction.isCompact(obj)) {
+            CompactExtraction.addTo(obj, builder, om);
+            return;
+        }
         if (obj != null && obj.isObject()) {
-            JsonNode b = obj.get("bellScheduleData");
             JsonNode c = obj.get("courseDefs");
             JsonNode r = obj.get("scheduleRules");
-            if (b != null && b.isArray()) bell = (ArrayNode) b;
             if (c != null && c.isArray()) courseDefs = (ArrayNode) c;
             if (r != null && r.isArray()) rules = (ArrayNode) r;
         }
 
         // 1) Back-compat: if model returned NDJSON or loose arrays, extract arrays.
-        if (bell == null && courseDefs == null && rules == null) {
-            List<String> arrays = JsonArrayExtractor.extractArrays(raw, 5);
-            for (String a : arrays) {
-                try {
-                    JsonNode node = om.readTree(a);
-                    if (!node.isArray()) continue;
-                    ArrayNode arr = (ArrayNode) node;
-                    if (arr.isEmpty()) continue;
-                    JsonNode first = arr.get(0);
-                    if (first.has("node") && first.has("startTime") && first.has("endTime")) {
-                        bell = arr;
-                    } else if (first.has("courseName")) {
-                        courseDefs = arr;
-                    } else if (first.has("day") && first.has("startNode") && first.has("tableId")) {
-                        rules = arr;
-                    }
-                } catch (Exception ignored) {
+        if (courseDefs == null && rules == null) {
+            for (ArrayNode arr : LenientJsonReader.arrays(raw, 5, false)) {
+                if (arr.isEmpty()) continue;
+                JsonNode first = arr.get(0);
+                if (first.has("courseName")) {
+                    courseDefs = arr;
+                } else if (first.has("day") && first.has("startNode") && first.has("tableId")) {
+                    rules = arr;
                 }
             }
         }
 
-        // 2) bellSchedule: ALWAYS use the exact default schedule from the user's sample file.
-        // Why: LLMs often hallucinate a bellScheduleData even when the screenshot doesn't contain it,
-        // which causes small mismatches (e.g., 节次11/12). For "export" compatibility we keep it fixed.
-        bell = BellScheduleDefaults.buildDefault(om);
-
-        final int tableId = 3;
-        final int timeTable = 1;
-
-        if (courseDefs == null) courseDefs = om.createArrayNode();
-        if (rules == null) rules = om.createArrayNode();
-
-        // 3) Normalize courseDefs: remap id from 0..N, tableId=tableId, fill pastel colors (by id order)
-        Map<Integer, Integer> idRemap = new HashMap<>();
-        ArrayNode normalizedCourseDefs = om.createArrayNode();
-        int nextId = 0;
-        for (JsonNode n : courseDefs) {
-            if (!(n instanceof ObjectNode o)) continue;
-            int oldId = o.path("id").isInt() ? o.path("id").asInt() : nextId;
-            int newId = nextId++;
-            idRemap.put(oldId, newId);
-
-            ObjectNode c = om.createObjectNode();
-            c.put("id", newId);
-            String rawName = o.path("courseName").asText("");
-            String name = normalizeText(rawName);
-            if (name.startsWith("本")) name = name.substring(1);
-            c.put("courseName", name);
-            c.put("color", PastelPalette.pickByIndex(newId));
-            c.put("tableId", tableId);
-            c.put("credit", 0.0);
-            c.put("note", "");
-            normalizedCourseDefs.add(c);
+        // 2) Normalize ids / ranges.
+        if (courseDefs != null) {
+            for (JsonNode n : courseDefs) builder.addCourse(n);
         }
-
-        // 4) Normalize scheduleRules: remap id, clamp ranges, dedupe
-        ArrayNode normalizedRules = om.createArrayNode();
-        Set<String> seen = new HashSet<>();
-        for (JsonNode n : rules) {
-            if (!(n instanceof ObjectNode o)) continue;
-            int oldId = o.path("id").isInt() ? o.path("id").asInt() : -1;
-            Integer newId = idRemap.get(oldId);
-            if (newId == null) {
-                continue;
-            }
-
-            ObjectNode r = om.createObjectNode();
-            r.put("id", newId);
-            r.put("day", clampInt(o.path("day").asInt(1), 1, 7));
-            r.put("startNode", Math.max(1, o.path("startNode").asInt(1)));
-            r.put("step", Math.max(1, o.path("step").asInt(2)));
-            r.put("startWeek", Math.max(1, o.path("startWeek").asInt(1)));
-            r.put("endWeek", Math.max(r.get("startWeek").asInt(), o.path("endWeek").asInt(r.get("startWeek").asInt())));
-            r.put("type", clampInt(o.path("type").asInt(0), 0, 2));
-            String room = normalizeText(o.path("room").asText(""));
-            String teacher = normalizeText(o.path("teacher").asText(""));
-            r.put("room", room);
-            r.put("teacher", teacher);
-            r.put("tableId", tableId);
-            r.put("ownTime", false);
-            r.put("level", 0);
-            r.put("startTime", "");
-            r.put("endTime", "");
-
-            String key = newId + "|" + r.get("day").asInt() + "|" + r.get("startNode").asInt() + "|" + r.get("step").asInt() +
-                    "|" + r.get("startWeek").asInt() + "|" + r.get("endWeek").asInt() + "|" + r.get("type").asInt() +
-                    "|" + room + "|" + teacher;
-            if (seen.add(key)) {
-                normalizedRules.add(r);
-            }
-        }
-
-        // 5) Assemble NDJSON (5 lines)
-        try {
-            ObjectNode meta = ImportFormatDefaults.buildMeta(om);
-            ObjectNode tableCfg = ImportFormatDefaults.buildTableConfig(
-                    om,
-                    tableId,
-                    "25秋",
-                    "2025-9-1",
-                    20,
-                    20,
-                    timeTable
-            );
-
-            return om.writeValueAsString(meta) + "\n" +
-                    om.writeValueAsString(bell) + "\n" +
-                    om.writeValueAsString(tableCfg) + "\n" +
-                    om.writeValueAsString(normalizedCourseDefs) + "\n" +
-                    om.writeValueAsString(normalizedRules);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("NDJSON 序列化失败", e);
+        if (rules != null) {
+            for (JsonNode n : rules) builder.addRule(n);
         }
     }
-
-    /**
-     * Normalize OCR/LLM strings to be closer to the sample file:
-     * - trim
-     * - convert half-width parentheses to full-width
-     * - collapse repeated whitespace
-     */
-    private String normalizeText(String s) {
-        if (s == null) return "";
-        String t = s.trim();
-        t = t.replace('(', '（').replace(')', '）');
-        // collapse whitespace
-        t = t.replaceAll("\\s+", " ").trim();
-        return t;
-    }
-
-    private JsonNode tryParseFirstJsonObject(String raw) {
-        if (raw == null) return null;
-        String s = raw.trim();
-        if (s.isEmpty()) return null;
-
-        // Fast path: already starts with '{'
-        int start = s.indexOf('{');
-        int end = s.lastIndexOf('}');
-        if (start < 0 || end <= start) return null;
-
-        String candidate = s.substring(start, end + 1);
-        try {
-            return om.readTree(candidate);
-        } catch (Exception ignored) {
-            return null;
-        }
-    }
-
-    private int clampInt(int v, int min, int max) {
-        return Math.max(min, Math.min(max, v));
-    }
 }
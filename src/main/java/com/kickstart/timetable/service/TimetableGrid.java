@@ -0,0 +1,230 @@
+package com.kickstart.timetable.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A table found in PaddleOCR markdown, with rowspan/colspan expanded into a rectangular grid.
+ *
+ * PaddleOCR emits tables either as HTML ({@code <table><tr><td rowspan=2>...}) or as markdown pipe tables.
+ * Every grid position points at the {@link Cell} that covers it, so a cell spanning three rows is the same
+ * object at all three positions. Cell text keeps line breaks ({@code <br>} becomes '\n') and is otherwise
+ * plain text.
+ */
+final class TimetableGrid {
+
+    private static final int MAX_SPAN = 32;
+
+    private static final Pattern HTML_TABLE = Pattern.compile("<table[^>]*>(.*?)</table>",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern HTML_ROW = Pattern.compile("<tr[^>]*>(.*?)</tr>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern HTML_CELL = Pattern.compile("<t([dh])([^>]*)>(.*?)</t\\1>",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern SPAN_ATTR = Pattern.compile("(rowspan|colspan)\\s*=\\s*[\"']?(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BR = Pattern.compile("<br\\s*/?>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TAG = Pattern.compile("<[^>]+>");
+    private static final Pattern PIPE_ROW = Pattern.compile("^\\s*\\|.*\\|\\s*$");
+    private static final Pattern PIPE_SEPARATOR = Pattern.compile("^\\s*\\|?(\\s*:?-{3,}:?\\s*\\|)+\\s*(:?-{3,}:?\\s*)?$");
+    private static final Pattern HTML_WRAPPER = Pattern.compile("</?(html|body)[^>]*>", Pattern.CASE_INSENSITIVE);
+
+    /** One source cell; {@code row}/{@code col} are its top-left grid position. */
+    static final class Cell {
+        final String text;
+        int row;
+        int col;
+        int rowSpan;
+        int colSpan;
+
+        Cell(String text, int rowSpan, int colSpan) {
+            this.text = text;
+            this.rowSpan = rowSpan;
+            this.colSpan = colSpan;
+        }
+    }
+
+    private final Cell[][] cells;
+    private final int cols;
+
+    private TimetableGrid(Cell[][] cells, int cols) {
+        this.cells = cells;
+        this.cols = cols;
+    }
+
+    int rows() {
+        return cells.length;
+    }
+
+    int cols() {
+        return cols;
+    }
+
+    /** The cell covering (row, col), or null for a hole in a ragged table. */
+    Cell cell(int row, int col) {
+        Cell[] r = cells[row];
+        return col < r.length ? r[col] : null;
+    }
+
+    String text(int row, int col) {
+        Cell c = cell(row, col);
+        return c == null ? "" : c.text;
+    }
+
+    /**
+     * Merge vertically adjacent 1x1 cells with identical non-blank text in {@code col} into one spanning cell.
+     * Markdown tables can't express rowspan, so a two-period course shows up as the same text in two rows.
+     */
+    void mergeRepeatedRows(int col) {
+        for (int r = 1; r < cells.length; r++) {
+            Cell up = cell(r - 1, col);
+            Cell cur = cell(r, col);
+            if (up == null || cur == null || up == cur || cur.text.isBlank()) continue;
+            if (cur.rowSpan == 1 && cur.colSpan == 1 && up.colSpan == 1 && up.row + up.rowSpan == r
+                    && cur.text.equals(up.text)) {
+                up.rowSpan++;
+                cells[r][col] = up;
+            }
+        }
+    }
+
+    /** All tables in the markdown, HTML tables first, then pipe tables, in document order within each kind. */
+    static List<TimetableGrid> fromMarkdown(String markdown) {
+        List<TimetableGrid> out = new ArrayList<>();
+        if (markdown == null || markdown.isEmpty()) return out;
+
+        Matcher table = HTML_TABLE.matcher(markdown);
+        while (table.find()) {
+            List<List<Cell>> rows = new ArrayList<>();
+            Matcher row = HTML_ROW.matcher(table.group(1));
+            while (row.find()) {
+                List<Cell> cellsInRow = new ArrayList<>();
+                Matcher cell = HTML_CELL.matcher(row.group(1));
+                while (cell.find()) {
+                    int rowSpan = 1;
+                    int colSpan = 1;
+                    Matcher attr = SPAN_ATTR.matcher(cell.group(2));
+                    while (attr.find()) {
+                        int v = clampSpan(attr.group(2));
+                        if (attr.group(1).equalsIgnoreCase("rowspan")) rowSpan = v;
+                        else colSpan = v;
+                    }
+                    cellsInRow.add(new Cell(htmlToText(cell.group(3)), rowSpan, colSpan));
+                }
+                rows.add(cellsInRow);
+            }
+            if (!rows.isEmpty()) out.add(expand(rows));
+        }
+
+        List<List<Cell>> pipeRows = new ArrayList<>();
+        for (String line : stripHtmlTables(markdown).split("\n")) {
+            if (PIPE_ROW.matcher(line).matches()) {
+                if (!PIPE_SEPARATOR.matcher(line).matches()) pipeRows.add(splitPipeRow(line));
+            } else if (!pipeRows.isEmpty()) {
+                out.add(expand(pipeRows));
+                pipeRows = new ArrayList<>();
+            }
+        }
+        if (!pipeRows.isEmpty()) out.add(expand(pipeRows));
+        return out;
+    }
+
+    /** The markdown with every table removed (what's left is headings, captions and loose text). */
+    static String stripTables(String markdown) {
+        if (markdown == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for (String line : stripHtmlTables(markdown).split("\n")) {
+            if (!PIPE_ROW.matcher(line).matches()) sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String stripHtmlTables(String markdown) {
+        return HTML_WRAPPER.matcher(HTML_TABLE.matcher(markdown).replaceAll("\n")).replaceAll("");
+    }
+
+    private static TimetableGrid expand(List<List<Cell>> rows) {
+        List<List<Cell>> occ = new ArrayList<>();
+        int width = 0;
+        for (int r = 0; r < rows.size(); r++) {
+            int c = 0;
+            for (Cell cell : rows.get(r)) {
+                while (get(occ, r, c) != null) c++;
+                cell.row = r;
+                cell.col = c;
+                for (int dr = 0; dr < cell.rowSpan; dr++) {
+                    for (int dc = 0; dc < cell.colSpan; dc++) {
+                        set(occ, r + dr, c + dc, cell);
+                    }
+                }
+                c += cell.colSpan;
+                width = Math.max(width, c);
+            }
+        }
+        // Rows created only by a trailing rowspan are kept; rows the source never had are dropped.
+        int height = Math.min(occ.size(), rows.size() + MAX_SPAN);
+        Cell[][] grid = new Cell[height][];
+        for (int r = 0; r < height; r++) {
+            grid[r] = occ.get(r).toArray(new Cell[0]);
+        }
+        return new TimetableGrid(grid, width);
+    }
+
+    private static Cell get(List<List<Cell>> occ, int r, int c) {
+        if (r >= occ.size()) return null;
+        List<Cell> row = occ.get(r);
+        return c < row.size() ? row.get(c) : null;
+    }
+
+    private static void set(List<List<Cell>> occ, int r, int c, Cell cell) {
+        while (occ.size() <= r) occ.add(new ArrayList<>());
+        List<Cell> row = occ.get(r);
+        while (row.size() <= c) row.add(null);
+        row.set(c, cell);
+    }
+
+    private static List<Cell> splitPipeRow(String line) {
+        String s = line.trim();
+        s = s.substring(1, s.length() - 1);
+        List<Cell> cells = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '\\' && i + 1 < s.length() && s.charAt(i + 1) == '|') {
+                cur.append('|');
+                i++;
+            } else if (ch == '|') {
+                cells.add(new Cell(htmlToText(cur.toString()), 1, 1));
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        cells.add(new Cell(htmlToText(cur.toString()), 1, 1));
+        return cells;
+    }
+
+    private static String htmlToText(String html) {
+        String s = BR.matcher(html).replaceAll("\n");
+        s = TAG.matcher(s).replaceAll("");
+        s = s.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&#39;", "'").replace("&amp;", "&");
+        StringBuilder sb = new StringBuilder();
+        for (String line : s.split("\n")) {
+            String t = line.strip();
+            if (!t.isEmpty()) {
+                if (!sb.isEmpty()) sb.append('\n');
+                sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int clampSpan(String v) {
+        try {
+            return Math.max(1, Math.min(MAX_SPAN, Integer.parseInt(v)));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+}
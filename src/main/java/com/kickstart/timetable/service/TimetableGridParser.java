@@ -0,0 +1,490 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic extraction of courseDefs / scheduleRules from the timetable tables in PaddleOCR markdown.
+ *
+ * Columns are mapped to weekdays from a header row (星期一 / 周一 / Mon ...), rows to nodes from the row labels
+ * (第1节 / 1-2 / 第一节). Each cell is split into course entries around its week specs ("1-18周(单)"), with
+ * name, node range, room and teacher picked out by precompiled patterns. Explicit node ranges in a cell win
+ * over the row labels.
+ *
+ * {@link Result#confidence()} is the share of non-empty timetable cells that were fully explained; callers
+ * fall back to the LLM when it is low (unknown tokens, missing names, no table, course text outside tables).
+ */
+final class TimetableGridParser {
+
+    private static final String RANGE = "\\s*[-~–—至]\\s*";
+    private static final Pattern WEEKS = Pattern.compile(
+            "(?:第\\s*)?(\\d{1,2}(?:" + RANGE + "\\d{1,2})?(?:\\s*[,，、]\\s*\\d{1,2}(?:" + RANGE + "\\d{1,2})?)*)\\s*" +
+                    "(?:周\\s*\\|?\\s*(?:[(（]\\s*([单双])周?\\s*[)）]|([单双])周?)?" +
+                    "|[(（]\\s*([单双])周?\\s*[)）]\\s*周" +
+                    "|([单双])周)");
+    private static final Pattern NODES = Pattern.compile("(?:第\\s*)?(\\d{1,2}(?:\\s*[-~–—至,，、]\\s*\\d{1,2})*)\\s*节");
+    private static final Pattern NUMBER = Pattern.compile("\\d{1,2}");
+    private static final Pattern RANGE_PART = Pattern.compile("(\\d{1,2})(?:" + RANGE + "(\\d{1,2}))?");
+    private static final Pattern CLOCK = Pattern.compile("\\d{1,2}\\s*[:：]\\s*\\d{2}");
+    private static final Pattern CHINESE_NUMBER = Pattern.compile("[一二三四五六七八九十]+");
+    private static final Pattern DAY_HEADER = Pattern.compile("(?:星期|周|礼拜)?([一二三四五六日天1-7])");
+    private static final Pattern TEACHER_LABEL = Pattern.compile("^(?:任课)?(?:教师|老师)\\s*[:：]\\s*(.+)$");
+    private static final Pattern ROOM_LABEL = Pattern.compile("^(?:上课)?(?:地点|教室|场地)\\s*[:：]\\s*(.+)$");
+    private static final Pattern NAME_LABEL = Pattern.compile("^(?:课程(?:名称)?)\\s*[:：]\\s*(.+)$");
+    private static final Pattern FIELD_LABEL = Pattern.compile("^(?:周次|周数|节次|时间|上课时间)\\s*[:：]\\s*$");
+    private static final Pattern TEACHER = Pattern.compile("^[\\p{IsHan}·]{2,5}(?:[,，、/][\\p{IsHan}·]{2,5})*$|^[A-Za-z][A-Za-z .'-]{1,30}$");
+    private static final Pattern ROOM = Pattern.compile(".*\\d.*|.*(?:室|楼|馆|场|厅|中心|机房)$|^(?:线上|网课|网络教学|待定)$");
+    private static final String TRIM_CHARS = "{}|◆◇★☆●○■□▲/,，;；";
+
+    private static final Map<String, Integer> ENGLISH_DAYS = Map.ofEntries(
+            Map.entry("mon", 1), Map.entry("monday", 1), Map.entry("tue", 2), Map.entry("tuesday", 2),
+            Map.entry("wed", 3), Map.entry("wednesday", 3), Map.entry("thu", 4), Map.entry("thursday", 4),
+            Map.entry("fri", 5), Map.entry("friday", 5), Map.entry("sat", 6), Map.entry("saturday", 6),
+            Map.entry("sun", 7), Map.entry("sunday", 7));
+
+    /** Course definitions and rules in the shape {@link TimetableNdjsonBuilder} expects. */
+    record Result(List<ObjectNode> courses, List<ObjectNode> rules, double confidence, int cells, int parsedCells) {
+        static final Result EMPTY = new Result(List.of(), List.of(), 0, 0, 0);
+    }
+
+    private final ObjectMapper om;
+
+    TimetableGridParser(ObjectMapper om) {
+        this.om = om;
+    }
+
+    Result parse(String markdown) {
+        return parse(markdown, TimetableGrid.fromMarkdown(markdown));
+    }
+
+    Result parse(String markdown, List<TimetableGrid> grids) {
+        Map<String, Integer> courseIds = new LinkedHashMap<>();
+        List<ObjectNode> rules = new ArrayList<>();
+        int cells = 0;
+        int parsed = 0;
+        boolean sawTimetable = false;
+        for (TimetableGrid grid : grids) {
+            int[] stats = parseGrid(grid, courseIds, rules);
+            if (stats != null) {
+                sawTimetable = true;
+                cells += stats[0];
+                parsed += stats[1];
+            }
+        }
+        if (!sawTimetable || cells == 0 || rules.isEmpty()) {
+            return Result.EMPTY;
+        }
+        double confidence = (double) parsed / cells;
+        // Week specs outside any table (e.g. a "其他课程" paragraph) would be silently dropped here.
+        if (WEEKS.matcher(TimetableGrid.stripTables(markdown)).find()) {
+            confidence = Math.min(confidence, 0.5);
+        }
+
+        List<ObjectNode> courses = new ArrayList<>();
+        courseIds.forEach((name, id) -> {
+            ObjectNode c = om.createObjectNode();
+            c.put("id", id);
+            c.put("courseName", name);
+            courses.add(c);
+        });
+        return new Result(courses, rules, confidence, cells, parsed);
+    }
+
+    /** @return {non-empty cells, fully parsed cells}, or null if the grid has no weekday header */
+    private int[] parseGrid(TimetableGrid grid, Map<String, Integer> courseIds, List<ObjectNode> rules) {
+        int headerRow = headerRow(grid);
+        if (headerRow < 0) return null;
+        int[] dayOfColumn = daysOfColumns(grid, headerRow);
+
+        for (int c = 0; c < grid.cols(); c++) {
+            if (dayOfColumn[c] > 0) grid.mergeRepeatedRows(c);
+        }
+
+        int[][] rowNodes = new int[grid.rows()][];
+        for (int r = headerRow + 1; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols() && rowNodes[r] == null; c++) {
+                if (dayOfColumn[c] == 0) rowNodes[r] = labelNodes(grid.text(r, c));
+            }
+        }
+
+        int cells = 0;
+        int parsed = 0;
+        Set<TimetableGrid.Cell> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int r = headerRow + 1; r < grid.rows(); r++) {
+            for (int c = 0; c < grid.cols(); c++) {
+                TimetableGrid.Cell cell = grid.cell(r, c);
+                if (dayOfColumn[c] == 0 || cell == null || cell.row <= headerRow || !seen.add(cell)) continue;
+                if (cell.text.isBlank()) continue;
+
+                List<Integer> days = new ArrayList<>();
+                for (int dc = cell.col; dc < Math.min(grid.cols(), cell.col + cell.colSpan); dc++) {
+                    if (dayOfColumn[dc] > 0) days.add(dayOfColumn[dc]);
+                }
+                List<Entry> entries = new ArrayList<>();
+                boolean clean = parseCell(cell.text, entries);
+                if (entries.isEmpty() && days.size() >= 3) {
+                    continue; // 午休 / 晚饭 style separator row spanning the week
+                }
+                cells++;
+
+                int[] fallback = spanNodes(rowNodes, cell);
+                for (Entry e : entries) {
+                    int start = e.nodeStart > 0 ? e.nodeStart : fallback == null ? 0 : fallback[0];
+                    int end = e.nodeStart > 0 ? e.nodeEnd : fallback == null ? 0 : fallback[1];
+                    if (start <= 0 || end < start || e.name == null) {
+                        clean = false;
+                        continue;
+                    }
+                    int id = courseIds.computeIfAbsent(e.name, k -> courseIds.size());
+                    for (int day : days) {
+                        for (int[] w : e.weeks) {
+                            ObjectNode rule = om.createObjectNode();
+                            rule.put("id", id);
+                            rule.put("day", day);
+                            rule.put("startNode", start);
+                            rule.put("step", end - start + 1);
+                            rule.put("startWeek", w[0]);
+                            rule.put("endWeek", w[1]);
+                            rule.put("type", w[2]);
+                            rule.put("room", e.room == null ? "" : e.room);
+                            rule.put("teacher", e.teacher == null ? "" : e.teacher);
+                            rules.add(rule);
+                        }
+                    }
+                }
+                if (clean && !entries.isEmpty()) parsed++;
+            }
+        }
+        return new int[]{cells, parsed};
+    }
+
+    /** Node range covered by the rows of a (possibly row-spanning) cell, from the row labels. */
+    private static int[] spanNodes(int[][] rowNodes, TimetableGrid.Cell cell) {
+        int last = Math.min(rowNodes.length, cell.row + cell.rowSpan) - 1;
+        int[] first = rowNodes[cell.row];
+        int[] end = rowNodes[last];
+        if (first == null || end == null || end[1] < first[0]) return null;
+        return new int[]{first[0], end[1]};
+    }
+
+    /**
+     * Split a cell into course entries. The entry boundary is the week spec: the text token right before it is
+     * the course name, and everything up to the next entry's name is that entry's nodes / room / teacher.
+     *
+     * @return false if some token could not be classified
+     */
+    private static boolean parseCell(String text, List<Entry> out) {
+        List<Token> tokens = tokenize(text);
+        List<Integer> weekAt = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.get(i).kind == Kind.WEEKS) weekAt.add(i);
+        }
+        if (weekAt.isEmpty()) return false;
+
+        boolean clean = true;
+        int[] nameAt = new int[weekAt.size()];
+        int prev = -1;
+        for (int k = 0; k < weekAt.size(); k++) {
+            nameAt[k] = -1;
+            for (int i = weekAt.get(k) - 1; i > prev; i--) {
+                if (tokens.get(i).kind == Kind.TEXT) {
+                    nameAt[k] = i;
+                    break;
+                }
+            }
+            prev = weekAt.get(k);
+        }
+
+        for (int k = 0; k < weekAt.size(); k++) {
+            Entry e = new Entry();
+            Token week = tokens.get(weekAt.get(k));
+            e.weeks = week.weeks;
+            if (nameAt[k] >= 0) e.name = cleanName(tokens.get(nameAt[k]).text);
+            int from = (nameAt[k] >= 0 ? nameAt[k] : weekAt.get(k)) + 1;
+            if (k == 0) {
+                // Anything before the first course name is unexplained.
+                for (int i = 0; i < from - 1; i++) {
+                    if (tokens.get(i).kind == Kind.TEXT) clean = false;
+                }
+            }
+            int to = k + 1 < weekAt.size() ? (nameAt[k + 1] >= 0 ? nameAt[k + 1] : weekAt.get(k + 1)) : tokens.size();
+            for (int i = from; i < to; i++) {
+                if (i == weekAt.get(k)) continue;
+                clean &= classify(tokens.get(i), e);
+            }
+            if (e.name == null || e.name.isEmpty()) {
+                e.name = null;
+                clean = false;
+            }
+            out.add(e);
+        }
+        return clean;
+    }
+
+    private static boolean classify(Token t, Entry e) {
+        if (t.kind == Kind.NODES) {
+            if (e.nodeStart == 0) {
+                e.nodeStart = t.nodeStart;
+                e.nodeEnd = t.nodeEnd;
+            }
+            return true;
+        }
+        for (String word : t.words()) {
+            Matcher m;
+            if ((m = TEACHER_LABEL.matcher(word)).matches()) {
+                e.teacher = join(e.teacher, m.group(1).strip());
+            } else if ((m = ROOM_LABEL.matcher(word)).matches()) {
+                e.room = e.room == null ? m.group(1).strip() : e.room;
+            } else if (FIELD_LABEL.matcher(word).matches()) {
+                // Label whose value was carved out as a week/node token.
+            } else if (e.room == null && ROOM.matcher(word).matches()) {
+                e.room = word;
+            } else if (TEACHER.matcher(word).matches()) {
+                e.teacher = join(e.teacher, word);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String join(String a, String b) {
+        return a == null ? b : a + "," + b;
+    }
+
+    private static String cleanName(String text) {
+        Matcher m = NAME_LABEL.matcher(text);
+        return trim(m.matches() ? m.group(1) : text);
+    }
+
+    private static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        for (String raw : text.split("\n")) {
+            String line = raw.strip();
+            if (line.isEmpty()) continue;
+
+            List<Token> carved = new ArrayList<>();
+            Matcher w = WEEKS.matcher(line);
+            while (w.find()) carved.add(Token.weeks(w));
+            Matcher n = NODES.matcher(line);
+            while (n.find()) {
+                if (carved.stream().noneMatch(t -> t.start < n.end() && n.start() < t.end)) carved.add(Token.nodes(n));
+            }
+            if (carved.isEmpty()) {
+                addText(tokens, line, false);
+                continue;
+            }
+            carved.sort((a, b) -> Integer.compare(a.start, b.start));
+            int pos = 0;
+            for (Token t : carved) {
+                splitWords(tokens, line.substring(pos, t.start));
+                tokens.add(t);
+                pos = t.end;
+            }
+            splitWords(tokens, line.substring(pos));
+        }
+        return tokens;
+    }
+
+    private static void splitWords(List<Token> tokens, String s) {
+        for (String word : s.strip().split("\\s+")) {
+            addText(tokens, word, true);
+        }
+    }
+
+    private static void addText(List<Token> tokens, String s, boolean word) {
+        String t = trim(s);
+        if (!t.isEmpty()) tokens.add(Token.text(t, word));
+    }
+
+    private static String trim(String s) {
+        int b = 0;
+        int e = s.length();
+        while (b < e && (Character.isWhitespace(s.charAt(b)) || TRIM_CHARS.indexOf(s.charAt(b)) >= 0)) b++;
+        while (e > b && (Character.isWhitespace(s.charAt(e - 1)) || TRIM_CHARS.indexOf(s.charAt(e - 1)) >= 0)) e--;
+        String t = s.substring(b, e);
+        if (t.length() > 2 && (t.startsWith("(") && t.endsWith(")") || t.startsWith("（") && t.endsWith("）"))) {
+            t = t.substring(1, t.length() - 1).strip();
+        }
+        return t;
+    }
+
+    /** Number of week specs ("1-16周", "3-9周(单)" ...) in {@code text}; about one schedule rule each. */
+    static int countWeekSpecs(CharSequence text) {
+        int n = 0;
+        Matcher m = WEEKS.matcher(text);
+        while (m.find()) n++;
+        return n;
+    }
+
+    /** First of the top rows naming at least three weekdays, or -1 if the table isn't a weekly timetable. */
+    static int headerRow(TimetableGrid grid) {
+        for (int r = 0; r < Math.min(grid.rows(), 5); r++) {
+            int found = 0;
+            for (int c = 0; c < grid.cols(); c++) {
+                if (dayOf(grid.text(r, c)) > 0) found++;
+            }
+            if (found >= 3) return r;
+        }
+        return -1;
+    }
+
+    /** Weekday per column of the header row (0 for label columns). */
+    static int[] daysOfColumns(TimetableGrid grid, int headerRow) {
+        int[] days = new int[grid.cols()];
+        for (int c = 0; c < grid.cols(); c++) {
+            days[c] = dayOf(grid.text(headerRow, c));
+        }
+        return days;
+    }
+
+    /** Weekday 1..7 for a header cell, or 0. */
+    static int dayOf(String header) {
+        String s = header.replaceAll("\\s+", "");
+        if (s.isEmpty()) return 0;
+        Integer en = ENGLISH_DAYS.get(s.toLowerCase(Locale.ROOT).replace(".", ""));
+        if (en != null) return en;
+        Matcher m = DAY_HEADER.matcher(s);
+        if (!m.matches() || (s.length() == 1 && Character.isDigit(s.charAt(0)))) return 0;
+        return switch (m.group(1)) {
+            case "一", "1" -> 1;
+            case "二", "2" -> 2;
+            case "三", "3" -> 3;
+            case "四", "4" -> 4;
+            case "五", "5" -> 5;
+            case "六", "6" -> 6;
+            default -> 7;
+        };
+    }
+
+    /** Node range from a row label such as "第1节", "1-2", "第三节 10:00-10:45"; null if none. */
+    static int[] labelNodes(String label) {
+        if (label == null || label.isBlank() || label.contains("大节")) return null;
+        String s = CLOCK.matcher(label).replaceAll(" ");
+        s = chineseToDigits(s);
+        Matcher m = RANGE_PART.matcher(s);
+        if (!m.find()) return null;
+        int start = Integer.parseInt(m.group(1));
+        int end = m.group(2) == null ? start : Integer.parseInt(m.group(2));
+        return start >= 1 && end >= start && end <= 20 ? new int[]{start, end} : null;
+    }
+
+    private static String chineseToDigits(String s) {
+        Matcher m = CHINESE_NUMBER.matcher(s);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, Integer.toString(chineseValue(m.group())));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static int chineseValue(String run) {
+        String digits = "零一二三四五六七八九";
+        int ten = run.indexOf('十');
+        if (ten < 0) {
+            return digits.indexOf(run.charAt(run.length() - 1));
+        }
+        int tens = ten == 0 ? 1 : Math.max(1, digits.indexOf(run.charAt(ten - 1)));
+        int ones = ten == run.length() - 1 ? 0 : Math.max(0, digits.indexOf(run.charAt(ten + 1)));
+        return tens * 10 + ones;
+    }
+
+    /** Week ranges as {start, end, type}; a list of single odd/even weeks collapses into one typed range. */
+    private static List<int[]> weekRanges(String spec, int type) {
+        List<int[]> ranges = new ArrayList<>();
+        Matcher m = RANGE_PART.matcher(spec);
+        while (m.find()) {
+            int a = Integer.parseInt(m.group(1));
+            int b = m.group(2) == null ? a : Integer.parseInt(m.group(2));
+            ranges.add(new int[]{Math.max(1, Math.min(a, b)), Math.max(a, b), type});
+        }
+        if (ranges.size() >= 3 && type == 0 && ranges.stream().allMatch(r -> r[0] == r[1])) {
+            boolean stepTwo = true;
+            for (int i = 1; i < ranges.size(); i++) {
+                stepTwo &= ranges.get(i)[0] - ranges.get(i - 1)[0] == 2;
+            }
+            if (stepTwo) {
+                int first = ranges.get(0)[0];
+                return List.of(new int[]{first, ranges.get(ranges.size() - 1)[0], first % 2 == 1 ? 1 : 2});
+            }
+        }
+        return ranges;
+    }
+
+    static final class Entry {
+        String name;
+        List<int[]> weeks = List.of();
+        int nodeStart;
+        int nodeEnd;
+        String room;
+        String teacher;
+    }
+
+    private enum Kind { TEXT, WEEKS, NODES }
+
+    private static final class Token {
+        final Kind kind;
+        final String text;
+        final boolean word;
+        int start;
+        int end;
+        List<int[]> weeks;
+        int nodeStart;
+        int nodeEnd;
+
+        private Token(Kind kind, String text, boolean word) {
+            this.kind = kind;
+            this.text = text;
+            this.word = word;
+        }
+
+        static Token text(String text, boolean word) {
+            return new Token(Kind.TEXT, text, word);
+        }
+
+        static Token weeks(Matcher m) {
+            Token t = new Token(Kind.WEEKS, m.group(), true);
+            String parity = m.group(2) != null ? m.group(2) : m.group(3) != null ? m.group(3)
+                    : m.group(4) != null ? m.group(4) : m.group(5);
+            int type = parity == null ? 0 : parity.equals("单") ? 1 : 2;
+            t.weeks = weekRanges(m.group(1), type);
+            t.start = m.start();
+            t.end = m.end();
+            return t;
+        }
+
+        static Token nodes(Matcher m) {
+            Token t = new Token(Kind.NODES, m.group(), true);
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            Matcher n = NUMBER.matcher(m.group(1));
+            while (n.find()) {
+                int v = Integer.parseInt(n.group());
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            t.nodeStart = min;
+            t.nodeEnd = max;
+            t.start = m.start();
+            t.end = m.end();
+            return t;
+        }
+
+        /** A whole line without week/node specs may hold several fields ("A101 张三"). */
+        List<String> words() {
+            return word ? List.of(text) : List.of(text.split("\\s+"));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kickstart.timetable.util.BellScheduleDefaults;
+import com.kickstart.timetable.util.ImportFormatDefaults;
+import com.kickstart.timetable.util.PastelPalette;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Normalizes LLM-extracted courseDefs / scheduleRules into the 5-line NDJSON import format.
+ *
+ * Elements can be added one at a time (as they stream in) or all at once; each add returns the
+ * normalized node so callers can forward it immediately. Rules that reference a course id not seen
+ * yet are held back and resolved by {@link #resolveDeferred()} once more courses have arrived.
+ *
+ * Courses are deduplicated by normalized name. Partial results of several extraction calls, each numbering
+ * its courses from 0, are merged by calling {@link #newIdScope()} before adding the next part.
+ */
+final class TimetableNdjsonBuilder {
+
+    static final int TABLE_ID = 3;
+    static final int TIME_TABLE = 1;
+
+    private final ObjectMapper om;
+    private final Map<Integer, Integer> idRemap = new HashMap<>();
+    private final Map<String, Integer> idByName = new HashMap<>();
+    private final ArrayNode courseDefs;
+    private final ArrayNode rules;
+    private final Set<String> seenRules = new HashSet<>();
+    private final List<JsonNode> deferred = new ArrayList<>();
+    private int nextId;
+
+    TimetableNdjsonBuilder(ObjectMapper om) {
+        this.om = om;
+        this.courseDefs = om.createArrayNode();
+        this.rules = om.createArrayNode();
+    }
+
+    /**
+     * Remap id to 0..N, fix tableId and fill pastel colors (by id order). Returns null when a course with
+     * the same name already exists; its id is then reused for this course's rules.
+     */
+    ObjectNode addCourse(JsonNode n) {
+        if (!(n instanceof ObjectNode o)) return null;
+        int oldId = o.path("id").isInt() ? o.path("id").asInt() : nextId;
+        String rawName = o.path("courseName").asText("");
+        String name = normalizeText(rawName);
+        if (name.startsWith("本")) name = name.substring(1);
+        Integer existing = idByName.get(name);
+        if (existing != null) {
+            idRemap.put(oldId, existing);
+            return null;
+        }
+        int newId = nextId++;
+        idRemap.put(oldId, newId);
+        idByName.put(name, newId);
+
+        ObjectNode c = om.createObjectNode();
+        c.put("id", newId);
+        c.put("courseName", name);
+        c.put("color", PastelPalette.pickByIndex(newId));
+        c.put("tableId", TABLE_ID);
+        c.put("credit", 0.0);
+        c.put("note", "");
+        courseDefs.add(c);
+        return c;
+    }
+
+    /**
+     * Remap id, clamp ranges and dedupe. Returns null for duplicates and for rules whose course is
+     * not known yet (those are retried by {@link #resolveDeferred()}).
+     */
+    ObjectNode addRule(JsonNode n) {
+        if (!(n instanceof ObjectNode o)) return null;
+        int oldId = o.path("id").isInt() ? o.path("id").asInt() : -1;
+        Integer newId = idRemap.get(oldId);
+        if (newId == null) {
+            deferred.add(o);
+            return null;
+        }
+
+        ObjectNode r = om.createObjectNode();
+        r.put("id", newId);
+        r.put("day", clampInt(o.path("day").asInt(1), 1, 7));
+        r.put("startNode", Math.max(1, o.path("startNode").asInt(1)));
+        r.put("step", Math.max(1, o.path("step").asInt(2)));
+        r.put("startWeek", Math.max(1, o.path("startWeek").asInt(1)));
+        r.put("endWeek", Math.max(r.get("startWeek").asInt(), o.path("endWeek").asInt(r.get("startWeek").asInt())));
+        r.put("type", clampInt(o.path("type").asInt(0), 0, 2));
+        String room = normalizeText(o.path("room").asText(""));
+        String teacher = normalizeText(o.path("teacher").asText(""));
+        r.put("room", room);
+        r.put("teacher", teacher);
+        r.put("tableId", TABLE_ID);
+        r.put("ownTime", false);
+        r.put("level", 0);
+        r.put("startTime", "");
+        r.put("endTime", "");
+
+        String key = newId + "|" + r.get("day").asInt() + "|" + r.get("startNode").asInt() + "|" + r.get("step").asInt() +
+                "|" + r.get("startWeek").asInt() + "|" + r.get("endWeek").asInt() + "|" + r.get("type").asInt() +
+                "|" + room + "|" + teacher;
+        if (!seenRules.add(key)) {
+            return null;
+        }
+        rules.add(r);
+        return r;
+    }
+
+    /** Retry held-back rules; returns the ones that could now be normalized. Unresolvable rules stay held. */
+    List<ObjectNode> resolveDeferred() {
+        if (deferred.isEmpty()) return List.of();
+        List<JsonNode> pending = new ArrayList<>(deferred);
+        deferred.clear();
+        List<ObjectNode> resolved = new ArrayList<>();
+        for (JsonNode n : pending) {
+            ObjectNode r = addRule(n);
+            if (r != null) {
+                resolved.add(r);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Start a new source whose course ids are numbered independently (e.g. the next extraction chunk).
+     * Rules still waiting for a course of the previous source are resolved now or dropped.
+     */
+    void newIdScope() {
+        resolveDeferred();
+        deferred.clear();
+        idRemap.clear();
+    }
+
+    int courseCount() {
+        return courseDefs.size();
+    }
+
+    int ruleCount() {
+        return rules.size();
+    }
+
+    /** Assemble the 5 NDJSON lines: meta, bellSchedule, table config, courseDefs, scheduleRules. */
+    String build() {
+        resolveDeferred();
+        // bellSchedule: ALWAYS use the exact default schedule from the user's sample file.
+        // Why: LLMs often hallucinate a bellScheduleData even when the screenshot doesn't contain it,
+        // which causes small mismatches (e.g., 节次11/12). For "export" compatibility we keep it fixed.
+        ArrayNode bell = BellScheduleDefaults.buildDefault(om);
+        try {
+            ObjectNode meta = ImportFormatDefaults.buildMeta(om);
+            ObjectNode tableCfg = ImportFormatDefaults.buildTableConfig(
+                    om,
+                    TABLE_ID,
+                    "25秋",
+                    "2025-9-1",
+                    20,
+                    20,
+                    TIME_TABLE
+            );
+
+            return om.writeValueAsString(meta) + "\n" +
+                    om.writeValueAsString(bell) + "\n" +
+                    om.writeValueAsString(tableCfg) + "\n" +
+                    om.writeValueAsString(courseDefs) + "\n" +
+                    om.writeValueAsString(rules);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("NDJSON 序列化失败", e);
+        }
+    }
+
+    /**
+     * Normalize OCR/LLM strings to be closer to the sample file:
+     * - trim
+     * - convert half-width parentheses to full-width
+     * - collapse repeated whitespace
+     */
+    static String normalizeText(String s) {
+        if (s == null) return "";
+        String t = s.trim();
+        t = t.replace('(', '（').replace(')', '）');
+        // collapse whitespace
+        t = t.replaceAll("\\s+", " ").trim();
+        return t;
+    }
+
+    private static int clampInt(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+}
@@ -0,0 +1,16 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Callbacks for {@link TimetableAiService#streamTimetableFromImage}. Nodes are already normalized. */
+public interface TimetableStreamListener {
+
+    TimetableStreamListener NONE = new TimetableStreamListener() {};
+
+    /** Pipeline stage started: normalize, ocr, extract, ndjson (the last only outside streaming). */
+    default void onStage(String stage) {}
+
+    default void onCourse(ObjectNode course) {}
+
+    default void onRule(ObjectNode rule) {}
+}
@@ -0,0 +1,243 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.util.ContentHash;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * An uploaded timetable file, kept on disk (or in the caller's byte array) instead of being copied onto the heap.
+ *
+ * The format is sniffed from the first {@value #SNIFF_BYTES} bytes only: binary JPEG/PNG/PDF/WebP by magic
+ * number, or a data URI / bare base64 text whose decoded head carries one of those magic numbers. Consumers read
+ * the decoded payload through {@link #openStream()}; base64 is decoded on the fly with the MIME decoder, which
+ * also skips line breaks and other whitespace.
+ */
+public final class UploadSource implements Closeable {
+
+    public enum Format { JPEG, PNG, PDF, WEBP, DATA_URI, BASE64, UNKNOWN }
+
+    static final int SNIFF_BYTES = 512;
+    private static final int MIN_BASE64_LENGTH = 128;
+    private static final byte[] DATA_PREFIX = "data:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64_MARKER = "base64,".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path file;
+    private final byte[] bytes;
+    private final boolean deleteOnClose;
+    private final long size;
+    private final Format format;
+    private final Format contentFormat;
+    private final int payloadOffset;
+
+    private UploadSource(Path file, byte[] bytes, boolean deleteOnClose) throws IOException {
+        this.file = file;
+        this.bytes = bytes;
+        this.deleteOnClose = deleteOnClose;
+        this.size = file != null ? Files.size(file) : bytes.length;
+        byte[] head;
+        try (InputStream in = openRaw()) {
+            head = in.readNBytes(SNIFF_BYTES);
+        }
+        Format outer = magic(head, 0);
+        if (outer != Format.UNKNOWN) {
+            this.format = outer;
+            this.contentFormat = outer;
+            this.payloadOffset = 0;
+            return;
+        }
+        int start = skipWhitespace(head, 0);
+        int marker = startsWith(head, start, DATA_PREFIX) ? indexOf(head, start, BASE64_MARKER) : -1;
+        if (marker >= 0) {
+            this.format = Format.DATA_URI;
+            this.payloadOffset = marker + BASE64_MARKER.length;
+            this.contentFormat = magic(decodeHead(head, payloadOffset), 0);
+        } else if (size >= MIN_BASE64_LENGTH && isBase64Text(head, start)
+                && magic(decodeHead(head, start), 0) != Format.UNKNOWN) {
+            this.format = Format.BASE64;
+            this.payloadOffset = start;
+            this.contentFormat = magic(decodeHead(head, start), 0);
+        } else {
+            this.format = Format.UNKNOWN;
+            this.contentFormat = Format.UNKNOWN;
+            this.payloadOffset = 0;
+        }
+    }
+
+    /** Spool a multipart upload to a temp file; the servlet container usually just moves its own temp file. */
+    public static UploadSource spool(MultipartFile upload) throws IOException {
+        Path tmp = Files.createTempFile("timetable-upload-", ".bin");
+        try {
+            upload.transferTo(tmp);
+            return new UploadSource(tmp, null, true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /** Wrap an in-memory upload (no copy). */
+    public static UploadSource of(byte[] bytes) {
+        try {
+            return new UploadSource(null, bytes == null ? new byte[0] : bytes, false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Wire format of the upload: a binary format, {@link Format#DATA_URI} or {@link Format#BASE64}. */
+    public Format format() {
+        return format;
+    }
+
+    /** Format of the decoded payload (same as {@link #format()} for binary uploads). */
+    public Format contentFormat() {
+        return contentFormat;
+    }
+
+    public boolean isEncoded() {
+        return format == Format.DATA_URI || format == Format.BASE64;
+    }
+
+    /** Raw upload size in bytes. */
+    public long size() {
+        return size;
+    }
+
+    /** Approximate size of the decoded payload. */
+    public long payloadSize() {
+        return isEncoded() ? (size - payloadOffset) * 3 / 4 : size;
+    }
+
+    /** The backing file when the payload can be read from it directly (not encoded, not in memory), else null. */
+    public Path file() {
+        return isEncoded() ? null : file;
+    }
+
+    /** Stream of the decoded payload. */
+    public InputStream openStream() throws IOException {
+        InputStream in = openRaw();
+        if (!isEncoded()) {
+            return in;
+        }
+        in.skipNBytes(payloadOffset);
+        return Base64.getMimeDecoder().wrap(in);
+    }
+
+    /** Decoded payload as bytes; only for payloads that are about to be sent/stored whole anyway. */
+    public byte[] readAllBytes() {
+        try (InputStream in = openStream()) {
+            return in.readAllBytes();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("上传文件读取失败: " + e.getMessage(), e);
+        }
+    }
+
+    /** SHA-256 (hex) of the decoded payload, so the same file uploaded as binary or base64 hashes alike. */
+    public String contentHash() {
+        MessageDigest md = ContentHash.sha256();
+        try (InputStream in = new DigestInputStream(openStream(), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new RuntimeException("上传文件读取失败: " + e.getMessage(), e);
+        }
+        return ContentHash.toHex(md);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (deleteOnClose && file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private InputStream openRaw() throws IOException {
+        return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(bytes);
+    }
+
+    static Format magic(byte[] b, int off) {
+        int n = b.length - off;
+        if (n >= 2 && (b[off] & 0xFF) == 0xFF && (b[off + 1] & 0xFF) == 0xD8) {
+            return Format.JPEG;
+        }
+        if (n >= 4 && (b[off] & 0xFF) == 0x89 && b[off + 1] == 0x50 && b[off + 2] == 0x4E && b[off + 3] == 0x47) {
+            return Format.PNG;
+        }
+        if (n >= 4 && b[off] == 0x25 && b[off + 1] == 0x50 && b[off + 2] == 0x44 && b[off + 3] == 0x46) {
+            return Format.PDF;
+        }
+        if (n >= 12 && b[off] == 0x52 && b[off + 1] == 0x49 && b[off + 2] == 0x46 && b[off + 3] == 0x46
+                && b[off + 8] == 0x57 && b[off + 9] == 0x45 && b[off + 10] == 0x42 && b[off + 11] == 0x50) {
+            return Format.WEBP;
+        }
+        return Format.UNKNOWN;
+    }
+
+    /** Decode the first 16 base64 characters after {@code off} (12 bytes, enough for every magic number). */
+    private static byte[] decodeHead(byte[] head, int off) {
+        StringBuilder sb = new StringBuilder(16);
+        for (int i = off; i < head.length && sb.length() < 16; i++) {
+            char ch = (char) (head[i] & 0xFF);
+            if (isBase64Char(ch) && ch != '=') {
+                sb.append(ch);
+            } else if (!Character.isWhitespace(ch)) {
+                break;
+            }
+        }
+        sb.setLength(sb.length() - sb.length() % 4);
+        try {
+            return Base64.getDecoder().decode(sb.toString());
+        } catch (IllegalArgumentException ignored) {
+            return new byte[0];
+        }
+    }
+
+    private static boolean isBase64Text(byte[] head, int off) {
+        for (int i = off; i < head.length; i++) {
+            char ch = (char) (head[i] & 0xFF);
+            if (!isBase64Char(ch) && !Character.isWhitespace(ch)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBase64Char(char ch) {
+        return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || (ch >= '0' && ch <= '9')
+                || ch == '+' || ch == '/' || ch == '=';
+    }
+
+    private static int skipWhitespace(byte[] b, int i) {
+        while (i < b.length && Character.isWhitespace((char) (b[i] & 0xFF))) i++;
+        return i;
+    }
+
+    private static boolean startsWith(byte[] b, int off, byte[] prefix) {
+        if (b.length - off < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[off + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int from, byte[] needle) {
+        outer:
+        for (int i = from; i <= b.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (b[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,112 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for calls to one upstream: {@link CircuitBreaker} first, then {@link AdaptiveLimiter}.
+ * A refused call throws {@link UpstreamUnavailableException} straight away, so a degraded upstream ties
+ * up at most "limit" request threads instead of all of them.
+ *
+ * Upstream faults (5xx, 408, 429, timeouts, I/O errors) count against the upstream; other 4xx answers and
+ * interrupted calls count for nothing.
+ *
+ * Calls run under the caller's {@link Deadline}: none is started once it has ended, and one in flight is
+ * aborted when it ends (expiry or client gone).
+ *
+ * Metrics: upstream.limit, upstream.inflight, upstream.circuit.state (0 closed, 1 half-open, 2 open),
+ * upstream.circuit.opened, upstream.rejected{reason=limit|circuit_open} and
+ * deadline.calls{outcome=skipped|aborted}, all tagged with the upstream.
+ */
+final class UpstreamGuard {
+
+    private static final Duration LIMIT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    private final String upstream;
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final Counter limitRejected;
+    private final Counter circuitRejected;
+    private final Counter opened;
+    private final Counter deadlineSkipped;
+    private final Counter deadlineAborted;
+
+    UpstreamGuard(String upstream, UpstreamHttpProperties props, MeterRegistry registry) {
+        this.upstream = upstream;
+        this.limiter = new AdaptiveLimiter(props);
+        this.breaker = new CircuitBreaker(props);
+        Gauge.builder("upstream.limit", limiter, AdaptiveLimiter::limit).tag("upstream", upstream).register(registry);
+        Gauge.builder("upstream.inflight", limiter, AdaptiveLimiter::inFlight).tag("upstream", upstream).register(registry);
+        Gauge.builder("upstream.circuit.state", breaker, b -> b.state().ordinal()).tag("upstream", upstream).register(registry);
+        this.opened = Counter.builder("upstream.circuit.opened").tag("upstream", upstream).register(registry);
+        this.limitRejected = Counter.builder("upstream.rejected").tag("upstream", upstream).tag("reason", "limit").register(registry);
+        this.circuitRejected = Counter.builder("upstream.rejected").tag("upstream", upstream).tag("reason", "circuit_open").register(registry);
+        this.deadlineSkipped = Counter.builder("deadline.calls").tag("upstream", upstream).tag("outcome", "skipped").register(registry);
+        this.deadlineAborted = Counter.builder("deadline.calls").tag("upstream", upstream).tag("outcome", "aborted").register(registry);
+    }
+
+    /** Run {@code call} if admitted; its latency feeds the limiter. */
+    <T> T call(Supplier<T> call) {
+        return call(AdaptiveLimiter.DEFAULT_CLASS, call);
+    }
+
+    /**
+     * Like {@link #call(Supplier)}; the latency is only compared with that of calls of the same
+     * {@code latencyClass}, or not recorded at all when it is null (streamed responses, whose duration
+     * depends on the answer length).
+     */
+    <T> T call(String latencyClass, Supplier<T> call) {
+        Deadline deadline = Deadline.current();
+        try {
+            deadline.check(upstream);
+        } catch (DeadlineExceededException e) {
+            deadlineSkipped.increment();
+            throw e;
+        }
+        if (!breaker.tryAcquire()) {
+            circuitRejected.increment();
+            throw new UpstreamUnavailableException(upstream + " 暂不可用（熔断中），请稍后重试", breaker.retryAfter());
+        }
+        if (!limiter.tryAcquire()) {
+            breaker.onIgnore();
+            limitRejected.increment();
+            throw new UpstreamUnavailableException(upstream + " 繁忙（并发已达上限），请稍后重试", LIMIT_RETRY_AFTER);
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = deadline.interruptible(call);
+        } catch (RuntimeException e) {
+            if (e instanceof DeadlineExceededException) deadlineAborted.increment();
+            if (e instanceof DeadlineExceededException || Thread.currentThread().isInterrupted() || !isUpstreamFault(e)) {
+                limiter.onIgnore();
+                breaker.onIgnore();
+            } else {
+                limiter.onFailure();
+                if (breaker.onFailure()) opened.increment();
+            }
+            throw e;
+        }
+        if (latencyClass != null) {
+            limiter.onSuccess(latencyClass, System.nanoTime() - start);
+        } else {
+            limiter.onIgnore();
+        }
+        breaker.onSuccess();
+        return result;
+    }
+
+    private static boolean isUpstreamFault(RuntimeException e) {
+        if (e instanceof RestClientResponseException r) {
+            int status = r.getStatusCode().value();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return true;
+    }
+}
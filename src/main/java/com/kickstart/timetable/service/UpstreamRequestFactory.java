@@ -0,0 +1,379 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request factory for one upstream (AIStudio, PaddleOCR) on top of the JDK {@link HttpClient}.
+ *
+ * The JDK client pools connections and negotiates HTTP/2 itself; this class adds what it lacks: a cap on
+ * requests in flight (max-connections, waiting up to acquire-timeout for a slot), a deadline for the whole
+ * exchange including the body (response-timeout closes the response when it passes), gzip on responses
+ * and optionally on request bodies, and metrics tagged with the upstream name:
+ * upstream.http.pool.active / pending / max, upstream.http.pool.acquire, upstream.http.pool.rejected,
+ * upstream.http.requests (time to response headers, by status), upstream.http.exchange (until the
+ * response is closed) and upstream.http.timeouts.
+ *
+ * Request bodies stay streamed: the wrapper forwards {@link StreamingHttpOutputMessage#setBody}.
+ */
+final class UpstreamRequestFactory implements ClientHttpRequestFactory {
+
+    private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "upstream-deadline");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final AtomicBoolean KEEP_ALIVE_APPLIED = new AtomicBoolean();
+
+    private final String upstream;
+    private final UpstreamHttpProperties props;
+    private final ClientHttpRequestFactory delegate;
+    private final MeterRegistry registry;
+    private final Semaphore slots;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Timer acquireWait;
+    private final Timer exchange;
+    private final Counter rejected;
+    private final Counter timeouts;
+
+    UpstreamRequestFactory(String upstream, UpstreamHttpProperties props, MeterRegistry registry) {
+        this.upstream = upstream;
+        this.props = props;
+        this.registry = registry;
+        applyKeepAlive(props);
+        HttpClient client = HttpClient.newBuilder()
+                .connectTimeout(props.getConnectTimeout())
+                .version(props.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .build();
+        JdkClientHttpRequestFactory jdk = new JdkClientHttpRequestFactory(client);
+        if (props.getReadTimeout() != null && !props.getReadTimeout().isZero()) {
+            jdk.setReadTimeout(props.getReadTimeout());
+        }
+        this.delegate = jdk;
+
+        int max = Math.max(1, props.getMaxConnections());
+        this.slots = new Semaphore(max, true);
+        Gauge.builder("upstream.http.pool.active", active, AtomicInteger::get).tag("upstream", upstream).register(registry);
+        Gauge.builder("upstream.http.pool.pending", pending, AtomicInteger::get).tag("upstream", upstream).register(registry);
+        Gauge.builder("upstream.http.pool.max", () -> max).tag("upstream", upstream).register(registry);
+        this.acquireWait = Timer.builder("upstream.http.pool.acquire").tag("upstream", upstream).register(registry);
+        this.exchange = Timer.builder("upstream.http.exchange").tag("upstream", upstream).register(registry);
+        this.rejected = Counter.builder("upstream.http.pool.rejected").tag("upstream", upstream).register(registry);
+        this.timeouts = Counter.builder("upstream.http.timeouts").tag("upstream", upstream).register(registry);
+    }
+
+    /**
+     * jdk.httpclient.keepalive.timeout / connectionPoolSize are read once when the JDK client initializes,
+     * so they are set before the first client is built and only if not given on the command line.
+     */
+    private static void applyKeepAlive(UpstreamHttpProperties props) {
+        if (!KEEP_ALIVE_APPLIED.compareAndSet(false, true)) return;
+        if (props.getKeepAlive() != null && System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", Long.toString(Math.max(1, props.getKeepAlive().toSeconds())));
+        }
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", Integer.toString(Math.max(1, props.getMaxConnections())));
+        }
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod method) throws IOException {
+        return new Request(delegate.createRequest(uri, method));
+    }
+
+    private final class Request implements ClientHttpRequest, StreamingHttpOutputMessage {
+        private final ClientHttpRequest target;
+        private GZIPOutputStream gzipBody;
+
+        Request(ClientHttpRequest target) {
+            this.target = target;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return target.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return target.getURI();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return target.getAttributes();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return target.getHeaders();
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            if (!props.isCompressRequests()) return target.getBody();
+            if (gzipBody == null) {
+                markCompressed();
+                gzipBody = new GZIPOutputStream(target.getBody());
+            }
+            return gzipBody;
+        }
+
+        @Override
+        public void setBody(Body body) {
+            if (!(target instanceof StreamingHttpOutputMessage streaming)) {
+                throw new IllegalStateException("上游请求不支持流式请求体");
+            }
+            if (!props.isCompressRequests()) {
+                streaming.setBody(body);
+                return;
+            }
+            markCompressed();
+            streaming.setBody(new Body() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    // The JDK client closes the stream itself; only finish the gzip trailer here.
+                    GZIPOutputStream gz = new GZIPOutputStream(new FilterOutputStream(out) {
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            flush();
+                        }
+                    });
+                    body.writeTo(gz);
+                    gz.finish();
+                }
+
+                @Override
+                public boolean repeatable() {
+                    return body.repeatable();
+                }
+            });
+        }
+
+        private void markCompressed() {
+            target.getHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            target.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            if (gzipBody != null) gzipBody.finish();
+            if (props.isCompressResponses() && !target.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+                target.getHeaders().set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+            }
+
+            long waitStart = System.nanoTime();
+            pending.incrementAndGet();
+            boolean acquired;
+            try {
+                Duration timeout = props.getAcquireTimeout() == null ? Duration.ZERO : props.getAcquireTimeout();
+                acquired = slots.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(upstream + " 请求被中断", e);
+            } finally {
+                pending.decrementAndGet();
+            }
+            acquireWait.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+            if (!acquired) {
+                rejected.increment();
+                throw new IOException(upstream + " 连接池已满（max-connections=" + props.getMaxConnections() + "）");
+            }
+
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            ClientHttpResponse response;
+            try {
+                response = target.execute();
+            } catch (IOException | RuntimeException e) {
+                release(start);
+                requests("IO_ERROR").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+            requests(Integer.toString(response.getStatusCode().value())).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return new Response(response, start);
+        }
+    }
+
+    private Timer requests(String status) {
+        return Timer.builder("upstream.http.requests").tag("upstream", upstream).tag("status", status).register(registry);
+    }
+
+    private void release(long start) {
+        active.decrementAndGet();
+        slots.release();
+        exchange.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private final class Response implements ClientHttpResponse {
+        private final ClientHttpResponse target;
+        private final long start;
+        private final boolean gzip;
+        private final HttpHeaders headers;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean timedOut;
+        private InputStream body;
+        private final Object readLock = new Object();
+        private Thread reader;
+
+        Response(ClientHttpResponse target, long start) {
+            this.target = target;
+            this.start = start;
+            this.gzip = props.isCompressResponses()
+                    && "gzip".equalsIgnoreCase(target.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+            if (gzip) {
+                HttpHeaders h = new HttpHeaders();
+                h.putAll(target.getHeaders());
+                h.remove(HttpHeaders.CONTENT_ENCODING);
+                h.remove(HttpHeaders.CONTENT_LENGTH);
+                this.headers = HttpHeaders.readOnlyHttpHeaders(h);
+            } else {
+                this.headers = target.getHeaders();
+            }
+            Duration overall = props.getResponseTimeout();
+            if (overall == null || overall.isZero() || overall.isNegative()) {
+                this.deadline = null;
+            } else {
+                long left = overall.toNanos() - (System.nanoTime() - start);
+                this.deadline = DEADLINES.schedule(this::expire, Math.max(0, left), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Closing the JDK response alone does not wake a thread blocked waiting for body bytes, so a reader
+         * inside {@link DeadlineStream} is interrupted as well; it turns that into the timeout error.
+         */
+        private void expire() {
+            if (closed.get()) return;
+            timedOut = true;
+            timeouts.increment();
+            synchronized (readLock) {
+                if (reader != null) reader.interrupt();
+            }
+            target.close();
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return target.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return target.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream in = new DeadlineStream(target.getBody());
+                body = gzip ? new GZIPInputStream(in) : in;
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (deadline != null) deadline.cancel(false);
+            try {
+                target.close();
+            } finally {
+                release(start);
+            }
+        }
+
+        /** Reports reads that fail or end because response-timeout closed the response as a timeout. */
+        private final class DeadlineStream extends FilterInputStream {
+            DeadlineStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                enter();
+                int n;
+                try {
+                    n = super.read(b, off, len);
+                } catch (IOException e) {
+                    exit();
+                    checkDeadline();
+                    throw e;
+                }
+                exit();
+                if (n < 0) checkDeadline();
+                return n;
+            }
+
+            private void enter() throws IOException {
+                synchronized (readLock) {
+                    checkDeadline();
+                    reader = Thread.currentThread();
+                }
+            }
+
+            private void exit() {
+                synchronized (readLock) {
+                    reader = null;
+                }
+                // expire() only interrupts while we are registered; don't leak that interrupt to the caller.
+                if (timedOut) Thread.interrupted();
+            }
+
+            private void checkDeadline() throws IOException {
+                if (timedOut) {
+                    throw new IOException(upstream + " 响应超时（response-timeout=" + props.getResponseTimeout() + "）");
+                }
+            }
+        }
+    }
+}
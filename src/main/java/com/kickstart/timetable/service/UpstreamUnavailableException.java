@@ -0,0 +1,23 @@
+package com.kickstart.timetable.service;
+
+import java.time.Duration;
+
+/**
+ * An upstream call refused locally because the upstream is overloaded or its circuit breaker is open.
+ * Answered with 503 and a Retry-After header.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    public UpstreamUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,22 @@
+package com.kickstart.timetable.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/** SHA-256 helpers used for content-addressed cache keys. */
+public final class ContentHash {
+    private ContentHash() {}
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    public static String toHex(MessageDigest md) {
+        return HexFormat.of().formatHex(md.digest());
+    }
+}
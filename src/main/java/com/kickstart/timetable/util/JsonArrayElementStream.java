@@ -0,0 +1,93 @@
+package com.kickstart.timetable.util;
+
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Incremental scanner that emits the elements of selected top-level arrays as soon as each element
+ * is complete, e.g. every object of {@code courseDefs} in {"courseDefs":[{...},{...}],...}. Object,
+ * array and string elements are emitted (strings with their quotes); numbers and literals are skipped.
+ *
+ * Text can be fed in arbitrary chunks (LLM stream deltas). It only tracks nesting and string
+ * quoting/escaping; the emitted element text is parsed by the caller.
+ */
+public final class JsonArrayElementStream {
+
+    private final Set<String> keys;
+    private final BiConsumer<String, String> onElement;
+
+    private int depth;
+    private boolean inString;
+    private boolean escape;
+    private final StringBuilder keyBuf = new StringBuilder();
+    private String lastString;
+    private String arrayKey;
+    private StringBuilder element;
+
+    /**
+     * @param keys      names of the top-level array fields whose elements should be emitted
+     * @param onElement called with (arrayKey, elementJson) for each completed element
+     */
+    public JsonArrayElementStream(Set<String> keys, BiConsumer<String, String> onElement) {
+        this.keys = keys;
+        this.onElement = onElement;
+    }
+
+    public void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length(); i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    private void accept(char c) {
+        if (element != null) element.append(c);
+
+        if (inString) {
+            if (escape) {
+                escape = false;
+            } else if (c == '\\') {
+                escape = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1) lastString = keyBuf.toString();
+                if (element != null && depth == 2) {
+                    String done = element.toString();
+                    element = null;
+                    onElement.accept(arrayKey, done);
+                }
+                return;
+            }
+            if (depth == 1) keyBuf.append(c);
+            return;
+        }
+
+        switch (c) {
+            case '"' -> {
+                inString = true;
+                if (depth == 1) keyBuf.setLength(0);
+                if (depth == 2 && element == null && arrayKey != null && keys.contains(arrayKey)) {
+                    element = new StringBuilder().append(c);
+                }
+            }
+            case '{', '[' -> {
+                if (depth == 1 && c == '[') {
+                    arrayKey = lastString;
+                } else if (depth == 2 && element == null && arrayKey != null && keys.contains(arrayKey)) {
+                    element = new StringBuilder().append(c);
+                }
+                depth++;
+            }
+            case '}', ']' -> {
+                if (depth > 0) depth--;
+                if (element != null && depth == 2) {
+                    String done = element.toString();
+                    element = null;
+                    onElement.accept(arrayKey, done);
+                }
+                if (depth == 1) arrayKey = null;
+            }
+            default -> {
+            }
+        }
+    }
+}
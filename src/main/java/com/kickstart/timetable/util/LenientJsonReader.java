@@ -0,0 +1,306 @@
+package com.kickstart.timetable.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tolerant reader for JSON embedded in LLM output. Builds Jackson nodes straight from the text in one
+ * pass, without first cutting the JSON out of it (no fence stripping, trimming or substring copies).
+ *
+ * Leading and trailing prose and ```json fences are skipped: reading starts at the first '{' (or '[')
+ * that begins a parseable value and stops right after that value. On top of standard JSON it accepts
+ * trailing or repeated commas and raw control characters inside strings.
+ *
+ * With {@code repairTruncated} (answers cut off at max_tokens, finish_reason=length), text that ends
+ * inside a value is closed instead of rejected: open objects and arrays are closed, an unfinished member
+ * or scalar is dropped, and an unfinished object or array that is an array element is dropped as well,
+ * so partial records never come out.
+ */
+public final class LenientJsonReader {
+
+    /** Nesting deeper than this is rejected rather than risking the stack. */
+    private static final int MAX_DEPTH = 256;
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    /** Thrown at the first character that can't continue the value being read. */
+    private static final class Malformed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Malformed() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Malformed MALFORMED = new Malformed();
+
+    private final String text;
+    private final int end;
+    private final boolean repairTruncated;
+    private int pos;
+    private int depth;
+    private boolean truncated;
+
+    private LenientJsonReader(String text, int start, boolean repairTruncated) {
+        this.text = text;
+        this.end = text.length();
+        this.pos = start;
+        this.repairTruncated = repairTruncated;
+    }
+
+    /** The first JSON object in {@code text} (it may be nested inside an array), or null. */
+    public static ObjectNode firstObject(String text, boolean repairTruncated) {
+        List<JsonNode> found = scan(text, '{', 1, repairTruncated);
+        return found.isEmpty() ? null : (ObjectNode) found.get(0);
+    }
+
+    /** The first JSON array in {@code text} (it may be a field of an object), or null. */
+    public static ArrayNode firstArray(String text, boolean repairTruncated) {
+        List<JsonNode> found = scan(text, '[', 1, repairTruncated);
+        return found.isEmpty() ? null : (ArrayNode) found.get(0);
+    }
+
+    /**
+     * Up to {@code max} arrays in order of appearance, e.g. the lines of NDJSON output or the array fields
+     * of an object that is itself broken; the search resumes after each array found.
+     */
+    public static List<ArrayNode> arrays(String text, int max, boolean repairTruncated) {
+        List<ArrayNode> out = new ArrayList<>();
+        for (JsonNode n : scan(text, '[', max, repairTruncated)) out.add((ArrayNode) n);
+        return out;
+    }
+
+    private static List<JsonNode> scan(String text, char open, int max, boolean repairTruncated) {
+        List<JsonNode> found = new ArrayList<>();
+        if (text == null) return found;
+        int from = 0;
+        while (found.size() < max) {
+            int start = text.indexOf(open, from);
+            if (start < 0) break;
+            LenientJsonReader reader = new LenientJsonReader(text, start, repairTruncated);
+            try {
+                found.add(reader.value());
+            } catch (Malformed e) {
+                // Not JSON after all (prose, or a broken value): try the next opening bracket.
+                from = start + 1;
+                continue;
+            }
+            if (reader.truncated) break;
+            from = reader.pos;
+        }
+        return found;
+    }
+
+    /** The value at {@code pos}, or null when the text ends inside a scalar (repair mode only). */
+    private JsonNode value() {
+        skipWhitespace();
+        if (pos >= end) return endOfText();
+        char c = text.charAt(pos);
+        return switch (c) {
+            case '{' -> object();
+            case '[' -> array();
+            case '"' -> {
+                String s = string();
+                yield s == null ? null : NODES.textNode(s);
+            }
+            case 't' -> literal("true", NODES.booleanNode(true));
+            case 'f' -> literal("false", NODES.booleanNode(false));
+            case 'n' -> literal("null", NODES.nullNode());
+            default -> {
+                if (c == '-' || c >= '0' && c <= '9') yield number();
+                throw MALFORMED;
+            }
+        };
+    }
+
+    private ObjectNode object() {
+        enter();
+        pos++;
+        ObjectNode obj = NODES.objectNode();
+        while (true) {
+            skipWhitespace();
+            if (pos >= end) return close(obj);
+            char c = text.charAt(pos);
+            if (c == '}') {
+                pos++;
+                depth--;
+                return obj;
+            }
+            if (c == ',') {
+                pos++;
+                continue;
+            }
+            if (c != '"') throw MALFORMED;
+            String key = string();
+            if (key == null) return close(obj);
+            skipWhitespace();
+            if (pos >= end) return close(obj);
+            if (text.charAt(pos) != ':') throw MALFORMED;
+            pos++;
+            JsonNode v = value();
+            // An unfinished member value that is a container is kept (closed); an unfinished scalar is not.
+            if (v != null) obj.set(key, v);
+            if (truncated) return close(obj);
+            expectSeparator('}');
+        }
+    }
+
+    private ArrayNode array() {
+        enter();
+        pos++;
+        ArrayNode arr = NODES.arrayNode();
+        while (true) {
+            skipWhitespace();
+            if (pos >= end) return close(arr);
+            char c = text.charAt(pos);
+            if (c == ']') {
+                pos++;
+                depth--;
+                return arr;
+            }
+            if (c == ',') {
+                pos++;
+                continue;
+            }
+            JsonNode v = value();
+            // Unfinished elements are dropped whole: a half-written record is worse than a missing one.
+            if (truncated) return close(arr);
+            arr.add(v);
+            expectSeparator(']');
+        }
+    }
+
+    /** After a member or element: a comma or the closing bracket must follow (the comma is consumed). */
+    private void expectSeparator(char closing) {
+        skipWhitespace();
+        if (pos >= end) return;
+        char c = text.charAt(pos);
+        if (c == ',') {
+            pos++;
+        } else if (c != closing) {
+            throw MALFORMED;
+        }
+    }
+
+    /** The string starting at the quote at {@code pos}; null when the text ends inside it (repair mode only). */
+    private String string() {
+        int start = ++pos;
+        // Fast path: no escapes, one copy.
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c == '"') return text.substring(start, pos++);
+            if (c == '\\') break;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder().append(text, start, pos);
+        while (pos < end) {
+            char c = text.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= end) break;
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 't' -> sb.append('\t');
+                case 'r' -> sb.append('\r');
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'u' -> {
+                    if (pos + 4 > end) {
+                        pos = end;
+                        break;
+                    }
+                    sb.append((char) hex4());
+                }
+                // \" \\ \/ and, leniently, any other escaped character stand for themselves.
+                default -> sb.append(e);
+            }
+        }
+        endOfText();
+        return null;
+    }
+
+    private int hex4() {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int d = Character.digit(text.charAt(pos++), 16);
+            if (d < 0) throw MALFORMED;
+            v = v << 4 | d;
+        }
+        return v;
+    }
+
+    private JsonNode number() {
+        int start = pos;
+        boolean decimal = false;
+        if (text.charAt(pos) == '-') pos++;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                pos++;
+            } else if (c == '.' || c == 'e' || c == 'E' || (c == '+' || c == '-') && decimal) {
+                decimal = true;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        // A number running into the end of the text may have lost digits.
+        if (pos >= end) return endOfText();
+        String digits = text.substring(start, pos);
+        try {
+            if (decimal) return NODES.numberNode(Double.parseDouble(digits));
+            long v = Long.parseLong(digits);
+            return v == (int) v ? NODES.numberNode((int) v) : NODES.numberNode(v);
+        } catch (NumberFormatException e) {
+            if (decimal || digits.length() < 2) throw MALFORMED;
+            try {
+                return NODES.numberNode(new BigInteger(digits));
+            } catch (NumberFormatException notANumber) {
+                throw MALFORMED;
+            }
+        }
+    }
+
+    private JsonNode literal(String word, JsonNode node) {
+        for (int i = 0; i < word.length(); i++, pos++) {
+            if (pos >= end) return endOfText();
+            if (text.charAt(pos) != word.charAt(i)) throw MALFORMED;
+        }
+        return node;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) throw MALFORMED;
+    }
+
+    /** The text ended inside a value: fatal unless repairing, where the value is reported unfinished. */
+    private JsonNode endOfText() {
+        if (!repairTruncated) throw MALFORMED;
+        truncated = true;
+        return null;
+    }
+
+    private <T extends JsonNode> T close(T container) {
+        endOfText();
+        depth--;
+        return container;
+    }
+}
@@ -0,0 +1,158 @@
+package com.kickstart.timetable.util;
+
+import com.kickstart.timetable.service.Deadline;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects concurrent single-item requests into batches of up to {@code maxItems}, waiting at most
+ * {@code maxWait} after the first item, and hands each batch to one handler call.
+ *
+ * There is no collector thread: the caller that opens a batch is its leader. It waits until the batch is
+ * full or the wait is over, then starts the handler on a virtual thread while later callers open the next
+ * batch. The handler completes the future at the same position as each item; futures it leaves open are
+ * failed once it returns, so no caller waits forever.
+ *
+ * The handler runs under a {@link Deadline} of the batch, not the leader's: the latest deadline among the
+ * batch's callers. {@link #call(Object)} waits under each caller's own deadline, and the batch is cancelled
+ * once all of its callers have left.
+ *
+ * Metrics: {@code <name>.batch.size} (items per batch) and {@code <name>.batch.wait} (time an item spent
+ * waiting for its batch to start).
+ */
+public final class MicroBatcher<I, O> {
+
+    private final int maxItems;
+    private final long maxWaitNanos;
+    private final BiConsumer<List<I>, List<CompletableFuture<O>>> handler;
+    private final DistributionSummary batchSize;
+    private final Timer batchWait;
+    private final ThreadFactory workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition closed = lock.newCondition();
+    private Batch<I, O> open;
+
+    public MicroBatcher(String name, int maxItems, Duration maxWait,
+                        BiConsumer<List<I>, List<CompletableFuture<O>>> handler, MeterRegistry registry) {
+        this.maxItems = Math.max(1, maxItems);
+        this.maxWaitNanos = maxWait == null || maxWait.isNegative() ? 0 : maxWait.toNanos();
+        this.handler = handler;
+        this.batchSize = DistributionSummary.builder(name + ".batch.size").register(registry);
+        this.batchWait = Timer.builder(name + ".batch.wait").register(registry);
+        this.workers = Thread.ofVirtual().name(name + "-batch-", 0).factory();
+    }
+
+    /** Submit {@code item} and wait for its result under the caller's {@link Deadline}. */
+    public O call(I item) {
+        CompletableFuture<O> future = submit(item);
+        try {
+            return Deadline.current().await(future);
+        } finally {
+            // Leaving before the result: the batch no longer has to answer this item.
+            future.cancel(false);
+        }
+    }
+
+    public CompletableFuture<O> submit(I item) {
+        CompletableFuture<O> future = new CompletableFuture<>();
+        Batch<I, O> lead = null;
+        Batch<I, O> full = null;
+        lock.lock();
+        try {
+            if (open == null) {
+                open = new Batch<>(Deadline.current());
+                lead = open;
+            }
+            Batch<I, O> b = open;
+            b.deadline.extendTo(Deadline.current());
+            b.items.add(item);
+            b.futures.add(future);
+            b.submitted.add(System.nanoTime());
+            if (b.items.size() >= maxItems || maxWaitNanos == 0) {
+                open = null;
+                closed.signalAll();
+                if (b == lead) full = b;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (full != null) {
+            start(full);
+        } else if (lead != null) {
+            awaitAndRun(lead);
+        }
+        return future;
+    }
+
+    private void awaitAndRun(Batch<I, O> batch) {
+        long deadline = batch.submitted.get(0) + maxWaitNanos;
+        lock.lock();
+        try {
+            while (open == batch) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    open = null;
+                    break;
+                }
+                closed.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (open == batch) open = null;
+        } finally {
+            lock.unlock();
+        }
+        start(batch);
+    }
+
+    private void start(Batch<I, O> batch) {
+        for (CompletableFuture<O> f : batch.futures) {
+            f.whenComplete((result, error) -> {
+                if (f.isCancelled() && batch.futures.stream().allMatch(CompletableFuture::isDone)) {
+                    batch.deadline.cancel("批内调用方均已离开");
+                }
+            });
+        }
+        workers.newThread(() -> run(batch)).start();
+    }
+
+    @SuppressWarnings("try")
+    private void run(Batch<I, O> batch) {
+        long start = System.nanoTime();
+        batchSize.record(batch.items.size());
+        for (long submitted : batch.submitted) {
+            batchWait.record(start - submitted, TimeUnit.NANOSECONDS);
+        }
+        try (Deadline.Scope ignored = batch.deadline.bind()) {
+            handler.accept(batch.items, batch.futures);
+        } catch (RuntimeException | Error e) {
+            batch.futures.forEach(f -> f.completeExceptionally(e));
+        }
+        for (CompletableFuture<O> f : batch.futures) {
+            if (!f.isDone()) f.completeExceptionally(new IllegalStateException("批处理未返回该条结果"));
+        }
+    }
+
+    /** Items of one batch; only modified under the lock while the batch is open. */
+    private static final class Batch<I, O> {
+        final List<I> items = new ArrayList<>();
+        final List<CompletableFuture<O>> futures = new ArrayList<>();
+        final List<Long> submitted = new ArrayList<>();
+        final Deadline deadline;
+
+        Batch(Deadline leader) {
+            this.deadline = Deadline.sharedBy(leader);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.kickstart.timetable.util;
+
+import com.kickstart.timetable.service.Deadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key: the first caller starts the work, callers arriving while
+ * it runs share its result. Nothing is kept afterwards; a failure is thrown to every caller waiting at that
+ * moment and the next call with the key starts afresh.
+ *
+ * The work runs on a virtual thread under a {@link Deadline} of its own, not the first caller's: it lasts
+ * as long as the latest deadline among its callers (see {@link Deadline#sharedBy(Deadline)}), and it is
+ * cancelled once all of them have left. Every caller waits under its own deadline and may give up without
+ * affecting the others.
+ *
+ * Metrics: {@code <name>.singleflight{role=leader|shared}}.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final ThreadFactory workers;
+    private final Counter leaders;
+    private final Counter shared;
+
+    public SingleFlight(String name, MeterRegistry registry) {
+        this.workers = Thread.ofVirtual().name(name + "-flight-", 0).factory();
+        this.leaders = Counter.builder(name + ".singleflight").tag("role", "leader").register(registry);
+        this.shared = Counter.builder(name + ".singleflight").tag("role", "shared").register(registry);
+    }
+
+    public V execute(K key, Supplier<V> work) {
+        Deadline caller = Deadline.current();
+        boolean[] lead = new boolean[1];
+        Flight<V> flight = inFlight.compute(key, (k, running) -> {
+            Flight<V> f = running != null ? running : new Flight<>(caller);
+            lead[0] = running == null;
+            f.deadline.extendTo(caller);
+            f.waiters++;
+            return f;
+        });
+        if (lead[0]) {
+            leaders.increment();
+            workers.newThread(() -> run(key, flight, work)).start();
+        } else {
+            shared.increment();
+        }
+        try {
+            return caller.await(flight.result);
+        } finally {
+            leave(key, flight);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void run(K key, Flight<V> flight, Supplier<V> work) {
+        try (Deadline.Scope ignored = flight.deadline.bind()) {
+            V result = work.get();
+            inFlight.remove(key, flight);
+            flight.result.complete(result);
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, flight);
+            flight.result.completeExceptionally(e);
+        }
+    }
+
+    /** The last caller to give up on unfinished work cancels it. */
+    private void leave(K key, Flight<V> flight) {
+        boolean[] abandoned = new boolean[1];
+        inFlight.computeIfPresent(key, (k, f) -> {
+            if (f != flight || --f.waiters > 0 || f.result.isDone()) return f;
+            abandoned[0] = true;
+            return null;
+        });
+        if (abandoned[0]) flight.deadline.cancel("调用方均已离开");
+    }
+
+    /** Keys currently being worked on. */
+    public int size() {
+        return inFlight.size();
+    }
+
+    /** One running piece of work; {@code waiters} is only changed inside the map's compute functions. */
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final Deadline deadline;
+        int waiters;
+
+        Flight(Deadline leader) {
+            this.deadline = Deadline.sharedBy(leader);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.kickstart.timetable.util;
+
+/**
+ * Cheap local estimate of LLM tokens for prompt budgeting.
+ *
+ * ERNIE/GPT style tokenizers spend roughly one token per CJK character and about four characters per
+ * token on ASCII text, so the estimate is {@code nonAscii + ceil(ascii / 4)}. It errs on the high side
+ * for Chinese-heavy text, which is the safe direction for a budget.
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {}
+
+    public static int estimate(CharSequence text) {
+        if (text == null) return 0;
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(ch)) {
+                other++;
+            }
+        }
+        return other + (ascii + 3) / 4;
+    }
+}
@@ -0,0 +1,104 @@
+package com.kickstart.timetable.util;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small thread-safe LRU map with a time-to-live and an optional weight cap.
+ *
+ * Entries are evicted least-recently-used first once either {@code maxEntries} or the summed weight
+ * (e.g. bytes) exceeds the configured maximum. Expired entries are dropped lazily on access.
+ */
+public final class TtlLruCache<K, V> {
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttlMillis;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, Holder<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long evictions;
+
+    /**
+     * @param maxEntries max number of entries (must be positive)
+     * @param maxWeight  max summed weight; {@code <= 0} disables the weight cap
+     * @param ttl        time-to-live; null or zero means entries never expire
+     * @param weigher    weight of a value; may be null when {@code maxWeight <= 0}
+     */
+    public TtlLruCache(int maxEntries, long maxWeight, Duration ttl, ToLongFunction<V> weigher) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = maxWeight;
+        this.ttlMillis = (ttl == null || ttl.isZero() || ttl.isNegative()) ? 0 : ttl.toMillis();
+        this.weigher = weigher == null ? v -> 0L : weigher;
+    }
+
+    public synchronized V get(K key) {
+        Holder<V> h = map.get(key);
+        if (h == null) return null;
+        if (isExpired(h, System.currentTimeMillis())) {
+            remove(key, h);
+            return null;
+        }
+        return h.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        long w = Math.max(0, weigher.applyAsLong(value));
+        if (maxWeight > 0 && w > maxWeight) {
+            // A single value larger than the whole cache would just evict everything else.
+            return;
+        }
+        Holder<V> old = map.put(key, new Holder<>(value, w, System.currentTimeMillis()));
+        if (old != null) weight -= old.weight;
+        weight += w;
+        evictIfNeeded();
+    }
+
+    public synchronized void invalidate(K key) {
+        Holder<V> h = map.get(key);
+        if (h != null) remove(key, h);
+    }
+
+    public synchronized void invalidateAll() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /** Number of entries evicted because of the size/weight cap (expirations are not counted). */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<K, Holder<V>>> it = map.entrySet().iterator();
+        while (it.hasNext() && (map.size() > maxEntries || (maxWeight > 0 && weight > maxWeight))) {
+            Map.Entry<K, Holder<V>> e = it.next();
+            if (!isExpired(e.getValue(), now)) evictions++;
+            weight -= e.getValue().weight;
+            it.remove();
+        }
+    }
+
+    private void remove(K key, Holder<V> h) {
+        map.remove(key);
+        weight -= h.weight;
+    }
+
+    private boolean isExpired(Holder<V> h, long now) {
+        return ttlMillis > 0 && now - h.createdAt > ttlMillis;
+    }
+
+    private record Holder<V>(V value, long weight, long createdAt) {}
+}
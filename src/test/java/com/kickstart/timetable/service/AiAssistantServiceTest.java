@@ -0,0 +1,114 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.AiStudioProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AiAssistantServiceTest {
+
+    @Test
+    void packsInputsByBudgetAndItemCount() {
+        List<String> inputs = List.of("交高数作业", "周五前提交实验报告", "复习英语", "准备离散数学期中考试");
+
+        assertEquals(List.of(List.of(0, 1), List.of(2, 3)), AiAssistantService.pack(inputs, 1000, 2));
+        assertEquals(List.of(List.of(0), List.of(1, 2), List.of(3)), AiAssistantService.pack(inputs, 29, 10));
+    }
+
+    @Test
+    void alignsBatchResultsAndRetriesDroppedIndexesOneByOne() {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        AiStudioChatClient stub = new AiStudioChatClient(new AiStudioProperties(), RestClient.builder(),
+                new ObjectMapper(), new SimpleMeterRegistry(), new HedgeBudget(0.05)) {
+            @Override
+            public String chat(String system, String user, double temperature, int maxTokens, Predicate<String> valid) {
+                calls.add(user);
+                if (user.contains("任务列表")) {
+                    // Answers out of order, drops index 1 and garbles index 2.
+                    return "```json\n[{\"index\":2,\"title\":\"\"},{\"index\":0,\"title\":\"交高数作业\",\"priority\":\"High\"}]\n```";
+                }
+                return "{\"title\":\"" + user.substring(user.indexOf("任务描述：") + 5) + "\"}";
+            }
+        };
+        AiAssistantService service = new AiAssistantService(stub, new ObjectMapper(), Runnable::run, 3000, 40,
+                false, 0.8, 1, Duration.ZERO, new SimpleMeterRegistry());
+
+        List<Map<String, Object>> out = service.parseTasks(List.of("交高数作业", "复习英语", "写实验报告"));
+
+        assertEquals(3, out.size());
+        assertEquals(Map.of("title", "交高数作业", "priority", "High"), out.get(0));
+        assertEquals("复习英语", out.get(1).get("title"));
+        assertEquals("写实验报告", out.get(2).get("title"));
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    void anUpstreamFaultFailsTheChunkWithoutPerItemRetries() {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        AiStudioChatClient stub = new AiStudioChatClient(new AiStudioProperties(), RestClient.builder(),
+                new ObjectMapper(), new SimpleMeterRegistry(), new HedgeBudget(0.05)) {
+            @Override
+            public String chat(String system, String user, double temperature, int maxTokens, Predicate<String> valid) {
+                calls.add(user);
+                throw new UpstreamUnavailableException("aistudio 熔断中", Duration.ofSeconds(5));
+            }
+        };
+        AiAssistantService service = new AiAssistantService(stub, new ObjectMapper(), Runnable::run, 3000, 40,
+                false, 0.8, 1, Duration.ZERO, new SimpleMeterRegistry());
+
+        List<Map<String, Object>> out = service.parseTasks(List.of("交高数作业", "复习英语", "写实验报告"));
+
+        assertEquals(1, calls.size());
+        out.forEach(result -> assertEquals(Map.of("error", "aistudio 熔断中"), result));
+    }
+
+    @Test
+    void concurrentCallsShareOneBatchPrompt() {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        ObjectMapper om = new ObjectMapper();
+        AiStudioChatClient stub = new AiStudioChatClient(new AiStudioProperties(), RestClient.builder(),
+                om, new SimpleMeterRegistry(), new HedgeBudget(0.05)) {
+            @Override
+            public String chat(String system, String user, double temperature, int maxTokens, Predicate<String> valid) {
+                calls.add(user);
+                try {
+                    // Echo every input back as its own title.
+                    var items = om.readTree(user.substring(user.indexOf("任务列表：") + 5));
+                    var out = om.createArrayNode();
+                    items.forEach(it -> out.addObject().put("index", it.get("index").asInt()).put("title", it.get("text").asText()));
+                    return out.toString();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiAssistantService service = new AiAssistantService(stub, om, Runnable::run, 3000, 40,
+                false, 0.8, 3, Duration.ofSeconds(5), registry);
+
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        try {
+            List<CompletableFuture<Map<String, Object>>> callers = List.of("甲", "乙", "丙").stream()
+                    .map(input -> CompletableFuture.supplyAsync(() -> service.parseTask(input), threads))
+                    .toList();
+
+            assertEquals(List.of("甲", "乙", "丙"), callers.stream().map(f -> f.join().get("title")).toList());
+        } finally {
+            threads.shutdown();
+        }
+        assertEquals(1, calls.size());
+        assertEquals(3.0, registry.get("task.parse.batch.size").summary().max());
+    }
+}
@@ -0,0 +1,60 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.util.JsonArrayElementStream;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactExtractionTest {
+
+    private static final String RAW = """
+            {"courses":["离散数学[06]","大学英语"],"rules":[[1,2,3,2,1,16,0,"B202","李四"],[0,1,1,2,1,18,1,"A101","张三"],[0,1,1,2,1,18,1,"A101","张三"]]}""";
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    void expandsTuplesIntoTheNdjsonImportFormat() throws Exception {
+        JsonNode root = om.readTree(RAW);
+        assertTrue(CompactExtraction.isCompact(root));
+
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        CompactExtraction.addTo(root, builder, om);
+        String[] lines = builder.build().split("\n");
+
+        assertEquals(5, lines.length);
+        JsonNode courses = om.readTree(lines[3]);
+        JsonNode rules = om.readTree(lines[4]);
+        assertEquals("大学英语", courses.get(1).get("courseName").asText());
+        // The duplicate tuple is dropped by the builder's rule dedupe.
+        assertEquals(2, rules.size());
+        JsonNode english = rules.get(0);
+        assertEquals(1, english.get("id").asInt());
+        assertEquals(2, english.get("day").asInt());
+        assertEquals(3, english.get("startNode").asInt());
+        assertEquals(16, english.get("endWeek").asInt());
+        assertEquals("李四", english.get("teacher").asText());
+        assertEquals(TimetableNdjsonBuilder.TABLE_ID, english.get("tableId").asInt());
+        assertEquals(1, rules.get(1).get("type").asInt());
+    }
+
+    @Test
+    void streamsCourseNamesAndTuplesAsTheyComplete() {
+        List<String> seen = new ArrayList<>();
+        JsonArrayElementStream stream = new JsonArrayElementStream(
+                Set.of(CompactExtraction.COURSES, CompactExtraction.RULES), (key, json) -> seen.add(key + " " + json));
+        for (int i = 0; i < RAW.length(); i += 7) {
+            stream.feed(RAW.substring(i, Math.min(RAW.length(), i + 7)));
+        }
+
+        assertEquals(5, seen.size());
+        assertEquals("courses \"离散数学[06]\"", seen.get(0));
+        assertEquals("rules [1,2,3,2,1,16,0,\"B202\",\"李四\"]", seen.get(2));
+    }
+}
@@ -0,0 +1,160 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.ImportProperties;
+import com.kickstart.timetable.config.PaddleProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final AtomicInteger ocrCalls = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private HttpServer stub;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        // Answers after 3 s: every test expects the call to be skipped or aborted long before that.
+        stub.createContext("/layout-parsing", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            ocrCalls.incrementAndGet();
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] body = "{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":\"slow\"}}]}}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stop() {
+        stub.stop(0);
+    }
+
+    private PaddleLayoutParsingClient paddle() {
+        PaddleProperties props = new PaddleProperties();
+        props.setApiUrl("http://127.0.0.1:" + stub.getAddress().getPort() + "/layout-parsing");
+        props.setToken("test");
+        return new PaddleLayoutParsingClient(props, RestClient.builder(), om, registry, new HedgeBudget(0));
+    }
+
+    private double deadlineCalls(String outcome) {
+        return registry.get("deadline.calls").tag("upstream", "paddle").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void expiryAbortsTheInFlightUpstreamCall() {
+        PaddleLayoutParsingClient paddle = paddle();
+        long start = System.nanoTime();
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(300)).bind()) {
+            assertThrows(DeadlineExceededException.class, () -> paddle.extractMarkdown(new byte[]{1, 2, 3}, 1));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertEquals(1.0, deadlineCalls("aborted"));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void cancellingFromAnotherThreadAbortsTheCall() throws Exception {
+        PaddleLayoutParsingClient paddle = paddle();
+        Deadline deadline = Deadline.unbounded();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<Object> call = CompletableFuture.supplyAsync(() -> {
+                try (Deadline.Scope ignored = deadline.bind()) {
+                    return paddle.extractMarkdown(new byte[]{1, 2, 3}, 1);
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            }, caller);
+            long wait = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (ocrCalls.get() == 0 && System.nanoTime() < wait) Thread.sleep(10);
+            deadline.cancel("客户端已断开");
+
+            Object outcome = call.get(2, TimeUnit.SECONDS);
+            assertTrue(outcome instanceof DeadlineExceededException, String.valueOf(outcome));
+            assertEquals("客户端已断开", ((DeadlineExceededException) outcome).getMessage());
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void noCallIsStartedOnceTheDeadlineHasEnded() {
+        PaddleLayoutParsingClient paddle = paddle();
+        Deadline deadline = Deadline.unbounded();
+        deadline.cancel("客户端已断开");
+        try (Deadline.Scope ignored = deadline.bind()) {
+            assertThrows(DeadlineExceededException.class, () -> paddle.extractMarkdown(new byte[]{1, 2, 3}, 1));
+        }
+        assertEquals(0, ocrCalls.get());
+        assertEquals(1.0, deadlineCalls("skipped"));
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void skipsOcrWhenTheBudgetCannotCoverIt() {
+        ImportProperties importProps = new ImportProperties();
+        importProps.setTypicalOcrLatency(Duration.ofSeconds(5));
+        TimetableAiService timetable = new TimetableAiServiceBuilder().om(om).registry(registry).importProps(importProps)
+                .paddle(paddle()).build();
+
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofSeconds(2)).bind()) {
+            DeadlineExceededException e = assertThrows(DeadlineExceededException.class,
+                    () -> timetable.parseTimetableFromImage(UploadSource.of(new byte[]{1, 2, 3, 4})));
+            assertTrue(e.getMessage().startsWith("ocr"), e.getMessage());
+        }
+        assertEquals(0, ocrCalls.get());
+        assertEquals(1.0, registry.get("deadline.skipped").tag("stage", "ocr").counter().count());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void propagatesToPoolThreadsAndRestoresThePreviousDeadline() throws Exception {
+        Deadline outer = Deadline.unbounded();
+        Deadline inner = Deadline.after(Duration.ofMinutes(1));
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try (Deadline.Scope o = outer.bind()) {
+            try (Deadline.Scope i = inner.bind()) {
+                CompletableFuture<Deadline> seen = new CompletableFuture<>();
+                pool.execute(Deadline.propagate(() -> seen.complete(Deadline.current())));
+                assertSame(inner, seen.get(2, TimeUnit.SECONDS));
+            }
+            assertSame(outer, Deadline.current());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertSame(Deadline.NONE, Deadline.current());
+    }
+}
@@ -0,0 +1,166 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.ImportProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImagePreprocessorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private ImagePreprocessor preprocessor(boolean grayscale, boolean crop) {
+        ImportProperties props = new ImportProperties();
+        props.setMaxLongEdge(1000);
+        props.setGrayscale(grayscale);
+        props.setCropToContent(crop);
+        return new ImagePreprocessor(props, registry);
+    }
+
+    private double codec(String codec) {
+        return registry.get("ocr.preprocess.codec").tag("codec", codec).counter().count();
+    }
+
+    /** A white page with a red-lined grid (the "table") at {@code (x, y)}, {@code w} x {@code h}. */
+    private static BufferedImage page(int width, int height, int x, int y, int w, int h) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(new Color(200, 0, 0));
+            for (int i = 0; i <= 8; i++) {
+                g.fillRect(x + i * (w - 2) / 8, y, 2, h);
+                g.fillRect(x, y + i * (h - 2) / 8, w, 2);
+            }
+        } finally {
+            g.dispose();
+        }
+        return img;
+    }
+
+    private static BufferedImage decode(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    void capsTheLongEdgeAndConvertsToGray() throws IOException {
+        byte[] out = preprocessor(true, false).preprocess(page(3000, 1500, 100, 100, 2800, 1300));
+
+        BufferedImage img = decode(out);
+        assertEquals(1000, img.getWidth());
+        assertEquals(500, img.getHeight());
+        assertEquals(1, img.getRaster().getNumBands());
+    }
+
+    @Test
+    void cropsToTheTableAndKeepsColorWhenGrayscaleIsOff() throws IOException {
+        byte[] out = preprocessor(false, true).preprocess(page(800, 800, 200, 300, 400, 200));
+
+        BufferedImage img = decode(out);
+        // Table plus 2 % padding on each side.
+        assertEquals(400 + 2 * 16, img.getWidth(), 2);
+        assertEquals(200 + 2 * 16, img.getHeight(), 2);
+        assertEquals(3, img.getRaster().getNumBands());
+        int rgb = img.getRGB(16, 16);
+        assertTrue((rgb >> 16 & 0xFF) > 150 && (rgb >> 8 & 0xFF) < 80, Integer.toHexString(rgb));
+    }
+
+    @Test
+    void leavesAnImageWithoutAClearTableUncropped() throws IOException {
+        byte[] out = preprocessor(true, true).preprocess(page(600, 400, 5, 5, 590, 390));
+
+        BufferedImage img = decode(out);
+        assertEquals(600, img.getWidth());
+        assertEquals(400, img.getHeight());
+    }
+
+    @Test
+    void picksPngForLineArtJpegForPhotosAndKeepsASmallerOriginal() throws IOException {
+        ImagePreprocessor preprocessor = preprocessor(true, false);
+
+        preprocessor.preprocess(page(800, 600, 50, 50, 700, 500));
+        assertEquals(1.0, codec("png"));
+
+        BufferedImage photo = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(3);
+        for (int y = 0; y < 600; y++) {
+            for (int x = 0; x < 800; x++) {
+                int v = Math.min(255, Math.max(0, (x + y) / 6 + random.nextInt(40)));
+                photo.setRGB(x, y, new Color(v, v, v).getRGB());
+            }
+        }
+        preprocessor.preprocess(photo);
+        assertEquals(1.0, codec("jpeg"));
+
+        // Already a small gray PNG of the right size: nothing to gain, the upload is sent as it is.
+        byte[] original = ImagePreprocessor.encodePng(decode(preprocessor.preprocess(page(800, 600, 50, 50, 700, 500))));
+        assertArrayEquals(original, preprocessor.preprocess(original));
+        assertEquals(1.0, codec("original"));
+    }
+
+    /** A fully transparent screenshot with an opaque dark grid at {@code (x, y)}, {@code w} x {@code h}. */
+    private static BufferedImage transparentPage(int width, int height, int x, int y, int w, int h) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.setColor(new Color(30, 30, 30));
+            for (int i = 0; i <= 8; i++) {
+                g.fillRect(x + i * (w - 6) / 8, y, 6, h);
+                g.fillRect(x, y + i * (h - 6) / 8, w, 6);
+            }
+        } finally {
+            g.dispose();
+        }
+        return img;
+    }
+
+    @Test
+    void transparentAreasBecomeWhiteAndStillCrop() throws IOException {
+        byte[] png = ImagePreprocessor.encodePng(transparentPage(2400, 1600, 600, 400, 1200, 800));
+
+        for (boolean grayscale : new boolean[]{true, false}) {
+            BufferedImage img = decode(preprocessor(grayscale, true).preprocess(UploadSource.of(png)));
+
+            assertFalse(img.getColorModel().hasAlpha());
+            // Scaled by 1000 / 2400: the grid is 500 x 333 plus 2 % padding, not the whole black page.
+            assertEquals(500 + 2 * 20, img.getWidth(), 3);
+            assertEquals(333 + 2 * 13, img.getHeight(), 3);
+            assertEquals(0xFFFFFF, img.getRGB(5, 5) & 0xFFFFFF);
+            assertEquals(0xFFFFFF, img.getRGB(img.getWidth() / 16 + 10, img.getHeight() / 16 + 10) & 0xFFFFFF);
+            int darkest = 255;
+            for (int x = 0; x < img.getWidth(); x++) darkest = Math.min(darkest, img.getRGB(x, img.getHeight() / 2) & 0xFF);
+            assertTrue(darkest < 100, "grid lines lost: " + darkest);
+        }
+
+        // Nothing to scale or crop: the flattened copy is sent, not the transparent original.
+        byte[] small = ImagePreprocessor.encodePng(transparentPage(400, 300, 0, 0, 400, 300));
+        BufferedImage img = decode(preprocessor(false, false).preprocess(small));
+        assertFalse(img.getColorModel().hasAlpha());
+        assertEquals(0xFFFFFF, img.getRGB(20, 20) & 0xFFFFFF);
+    }
+
+    @Test
+    void recordsTheDecodedSizeOfAnEncodedUpload() {
+        byte[] png = ImagePreprocessor.encodePng(page(800, 600, 50, 50, 700, 500));
+        byte[] dataUri = ("data:image/png;base64," + Base64.getEncoder().encodeToString(png)).getBytes(StandardCharsets.US_ASCII);
+
+        preprocessor(true, false).preprocess(UploadSource.of(dataUri));
+
+        assertEquals(png.length, registry.get("ocr.preprocess.bytes").tag("stage", "before").summary().totalAmount(), 2);
+    }
+}
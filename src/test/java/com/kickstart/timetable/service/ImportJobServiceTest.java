@@ -0,0 +1,245 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.api.AiController;
+import com.kickstart.timetable.config.ImportJobProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class ImportJobServiceTest {
+
+    /** OCR output the local table parser explains completely, so no LLM call is made. */
+    private static final String MARKDOWN = """
+            <table>
+            <tr><td>节次</td><td>星期一</td><td>星期二</td><td>星期三</td></tr>
+            <tr><td>第1节</td><td rowspan="2">离散数学<br>1-18周<br>A101<br>张三</td><td rowspan="2">大学英语<br>1-8周<br>B202 李四</td><td></td></tr>
+            <tr><td>第2节</td><td></td></tr>
+            </table>
+            """;
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger ocrCalls = new AtomicInteger();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private HttpServer stub;
+    private ImportJobService jobs;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        // The first OCR call is held until the test releases it, keeping that job running.
+        stub.createContext("/layout-parsing", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (ocrCalls.getAndIncrement() == 0) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            byte[] body = om.writeValueAsBytes(om.createObjectNode().set("result", om.createObjectNode()
+                    .set("layoutParsingResults", om.createArrayNode().add(om.createObjectNode()
+                            .set("markdown", om.createObjectNode().put("text", MARKDOWN))))));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        if (jobs != null) jobs.shutdown();
+        stub.stop(0);
+    }
+
+    private ImportJobService service(int workers, int queueCapacity) {
+        TimetableAiService timetable = new TimetableAiServiceBuilder().om(om).registry(registry)
+                .paddleAt("http://127.0.0.1:" + stub.getAddress().getPort() + "/layout-parsing").build();
+        ImportJobProperties props = new ImportJobProperties();
+        props.setWorkers(workers);
+        props.setQueueCapacity(queueCapacity);
+        jobs = new ImportJobService(timetable, props, registry);
+        return jobs;
+    }
+
+    private static UploadSource png(int size) throws Exception {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return UploadSource.of(out.toByteArray());
+    }
+
+    private static void awaitFinished(ImportJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!job.isFinished() && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue(job.isFinished(), String.valueOf(job.toMap(false)));
+    }
+
+    @Test
+    void reportsStagesAndReturnsTheRunningJobForTheSameContent() throws Exception {
+        ImportJobService jobs = service(2, 10);
+
+        ImportJob job = jobs.submit(png(32), 0).job();
+        List<String> stages = new CopyOnWriteArrayList<>();
+        job.watch(j -> {
+            String stage = String.valueOf(j.toMap(false).get("stage"));
+            if (stages.isEmpty() || !stages.get(stages.size() - 1).equals(stage)) stages.add(stage);
+        });
+
+        ImportJobService.Submission again = jobs.submit(png(32), 0);
+        assertTrue(again.deduplicated());
+        assertSame(job, again.job());
+
+        release.countDown();
+        awaitFinished(job);
+
+        assertEquals(ImportJob.Status.DONE, job.getStatus(), job.getError());
+        assertEquals("local", job.getResult().get("extractor"));
+        assertTrue(String.valueOf(job.getResult().get("ndjson")).contains("离散数学"));
+        assertEquals(List.of("ocr", "extract", "ndjson", "done"), stages.subList(stages.size() - 4, stages.size()));
+        assertEquals(1, ocrCalls.get());
+        assertSame(job, jobs.get(job.getId()));
+        // Finished: the same content is a new job now.
+        assertTrue(!jobs.submit(png(32), 0).deduplicated());
+    }
+
+    @Test
+    void boundsTheQueueAndRunsHigherPriorityFirst() throws Exception {
+        ImportJobService jobs = service(1, 2);
+        ImportJob blocking = jobs.submit(png(16), 0).job();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ocrCalls.get() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+
+        ImportJob low = jobs.submit(png(24), 0).job();
+        ImportJob high = jobs.submit(png(40), 5).job();
+        assertThrows(JobQueueFullException.class, () -> jobs.submit(png(48), 9));
+
+        List<String> finishOrder = new ArrayList<>();
+        for (ImportJob j : List.of(low, high)) {
+            j.watch(w -> {
+                if (w.isFinished()) {
+                    synchronized (finishOrder) {
+                        finishOrder.add(w.getId());
+                    }
+                }
+            });
+        }
+        release.countDown();
+        awaitFinished(blocking);
+        awaitFinished(low);
+        awaitFinished(high);
+
+        assertNotNull(high.getResult());
+        assertEquals(List.of(high.getId(), low.getId()), finishOrder);
+    }
+
+    @Test
+    void aChangeIsNotDeliveredWhileTheWatcherIsStillHandlingTheCurrentState() throws Exception {
+        ImportJobService jobs = service(1, 10);
+        ImportJob job = jobs.submit(png(32), 0).job();
+        List<String> states = new CopyOnWriteArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch delivered = new CountDownLatch(1);
+
+        job.watch(j -> {
+            if (calls.getAndIncrement() == 0) {
+                // Let the job finish while the first state is being handled; it must not finish underneath it.
+                release.countDown();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+                while (!j.isFinished() && System.nanoTime() < deadline) Thread.onSpinWait();
+            }
+            states.add(j.isFinished() ? "finished" : "running");
+            if (j.isFinished()) delivered.countDown();
+        });
+        // The job reads as finished before its watchers are called; wait for the delivery itself.
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of("running", "finished"), List.of(states.get(0), states.get(states.size() - 1)));
+        assertEquals(1, states.stream().filter("finished"::equals).count(), states.toString());
+    }
+
+    @Test
+    void aSubmissionRefusedByTheStoppedPoolLeavesNothingBehind() throws Exception {
+        ImportJobService jobs = service(1, 10);
+        jobs.shutdown();
+
+        assertThrows(RejectedExecutionException.class, () -> jobs.submit(png(32), 0));
+
+        assertEquals(0.0, registry.get("timetable.jobs.queued").gauge().value());
+        assertEquals(0.0, registry.get("timetable.jobs.running").gauge().value());
+        assertEquals(1.0, registry.get("timetable.jobs").tag("result", "rejected").counter().count());
+        // The content is not stuck as "already running": the next attempt is refused again, not deduplicated.
+        assertThrows(RejectedExecutionException.class, () -> jobs.submit(png(32), 0));
+        assertFalse(registry.get("timetable.jobs").tag("result", "deduplicated").counter().count() > 0);
+    }
+
+    @Test
+    void anUnwatchedWatcherIsNotCalledAgain() throws Exception {
+        ImportJobService jobs = service(1, 10);
+        ImportJob job = jobs.submit(png(32), 0).job();
+        AtomicInteger calls = new AtomicInteger();
+        Consumer<ImportJob> watcher = j -> calls.incrementAndGet();
+
+        job.watch(watcher);
+        job.unwatch(watcher);
+        int seen = calls.get();
+        release.countDown();
+        awaitFinished(job);
+
+        assertEquals(seen, calls.get());
+    }
+
+    @Test
+    void eventsEndpointSendsStagesThenOneDone() throws Exception {
+        ImportJobService jobs = service(1, 10);
+        ImportJob job = jobs.submit(png(32), 0).job();
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(new AiController(null, null, null, null, Runnable::run, jobs)).build();
+
+        MvcResult result = mvc.perform(get("/api/ai/parse-schedule-image/jobs/" + job.getId() + "/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        release.countDown();
+        result.getAsyncResult(10_000);
+
+        List<String> events = new ArrayList<>();
+        for (String line : result.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith("event:")) events.add(line.substring(6).trim());
+        }
+        assertEquals("done", events.get(events.size() - 1), events.toString());
+        assertEquals(1, events.stream().filter("done"::equals).count(), events.toString());
+        assertTrue(events.subList(0, events.size() - 1).stream().allMatch("stage"::equals), events.toString());
+    }
+}
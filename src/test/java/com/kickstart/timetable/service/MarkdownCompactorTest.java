@@ -0,0 +1,106 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.ImportProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MarkdownCompactorTest {
+
+    private static final String MARKDOWN = """
+            <div style="text-align: center;"><img src="imgs/header.jpg" alt="Image" width="80%" /></div>
+
+            ## 2025-2026学年第一学期   个人课表
+
+            <html><body><table border="1">
+            <tr><td>节次</td><td>星期一</td><td>星期二</td><td>星期三</td><td>星期四</td><td>星期五</td></tr>
+            <tr><td>第1节</td><td rowspan="2">离散数学[06]<br>1-18周(单)<br>A101 张三</td><td></td><td></td><td></td><td></td></tr>
+            <tr><td>第2节</td><td></td><td></td><td></td><td></td></tr>
+            <tr><td>节次</td><td>星期一</td><td>星期二</td><td>星期三</td><td>星期四</td><td>星期五</td></tr>
+            <tr><td>第3节</td><td></td><td></td><td>高等数学<br>1-16周</td><td></td><td></td></tr>
+            </table></body></html>
+
+            打印时间：2025-09-01
+            <!-- page 2 -->
+            ## 2025-2026学年第一学期   个人课表
+            打印时间：2025-09-01
+            """;
+
+    @Test
+    void rewritesTablesDenselyAndDropsRepeatedNoise() {
+        MarkdownCompactor.Compacted out = MarkdownCompactor.compact(MARKDOWN, TimetableGrid.fromMarkdown(MARKDOWN), 0);
+
+        assertEquals("""
+                2025-2026学年第一学期 个人课表
+                打印时间：2025-09-01
+                [表格1]
+                列: 星期一|星期二|星期三|星期四|星期五
+                第1节: 星期一=离散数学[06] / 1-18周(单) / A101 张三(跨2行)
+                第3节: 星期三=高等数学 / 1-16周""", out.text());
+        assertTrue(out.tokensAfter() < out.tokensBefore() / 2, out.stats().toString());
+        assertFalse(out.truncated());
+    }
+
+    @Test
+    void dropsLooseTextBeforeTableRowsWhenOverBudget() {
+        MarkdownCompactor.Compacted out = MarkdownCompactor.compact(MARKDOWN, TimetableGrid.fromMarkdown(MARKDOWN), 60);
+
+        assertTrue(out.truncated());
+        assertTrue(out.tokensAfter() <= 60, out.stats().toString());
+        assertTrue(out.text().startsWith("[表格1]"), out.text());
+    }
+
+    @Test
+    void splitsByWeekdayColumnsWithSharedTextInTheFirstChunkOnly() {
+        List<MarkdownCompactor.Compacted> parts =
+                MarkdownCompactor.compactByDays(MARKDOWN, TimetableGrid.fromMarkdown(MARKDOWN), 0, 3);
+
+        // Only Monday and Wednesday have courses, so at most two chunks are worth a call.
+        assertEquals(2, parts.size());
+        assertTrue(parts.get(0).text().contains("打印时间"));
+        assertTrue(parts.get(0).text().contains("星期一=离散数学[06]"));
+        assertFalse(parts.get(0).text().contains("高等数学"));
+        assertEquals("""
+                [表格1]
+                列: 星期三
+                第3节: 星期三=高等数学 / 1-16周""", parts.get(1).text());
+    }
+
+    @Test
+    void keepsEveryTableRowWhenTheTablesAloneAreOverBudget() {
+        MarkdownCompactor.Compacted out = MarkdownCompactor.compact(MARKDOWN, TimetableGrid.fromMarkdown(MARKDOWN), 10);
+
+        assertTrue(out.truncated());
+        assertTrue(out.tokensAfter() > 10, out.stats().toString());
+        assertFalse(out.text().contains("打印时间"));
+        assertTrue(out.text().endsWith("第3节: 星期三=高等数学 / 1-16周"), out.text());
+    }
+
+    @Test
+    void overBudgetTablesAreSplitByWeekdayInsteadOfCut() {
+        int tablesOnly = MarkdownCompactor.compact(MARKDOWN, TimetableGrid.fromMarkdown(MARKDOWN), 1).tokensAfter();
+        ImportProperties props = new ImportProperties();
+        props.setLocalParseEnabled(false);
+        props.setExtractionMode(ImportProperties.ExtractionMode.SINGLE);
+        props.setPromptTokenBudget(tablesOnly - 1);
+        List<String> prompts = new CopyOnWriteArrayList<>();
+        TimetableAiService timetable = new TimetableAiServiceBuilder().importProps(props)
+                .ocr(image -> MARKDOWN)
+                .extraction(user -> {
+                    prompts.add(user);
+                    return "{\"courses\":[],\"rules\":[]}";
+                })
+                .build();
+
+        timetable.parseTimetableFromImage(UploadSource.of(new byte[]{1, 2, 3, 4}));
+
+        assertEquals(2, prompts.size());
+        assertTrue(prompts.stream().anyMatch(p -> p.contains("星期一=离散数学[06]")), prompts.toString());
+        assertTrue(prompts.stream().anyMatch(p -> p.contains("星期三=高等数学")), prompts.toString());
+    }
+}
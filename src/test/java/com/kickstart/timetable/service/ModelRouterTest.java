@@ -0,0 +1,111 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.AiStudioProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModelRouterTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private static AiStudioProperties.Routing routing() {
+        AiStudioProperties.Routing r = new AiStudioProperties.Routing();
+        r.setEnabled(true);
+        r.setFastModel("fast");
+        r.setSmallInputTokens(100);
+        r.setMinSamples(3);
+        r.setSlowLatency(Duration.ofMillis(500));
+        return r;
+    }
+
+    @Test
+    void routesBySizeAndBacksOffFromASlowFastModel() {
+        ModelRouter router = new ModelRouter(routing(), new SimpleMeterRegistry());
+
+        assertEquals("fast", router.route("strong", 50).model());
+        assertEquals("strong", router.route("strong", 500).model());
+
+        for (int i = 0; i < 3; i++) router.record("fast", Duration.ofSeconds(2).toNanos());
+        assertEquals(new ModelRouter.Route("strong", "slow"), router.route("strong", 50));
+
+        // Once the strong model is measured even slower, the fast one is preferred again.
+        for (int i = 0; i < 3; i++) router.record("strong", Duration.ofSeconds(5).toNanos());
+        assertEquals("fast", router.route("strong", 50).model());
+        assertEquals(2000, router.percentileMillis("fast"));
+    }
+
+    @Test
+    void probesABackedOffFastModelAndUsesItAgainOnceItRecovers() throws Exception {
+        AiStudioProperties.Routing routing = routing();
+        routing.setProbeInterval(Duration.ofMillis(100));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ModelRouter router = new ModelRouter(routing, registry);
+        for (int i = 0; i < 3; i++) router.record("fast", Duration.ofSeconds(2).toNanos());
+        for (int i = 0; i < 3; i++) router.record("strong", Duration.ofSeconds(1).toNanos());
+
+        Thread.sleep(150);
+        assertEquals(new ModelRouter.Route("fast", "probe"), router.route("strong", 50));
+        // One probe per interval; the rest keep going to the strong model meanwhile.
+        assertEquals(new ModelRouter.Route("strong", "slow"), router.route("strong", 50));
+
+        // A slow probe keeps it backed off.
+        router.record("fast", Duration.ofSeconds(3).toNanos());
+        Thread.sleep(150);
+        assertEquals("probe", router.route("strong", 50).reason());
+        assertEquals("slow", router.route("strong", 50).reason());
+
+        // A fast probe clears the old samples and small inputs go to the fast model again.
+        router.record("fast", Duration.ofMillis(200).toNanos());
+        assertEquals(new ModelRouter.Route("fast", "small"), router.route("strong", 50));
+        assertEquals(-1, router.percentileMillis("fast"));
+        assertEquals(2.0, registry.get("aistudio.route").tag("reason", "probe").counter().count());
+    }
+
+    @Test
+    void escalatesToTheStrongModelWhenTheFastAnswerIsInvalid() throws Exception {
+        List<String> models = new CopyOnWriteArrayList<>();
+        HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/chat/completions", exchange -> {
+            JsonNode req = om.readTree(exchange.getRequestBody());
+            String model = req.get("model").asText();
+            models.add(model);
+            String content = model.equals("fast") ? "抱歉，我无法输出" : "{\"title\":\"交作业\"}";
+            byte[] body = om.writeValueAsBytes(om.createObjectNode().put("model", model)
+                    .set("choices", om.createArrayNode().add(om.createObjectNode()
+                            .set("message", om.createObjectNode().put("role", "assistant").put("content", content)))));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+        try {
+            AiStudioProperties props = new AiStudioProperties();
+            props.setBaseUrl("http://127.0.0.1:" + stub.getAddress().getPort());
+            props.setApiKey("test");
+            props.setModel("chat-model");
+            props.setStructuredModel("strong");
+            props.setRouting(routing());
+            AiStudioChatClient client = new AiStudioChatClient(props, RestClient.builder(), om, new SimpleMeterRegistry(),
+                    new HedgeBudget(0.05));
+
+            String out = client.chatStructuredJsonObject("sys", "明天交作业", 0.1, 256);
+
+            assertEquals("{\"title\":\"交作业\"}", out);
+            assertEquals(List.of("fast", "strong"), models);
+        } finally {
+            stub.stop(0);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.OcrCacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrResultCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void servesRepeatUploadsFromMemoryAndDiskAcrossRestarts() {
+        byte[] image = "fake-png-bytes".getBytes(StandardCharsets.UTF_8);
+        AtomicInteger ocrCalls = new AtomicInteger();
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OcrResultCache cache = new OcrResultCache(props(256L * 1024 * 1024), registry);
+        assertEquals("| 周一 |", cache.getOrLoad(image, 1, () -> {
+            ocrCalls.incrementAndGet();
+            return "| 周一 |";
+        }));
+        assertEquals("| 周一 |", cache.getOrLoad(image, 1, () -> "x" + ocrCalls.incrementAndGet()));
+        assertEquals(1, ocrCalls.get());
+        assertEquals(1.0, registry.get("ocr.cache.lookups").tag("tier", "memory").tag("result", "hit").counter().count());
+        cache.close();
+
+        SimpleMeterRegistry restarted = new SimpleMeterRegistry();
+        OcrResultCache reopened = new OcrResultCache(props(256L * 1024 * 1024), restarted);
+        assertEquals("| 周一 |", reopened.getOrLoad(image, 1, () -> "x" + ocrCalls.incrementAndGet()));
+        assertEquals(1, ocrCalls.get());
+        assertEquals(1.0, restarted.get("ocr.cache.lookups").tag("tier", "disk").tag("result", "hit").counter().count());
+        reopened.close();
+    }
+
+    @Test
+    void compactsSegmentFileWhenOverCap() {
+        long cap = 64 * 1024;
+        OcrResultCache cache = new OcrResultCache(props(cap), new SimpleMeterRegistry());
+        String markdown = "课".repeat(4000);
+        for (int i = 0; i < 40; i++) {
+            cache.getOrLoad(("image-" + i).getBytes(StandardCharsets.UTF_8), 1, () -> markdown);
+        }
+        assertTrue(dir.resolve("ocr-cache.seg").toFile().length() <= cap);
+        cache.close();
+    }
+
+    @Test
+    void aFileFromALargerCapIsCompactedOnLoadAndHugeCapsAreClamped() {
+        String markdown = "课".repeat(4000);
+        OcrResultCache big = new OcrResultCache(props(Long.MAX_VALUE), new SimpleMeterRegistry());
+        for (int i = 0; i < 40; i++) {
+            big.getOrLoad(("image-" + i).getBytes(StandardCharsets.UTF_8), 1, () -> markdown);
+        }
+        assertEquals(markdown, big.getOrLoad("image-0".getBytes(StandardCharsets.UTF_8), 1, () -> "reloaded"));
+        big.close();
+        assertTrue(dir.resolve("ocr-cache.seg").toFile().length() > 64 * 1024);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OcrResultCache small = new OcrResultCache(props(64 * 1024), registry);
+        assertTrue(dir.resolve("ocr-cache.seg").toFile().length() <= 64 * 1024);
+        // The newest records survive the compaction.
+        assertEquals(markdown, small.getOrLoad("image-39".getBytes(StandardCharsets.UTF_8), 1, () -> "reloaded"));
+        assertEquals(1.0, registry.get("ocr.cache.lookups").tag("tier", "disk").tag("result", "hit").counter().count());
+        small.close();
+    }
+
+    @Test
+    void diskErrorTurnsTheDiskTierOffButKeepsServing() throws Exception {
+        // A non-empty directory where compaction writes its temporary file makes the compaction fail.
+        Files.createDirectories(dir.resolve("ocr-cache.seg.compact").resolve("blocker"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OcrResultCache cache = new OcrResultCache(props(64 * 1024), registry);
+        String markdown = "课".repeat(4000);
+        for (int i = 0; i < 40; i++) {
+            byte[] image = ("image-" + i).getBytes(StandardCharsets.UTF_8);
+            assertEquals(markdown, cache.getOrLoad(image, 1, () -> markdown));
+        }
+
+        assertEquals(1.0, registry.get("ocr.cache.disk.errors").counter().count());
+        assertEquals(0.0, registry.get("ocr.cache.entries").tag("tier", "disk").gauge().value());
+        double diskMisses = registry.get("ocr.cache.lookups").tag("tier", "disk").tag("result", "miss").counter().count();
+        cache.getOrLoad("image-new".getBytes(StandardCharsets.UTF_8), 1, () -> markdown);
+        assertEquals(diskMisses, registry.get("ocr.cache.lookups").tag("tier", "disk").tag("result", "miss").counter().count());
+        cache.close();
+    }
+
+    private OcrCacheProperties props(long diskMaxBytes) {
+        OcrCacheProperties props = new OcrCacheProperties();
+        props.setDiskDir(dir.toString());
+        props.setDiskMaxBytes(diskMaxBytes);
+        return props;
+    }
+}
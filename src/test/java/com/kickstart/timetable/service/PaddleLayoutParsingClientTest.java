@@ -0,0 +1,81 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.PaddleProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class PaddleLayoutParsingClientTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private HttpServer stub;
+    private PaddleLayoutParsingClient client;
+    /** The last request body, as JSON. */
+    private volatile JsonNode received;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/layout-parsing", exchange -> {
+            received = om.readTree(exchange.getRequestBody());
+            byte[] body = "{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":\"ok\"}}]}}"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+
+        PaddleProperties props = new PaddleProperties();
+        props.setApiUrl("http://127.0.0.1:" + stub.getAddress().getPort() + "/layout-parsing");
+        props.setToken("test");
+        client = new PaddleLayoutParsingClient(props, RestClient.builder(), om, new SimpleMeterRegistry(), new HedgeBudget(0));
+    }
+
+    @AfterEach
+    void stop() {
+        stub.stop(0);
+    }
+
+    @Test
+    void streamedFileFieldIsTheStandardPaddedBase64OfTheFile() {
+        Random random = new Random(7);
+        // Every padding case, plus files spanning many of Jackson's encode chunks.
+        for (int size : new int[]{0, 1, 2, 3, 4, 5, 57, 58, 76, 77, 8_000, 65_537, 300_001}) {
+            byte[] file = new byte[size];
+            random.nextBytes(file);
+
+            assertEquals("ok", client.extractMarkdown(file, 1));
+
+            assertEquals(Base64.getEncoder().encodeToString(file), received.get("file").asText(), "size " + size);
+            assertEquals(1, received.get("fileType").asInt());
+        }
+    }
+
+    @Test
+    void sendsTheFlagsNextToTheFile() {
+        client.extractMarkdown(new byte[]{1, 2, 3}, 0);
+
+        assertEquals(0, received.get("fileType").asInt());
+        assertFalse(received.get("useDocOrientationClassify").asBoolean());
+        assertFalse(received.get("useDocUnwarping").asBoolean());
+        assertFalse(received.get("useChartRecognition").asBoolean());
+        assertFalse(received.get("visualize").asBoolean());
+    }
+}
@@ -0,0 +1,56 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PaddleMarkdownReaderTest {
+
+    private static String read(String json) throws IOException {
+        return PaddleMarkdownReader.read(new JsonFactory(), new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void skipsLargeAndLookalikeFieldsAroundThePath() throws IOException {
+        String image = "A".repeat(200_000);
+        String json = """
+                {"logId":"x","errorCode":0,
+                 "text":"top-level decoy",
+                 "result":{
+                   "dataInfo":{"width":1024,"height":768,"markdown":{"text":"decoy"}},
+                   "layoutParsingResults":[
+                     {"prunedResult":{"parsing_res_list":[{"block_bbox":[1,2,3,4],"text":"block"}]},
+                      "outputImages":{"layout_det_res":"%s"},
+                      "markdown":{"images":{"imgs/a.jpg":"%s"},"isStart":true,"text":"<table><tr><td>星期一</td></tr></table>","isEnd":true}},
+                     {"markdown":{"text":"second page"}}
+                   ]},
+                 "trailing":[{"deep":[[1,[2,{"x":"%s"}]]]}]}
+                """.formatted(image, image, image);
+
+        assertEquals("<table><tr><td>星期一</td></tr></table>", read(json));
+    }
+
+    @Test
+    void returnsNullWhenThePathIsMissingOrNotAString() throws IOException {
+        assertNull(read("{\"errorCode\":500,\"errorMsg\":\"busy\"}"));
+        assertNull(read("{\"result\":{\"layoutParsingResults\":[]}}"));
+        assertNull(read("{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":null}}]}}"));
+        assertNull(read("{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":{\"v\":1}}}]}}"));
+        assertNull(read("[{\"result\":{}}]"));
+        assertNull(read(""));
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertThrows(JsonParseException.class,
+                () -> read("{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":\"ok\"}}]},\"x\":}"));
+    }
+}
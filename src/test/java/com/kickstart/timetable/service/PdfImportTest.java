@@ -0,0 +1,150 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.ImportProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfImportTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService ocrPool = Executors.newFixedThreadPool(4);
+    private final ImportProperties importProps = new ImportProperties();
+
+    PdfImportTest() {
+        importProps.setPdfDpi(72);
+    }
+
+    @AfterEach
+    void stop() {
+        ocrPool.shutdownNow();
+    }
+
+    /** Page {@code i} (from 0) is {@code 100 + 50 i} points wide, so the OCR stub can tell pages apart. */
+    private static byte[] pdf(int pages) throws IOException {
+        try (PDDocument doc = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(new PDRectangle(100 + 50 * i, 100));
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.addRect(10, 10, 40, 40);
+                    content.fill();
+                }
+            }
+            doc.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static int pageOf(byte[] image) {
+        try {
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(image));
+            return (img.getWidth() - 100) / 50;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** OCR stub answering {@code ocr.apply(page)} for each rendered page. */
+    private TimetableAiService timetable(IntFunction<String> ocr) {
+        return new TimetableAiServiceBuilder().om(om).registry(registry).importProps(importProps)
+                .ocr(image -> ocr.apply(pageOf(image)))
+                .extraction("{\"courses\":[],\"rules\":[]}")
+                .ocrPageExecutor(ocrPool::execute)
+                .build();
+    }
+
+    @Test
+    void rendersEveryPageInOrderUpToTheLimit() throws IOException {
+        importProps.setPdfMaxPages(3);
+        List<Integer> widths = new ArrayList<>();
+
+        int total = new PdfPageRenderer(importProps).renderPages(UploadSource.of(pdf(4)), image -> widths.add(image.getWidth()));
+
+        assertEquals(4, total);
+        assertEquals(List.of(100, 150, 200), widths);
+    }
+
+    @Test
+    void ocrsPagesConcurrentlyAndMergesThemInPageOrder() throws IOException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        TimetableAiService timetable = timetable(page -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                // Earlier pages finish later.
+                Thread.sleep(300 - 100L * page);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            return "第" + (page + 1) + "页";
+        });
+
+        Map<String, Object> out = timetable.parseTimetableFromImage(UploadSource.of(pdf(3)));
+
+        assertEquals("<!-- page 1 -->\n\n第1页\n\n<!-- page 2 -->\n\n第2页\n\n<!-- page 3 -->\n\n第3页", out.get("markdown"));
+        assertTrue(maxRunning.get() > 1, "pages were OCR'd one at a time");
+    }
+
+    @Test
+    void aFailedPageInterruptsThePagesStillRunning() throws IOException {
+        AtomicInteger blocked = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        TimetableAiService timetable = timetable(page -> {
+            if (page == 0) throw new IllegalStateException("第1页识别失败");
+            blocked.incrementAndGet();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+                throw new IllegalStateException(e);
+            }
+            return "不应返回";
+        });
+
+        long start = System.nanoTime();
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> timetable.parseTimetableFromImage(UploadSource.of(pdf(3))));
+
+        assertEquals("第1页识别失败", e.getMessage());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+        ocrPool.shutdown();
+        assertTrue(awaitQuietly());
+        // Pages not started yet are simply dropped; the ones already waiting on OCR are interrupted.
+        assertEquals(blocked.get(), interrupted.get());
+    }
+
+    private boolean awaitQuietly() {
+        try {
+            return ocrPool.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+}
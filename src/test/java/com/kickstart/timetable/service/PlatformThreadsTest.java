@@ -0,0 +1,45 @@
+package com.kickstart.timetable.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlatformThreadsTest {
+
+    @Test
+    void movesWorkOffVirtualThreadsOnly() throws Exception {
+        ExecutorService platform = Executors.newSingleThreadExecutor();
+        try {
+            AtomicBoolean ranOnVirtual = new AtomicBoolean(true);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    PlatformThreads.call(platform, () -> {
+                        ranOnVirtual.set(Thread.currentThread().isVirtual());
+                        return null;
+                    });
+                    PlatformThreads.call(platform, () -> {
+                        throw new IllegalStateException("PDF 渲染失败");
+                    });
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }).join();
+            assertFalse(ranOnVirtual.get());
+            // The original exception reaches the caller, not a CompletionException.
+            assertTrue(error.get() instanceof IllegalStateException, String.valueOf(error.get()));
+
+            Thread caller = Thread.currentThread();
+            assertEquals(caller, PlatformThreads.call(platform, Thread::currentThread));
+        } finally {
+            platform.shutdownNow();
+        }
+    }
+}
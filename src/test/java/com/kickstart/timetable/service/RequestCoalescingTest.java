@@ -0,0 +1,182 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.AiStudioProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCoalescingTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private HttpServer stub;
+    private final ExecutorService callers = Executors.newFixedThreadPool(3);
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        // Answers after 500 ms so that concurrent callers overlap with the first one.
+        stub.createContext("/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] body = (status == 200
+                    ? "{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"ok\"}}]}"
+                    : "{\"error\":\"busy\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stop() {
+        callers.shutdownNow();
+        stub.stop(0);
+    }
+
+    private AiStudioChatClient client(SimpleMeterRegistry registry) {
+        AiStudioProperties props = new AiStudioProperties();
+        props.setBaseUrl("http://127.0.0.1:" + stub.getAddress().getPort());
+        props.setApiKey("test");
+        props.setModel("chat-model");
+        return new AiStudioChatClient(props, RestClient.builder(), om, registry, new HedgeBudget(0.05));
+    }
+
+    /** Three identical calls at once; each entry is the answer or the error message. */
+    private List<String> concurrentCalls(AiStudioChatClient client) throws Exception {
+        List<Future<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(callers.submit(() -> {
+                try {
+                    // Above aistudio.cache.max-temperature: only coalescing can save the duplicate calls.
+                    return client.chat("sys", "同一张课表", 0.7, 64);
+                } catch (RuntimeException e) {
+                    return "error:" + e.getMessage();
+                }
+            }));
+        }
+        List<String> out = new ArrayList<>();
+        for (Future<String> f : calls) out.add(f.get(5, TimeUnit.SECONDS));
+        return out;
+    }
+
+    @Test
+    void identicalConcurrentCallsShareOneUpstreamRequest() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AiStudioChatClient client = client(registry);
+
+        assertEquals(List.of("ok", "ok", "ok"), concurrentCalls(client));
+        assertEquals(1, requests.get());
+        assertEquals(2.0, registry.get("aistudio.singleflight").tag("role", "shared").counter().count());
+    }
+
+    @Test
+    void failuresReachEveryWaiterAndAreNotKept() throws Exception {
+        AiStudioChatClient client = client(new SimpleMeterRegistry());
+        status = 500;
+
+        for (String out : concurrentCalls(client)) assertTrue(out.startsWith("error:"), out);
+        assertEquals(1, requests.get());
+
+        status = 200;
+        assertEquals("ok", client.chat("sys", "同一张课表", 0.7, 64));
+        assertEquals(2, requests.get());
+    }
+
+    /** Timetable import whose OCR takes 500 ms, counts its calls in {@code ocrCalls} and fails while {@code status} isn't 200. */
+    private TimetableAiService timetable(AtomicInteger ocrCalls, SimpleMeterRegistry registry) {
+        return new TimetableAiServiceBuilder().om(om).registry(registry)
+                .ocr(file -> {
+                    ocrCalls.incrementAndGet();
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    if (status != 200) throw new IllegalStateException("PaddleOCR 调用失败: HTTP " + status);
+                    return "周一 第1-2节 离散数学";
+                })
+                .extraction("{\"courses\":[],\"rules\":[]}")
+                .build();
+    }
+
+    /** The same file uploaded three times at once, one of them as a data URI; each entry is the result or the error. */
+    private List<Object> concurrentUploads(TimetableAiService timetable) throws Exception {
+        byte[] file = "同一张课表截图".getBytes(StandardCharsets.UTF_8);
+        byte[] dataUri = ("data:image/png;base64," + Base64.getEncoder().encodeToString(file)).getBytes(StandardCharsets.US_ASCII);
+        List<Future<Object>> calls = new ArrayList<>();
+        for (byte[] upload : List.of(file, dataUri, file)) {
+            calls.add(callers.submit(() -> {
+                try {
+                    return timetable.parseTimetableFromImage(UploadSource.of(upload));
+                } catch (RuntimeException e) {
+                    return "error:" + e.getMessage();
+                }
+            }));
+        }
+        List<Object> out = new ArrayList<>();
+        for (Future<Object> f : calls) out.add(f.get(5, TimeUnit.SECONDS));
+        return out;
+    }
+
+    @Test
+    void identicalConcurrentUploadsShareOneOcrCall() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AtomicInteger ocrCalls = new AtomicInteger();
+
+        List<Object> results = concurrentUploads(timetable(ocrCalls, registry));
+
+        assertEquals(1, ocrCalls.get());
+        for (Object r : results) {
+            assertEquals("周一 第1-2节 离散数学", ((Map<?, ?>) r).get("markdown"), String.valueOf(r));
+        }
+        // Every caller gets its own map.
+        assertNotSame(results.get(0), results.get(2));
+        assertEquals(2.0, registry.get("timetable.import.singleflight").tag("role", "shared").counter().count());
+    }
+
+    @Test
+    void aFailedUploadReachesEveryWaiterAndIsNotKept() throws Exception {
+        AtomicInteger ocrCalls = new AtomicInteger();
+        TimetableAiService timetable = timetable(ocrCalls, new SimpleMeterRegistry());
+        status = 503;
+
+        for (Object out : concurrentUploads(timetable)) {
+            assertEquals("error:PaddleOCR 调用失败: HTTP 503", out);
+        }
+        assertEquals(1, ocrCalls.get());
+
+        status = 200;
+        Map<String, Object> retried = timetable.parseTimetableFromImage(UploadSource.of("同一张课表截图".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("周一 第1-2节 离散数学", retried.get("markdown"));
+        assertEquals(2, ocrCalls.get());
+    }
+}
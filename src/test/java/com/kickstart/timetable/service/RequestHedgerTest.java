@@ -0,0 +1,124 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.PaddleProperties;
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHedgerTest {
+
+    private static final byte[] OCR_RESPONSE =
+            "{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":\"课表\"}}]}}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer stub;
+    /** Zero-based number of the request the stub stalls for 3 s; every other request answers at once. */
+    private final AtomicInteger stallRequest = new AtomicInteger(-1);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/layout-parsing", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (requests.getAndIncrement() == stallRequest.get()) {
+                try {
+                    Thread.sleep(3000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, OCR_RESPONSE.length);
+            exchange.getResponseBody().write(OCR_RESPONSE);
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+    }
+
+    private PaddleLayoutParsingClient client(double budget, SimpleMeterRegistry registry) {
+        PaddleProperties props = new PaddleProperties();
+        props.setApiUrl("http://127.0.0.1:" + stub.getAddress().getPort() + "/layout-parsing");
+        props.setToken("test");
+        props.getHttp().setHedgeEnabled(true);
+        props.getHttp().setHedgeMinSamples(3);
+        props.getHttp().setHedgeMinDelay(Duration.ofMillis(100));
+        return new PaddleLayoutParsingClient(props, RestClient.builder(), new ObjectMapper(), registry, new HedgeBudget(budget));
+    }
+
+    @Test
+    void hedgesAStalledCallAndCancelsTheLoser() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PaddleLayoutParsingClient paddle = client(0.5, registry);
+        for (int i = 0; i < 3; i++) paddle.extractMarkdown(new byte[]{1, 2, 3}, 1);
+
+        stallRequest.set(3);
+        long start = System.nanoTime();
+        assertEquals("课表", paddle.extractMarkdown(new byte[]{1, 2, 3}, 1));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2000));
+        assertEquals(1.0, registry.get("upstream.hedge").tag("result", "sent").counter().count());
+        assertEquals(1.0, registry.get("upstream.hedge").tag("result", "won").counter().count());
+        // The cancelled attempt gives its connection slot back without waiting for the stalled response.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (registry.get("upstream.http.pool.active").gauge().value() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0.0, registry.get("upstream.http.pool.active").gauge().value());
+    }
+
+    @Test
+    void doesNotHedgeWithoutBudget() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PaddleLayoutParsingClient paddle = client(0, registry);
+        for (int i = 0; i < 3; i++) paddle.extractMarkdown(new byte[]{1}, 1);
+
+        stallRequest.set(3);
+        long start = System.nanoTime();
+        assertEquals("课表", paddle.extractMarkdown(new byte[]{1}, 1));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(2500));
+        assertEquals(0.0, registry.get("upstream.hedge").tag("result", "sent").counter().count());
+        assertEquals(1.0, registry.get("upstream.hedge").tag("result", "no_budget").counter().count());
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void attemptsRunOnVirtualThreadsUnderTheCallersDeadline() {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        props.setHedgeEnabled(true);
+        props.setHedgeMinSamples(1);
+        RequestHedger hedger = new RequestHedger("test", props, new HedgeBudget(0), new SimpleMeterRegistry());
+        // The first call has no latency sample to hedge on and runs on the caller's thread.
+        hedger.call(() -> null);
+
+        Deadline deadline = Deadline.after(Duration.ofSeconds(5));
+        try (Deadline.Scope ignored = deadline.bind()) {
+            Thread caller = Thread.currentThread();
+            Thread worker = hedger.call(Thread::currentThread);
+            assertTrue(worker != caller && worker.isVirtual(), worker.toString());
+            assertSame(deadline, hedger.call(Deadline::current));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kickstart.timetable.config.AiStudioProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseCacheTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String finishReason = "stop";
+    private HttpServer stub;
+    private AiStudioChatClient client;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // Every answer is different, so a cached one is recognizable.
+        stub.createContext("/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            ObjectNode resp = om.createObjectNode();
+            resp.putArray("choices").addObject().put("finish_reason", finishReason)
+                    .putObject("message").put("role", "assistant").put("content", "answer " + requests.incrementAndGet());
+            byte[] body = om.writeValueAsBytes(resp);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        stub.start();
+
+        AiStudioProperties props = new AiStudioProperties();
+        props.setBaseUrl("http://127.0.0.1:" + stub.getAddress().getPort());
+        props.setApiKey("test");
+        props.setModel("chat-model");
+        client = new AiStudioChatClient(props, RestClient.builder(), om, registry, new HedgeBudget(0));
+    }
+
+    @AfterEach
+    void stop() {
+        stub.stop(0);
+    }
+
+    private double lookups(String result) {
+        return registry.get("aistudio.cache.lookups").tag("endpoint", "chat").tag("result", result).counter().count();
+    }
+
+    @Test
+    void repeatsAreServedFromTheCacheAndOtherInputsMiss() {
+        assertEquals("answer 1", client.chat("sys", "明天交作业", 0.1, 64));
+        assertEquals("answer 1", client.chat("sys", "明天交作业", 0.1, 64));
+        assertEquals("answer 2", client.chat("sys", "后天交作业", 0.1, 64));
+        assertEquals("answer 3", client.chat("sys", "明天交作业", 0.0, 64));
+
+        assertEquals(3, requests.get());
+        assertEquals(1.0, lookups("hit"));
+        assertEquals(3.0, lookups("miss"));
+    }
+
+    @Test
+    void sampledCallsAboveTheTemperatureGateAreNeitherCachedNorLookedUp() {
+        assertEquals("answer 1", client.chat("sys", "明天交作业", 0.7, 64));
+        assertEquals("answer 2", client.chat("sys", "明天交作业", 0.7, 64));
+
+        assertEquals(2, requests.get());
+        assertEquals(0.0, lookups("hit") + lookups("miss"));
+    }
+
+    @Test
+    void answersCutOffAtMaxTokensAreNotCached() {
+        finishReason = "length";
+        assertEquals("answer 1", client.chat("sys", "明天交作业", 0.1, 64));
+        assertEquals("answer 2", client.chat("sys", "明天交作业", 0.1, 64));
+
+        finishReason = "stop";
+        assertEquals("answer 3", client.chat("sys", "明天交作业", 0.1, 64));
+        assertEquals("answer 3", client.chat("sys", "明天交作业", 0.1, 64));
+        assertEquals(3, requests.get());
+        assertEquals(1.0, lookups("hit"));
+    }
+}
@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -46,6 +47,43 @@ class SchedulePlannerServiceTest {
                 "Tasks should include startDateTime");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void explainReportsUnscheduledTaskWithReason() {
+        LocalDateTime now = LocalDateTime.of(2025, 9, 10, 20, 0);
+        GenerateScheduleRequest request = new GenerateScheduleRequest();
+        request.setCurrentDateTime(OffsetDateTime.of(now, ZoneOffset.ofHours(8)).toString());
+
+        TaskPayload overdue = new TaskPayload();
+        overdue.setId("overdue");
+        overdue.setTitle("已过期作业");
+        overdue.setEstimatedMinutes(60);
+        overdue.setPriority("High");
+        overdue.setDueDateTime(OffsetDateTime.of(now.minusHours(2), ZoneOffset.ofHours(8)).toString());
+
+        TaskPayload easy = new TaskPayload();
+        easy.setId("easy");
+        easy.setTitle("预习");
+        easy.setEstimatedMinutes(45);
+        easy.setPriority("Low");
+        easy.setDueDateTime(OffsetDateTime.of(now.plusDays(2), ZoneOffset.ofHours(8)).toString());
+        request.setTasks(List.of(overdue, easy));
+
+        SchedulePlannerService planner = new SchedulePlannerService();
+        Map<String, Object> result = planner.explainSchedule(request);
+
+        List<Map<String, Object>> unscheduled = (List<Map<String, Object>>) result.get("unscheduled");
+        assertEquals(1, unscheduled.size());
+        assertEquals("overdue", unscheduled.get(0).get("id"));
+        assertEquals("PAST_DEADLINE", unscheduled.get(0).get("reason"));
+
+        List<Map<String, Object>> schedule = (List<Map<String, Object>>) result.get("schedule");
+        assertTrue(schedule.stream().anyMatch(item -> "easy".equals(item.get("id"))));
+        assertEquals(planner.generateSchedule(request).size(), schedule.size(),
+                "Tracing must not change the planned schedule");
+        assertFalse(((List<?>) result.get("trace")).isEmpty());
+    }
+
     private GenerateScheduleRequest readSampleRequest(ObjectMapper mapper) throws IOException {
         try (InputStream input = getClass().getResourceAsStream("/sample-schedule-request.json")) {
             if (input == null) {
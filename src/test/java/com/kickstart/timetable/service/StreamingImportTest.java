@@ -0,0 +1,214 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kickstart.timetable.api.AiController;
+import com.kickstart.timetable.config.AiStudioProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/** The SSE extraction path end to end: AIStudio event stream -> element stream -> builder -> listener / endpoint. */
+class StreamingImportTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService pool = Executors.newSingleThreadExecutor();
+    private HttpServer stub;
+    /** The model's answer, sent one character per SSE event. */
+    private volatile String answer;
+    /** Answer with a plain completion instead, as if stream=true had been ignored. */
+    private volatile boolean plainJson;
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        // No table in the OCR text: the local grid parser gives up and the LLM extraction runs.
+        stub.createContext("/layout-parsing", exchange -> respond(exchange, "application/json",
+                "{\"result\":{\"layoutParsingResults\":[{\"markdown\":{\"text\":\"周一 第1-2节 离散数学\"}}]}}"));
+        stub.createContext("/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (plainJson) {
+                ObjectNode resp = om.createObjectNode();
+                resp.putArray("choices").addObject().put("finish_reason", "stop")
+                        .putObject("message").put("role", "assistant").put("content", answer);
+                respond(exchange, "application/json", om.writeValueAsString(resp));
+                return;
+            }
+            StringBuilder sse = new StringBuilder(": keep-alive\n\n");
+            // Reasoning deltas of thinking models are not part of the answer.
+            sse.append("data: {\"choices\":[{\"delta\":{\"reasoning_content\":\"先看表头\"}}]}\n\n");
+            for (int i = 0; i < answer.length(); i++) {
+                ObjectNode chunk = om.createObjectNode();
+                chunk.putArray("choices").addObject().putObject("delta").put("content", String.valueOf(answer.charAt(i)));
+                sse.append(i % 2 == 0 ? "data: " : "data:").append(om.writeValueAsString(chunk)).append("\n\n");
+            }
+            sse.append("data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n");
+            sse.append("data: [DONE]\n\n");
+            respond(exchange, "text/event-stream", sse.toString());
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stop() {
+        pool.shutdownNow();
+        stub.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", type + ";charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String recorded(String name) throws IOException {
+        try (InputStream in = StreamingImportTest.class.getResourceAsStream("/llm-outputs/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private AiStudioChatClient chatClient() {
+        AiStudioProperties props = new AiStudioProperties();
+        props.setBaseUrl("http://127.0.0.1:" + stub.getAddress().getPort());
+        props.setApiKey("test");
+        props.setModel("chat-model");
+        props.getCache().setEnabled(false);
+        return new AiStudioChatClient(props, RestClient.builder(), om, registry, new HedgeBudget(0));
+    }
+
+    private TimetableAiService timetable() {
+        return new TimetableAiServiceBuilder().om(om).registry(registry)
+                .paddleAt("http://127.0.0.1:" + stub.getAddress().getPort() + "/layout-parsing")
+                .ai(chatClient())
+                .build();
+    }
+
+    /** Records listener calls as "stage ocr", "course 离散数学[06]", "rule 0/1". */
+    private static final class Events implements TimetableStreamListener {
+        final List<String> seen = new ArrayList<>();
+
+        @Override
+        public void onStage(String stage) {
+            seen.add("stage " + stage);
+        }
+
+        @Override
+        public void onCourse(ObjectNode course) {
+            seen.add("course " + course.get("courseName").asText());
+        }
+
+        @Override
+        public void onRule(ObjectNode rule) {
+            seen.add("rule " + rule.get("id").asInt() + "/" + rule.get("day").asInt());
+        }
+    }
+
+    @Test
+    void eventStreamDeltasAreForwardedOneByOneAndJoined() {
+        answer = "{\"s\":\"引号\\\" 反斜杠\\\\ [括号] \\u005b\",\"a\":[[1,[2]],[]]}";
+        List<String> deltas = new ArrayList<>();
+
+        String content = chatClient().chatStructuredJsonObjectStream("sys", "user", 0.1, 256, deltas::add);
+
+        assertEquals(answer, content);
+        assertEquals(answer.length(), deltas.size());
+        assertEquals(answer, String.join("", deltas));
+    }
+
+    @Test
+    void aPlainCompletionIsReplayedAsOneDelta() {
+        answer = "{\"courses\":[]}";
+        plainJson = true;
+        List<String> deltas = new ArrayList<>();
+
+        assertEquals(answer, chatClient().chatStructuredJsonObjectStream("sys", "user", 0.1, 256, deltas::add));
+        assertEquals(List.of(answer), deltas);
+    }
+
+    @Test
+    void coursesAndRulesReachTheListenerWhileTheAnswerStreams() throws Exception {
+        answer = recorded("compact-fenced.txt");
+        Events events = new Events();
+
+        String ndjson = (String) timetable().streamTimetableFromImage(UploadSource.of(new byte[]{1, 2, 3, 4}), events).get("ndjson");
+
+        assertEquals(List.of("stage normalize", "stage ocr", "stage extract",
+                "course 离散数学[06]", "course 大学英语", "course 数据结构",
+                "rule 0/1", "rule 1/2", "rule 2/3"), events.seen);
+        String[] lines = ndjson.split("\n");
+        assertEquals(3, om.readTree(lines[3]).size());
+        assertEquals("王五", om.readTree(lines[4]).get(2).get("teacher").asText());
+    }
+
+    @Test
+    void anUnexpectedShapeFallsBackToTheBatchParser() throws Exception {
+        answer = recorded("ndjson-lines.txt");
+        Events events = new Events();
+
+        String ndjson = (String) timetable().streamTimetableFromImage(UploadSource.of(new byte[]{1, 2, 3, 4}), events).get("ndjson");
+
+        assertEquals(List.of("stage normalize", "stage ocr", "stage extract"), events.seen);
+        String[] lines = ndjson.split("\n");
+        assertEquals("离散数学", om.readTree(lines[3]).get(0).get("courseName").asText());
+        assertEquals("张三", om.readTree(lines[4]).get(0).get("teacher").asText());
+    }
+
+    @Test
+    void endpointSendsStagesCoursesRulesAndDoneAsServerSentEvents() throws Exception {
+        answer = recorded("compact-fenced.txt");
+        AiController controller = new AiController(timetable(), null, null, null, pool::execute, null);
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+
+        MvcResult result = mvc.perform(multipart("/api/ai/parse-schedule-image/stream")
+                        .file(new MockMultipartFile("file", "t.png", "image/png", new byte[]{1, 2, 3, 4})))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(10_000);
+
+        List<String> names = new ArrayList<>();
+        JsonNode done = null;
+        String event = null;
+        for (String line : result.getResponse().getContentAsString(StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+                names.add(event);
+            } else if (line.startsWith("data:") && "done".equals(event)) {
+                done = om.readTree(line.substring(5));
+            }
+        }
+        assertEquals(List.of("stage", "stage", "stage", "course", "course", "course", "rule", "rule", "rule", "done"), names);
+        assertNotNull(done);
+        assertTrue(done.get("ndjson").asText().contains("数据结构"));
+    }
+}
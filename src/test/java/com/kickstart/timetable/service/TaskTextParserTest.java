@@ -0,0 +1,57 @@
+package com.kickstart.timetable.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskTextParserTest {
+
+    // Wednesday 2025-09-10
+    private final TaskTextParser parser = new TaskTextParser(
+            Clock.fixed(Instant.parse("2025-09-10T02:00:00Z"), ZoneId.of("Asia/Shanghai")));
+
+    @Test
+    void parsesFormulaicTasks() {
+        TaskTextParser.Result r = parser.parse("下周三晚上12点前交离散数学作业，大概两小时，很急");
+        assertEquals("交离散数学作业", r.title());
+        assertEquals(LocalDate.of(2025, 9, 17), r.dueDate());
+        assertEquals("Urgent", r.priority());
+        assertEquals(120, r.estimatedDurationMinutes());
+        assertEquals("离散数学", r.relatedCourse());
+        assertEquals(1.0, r.confidence());
+
+        r = parser.parse("十月一日前完成《数据结构》实验报告 1个半小时");
+        assertEquals(LocalDate.of(2025, 10, 1), r.dueDate());
+        assertEquals(90, r.estimatedDurationMinutes());
+        assertEquals("数据结构", r.relatedCourse());
+        assertEquals("Medium", r.priority());
+
+        r = parser.parse("明天复习英语 40分钟");
+        assertEquals("复习英语", r.title());
+        assertEquals(LocalDate.of(2025, 9, 11), r.dueDate());
+        assertEquals(40, r.estimatedDurationMinutes());
+        assertEquals("High", r.priority());
+        assertNull(r.relatedCourse());
+        assertTrue(r.confidence() >= 0.8, String.valueOf(r.confidence()));
+
+        r = parser.parse("周五前提交实验报告，不急");
+        assertEquals(LocalDate.of(2025, 9, 12), r.dueDate());
+        assertEquals("Low", r.priority());
+        assertNull(r.relatedCourse());
+    }
+
+    @Test
+    void lowConfidenceWhenDateOrTaskIsNotUnderstood() {
+        TaskTextParser.Result r = parser.parse("下周找个时间跟导师聊聊");
+        assertNull(r.dueDate());
+        assertTrue(r.confidence() < 0.8, String.valueOf(r.confidence()));
+        assertEquals(60, r.estimatedDurationMinutes());
+    }
+}
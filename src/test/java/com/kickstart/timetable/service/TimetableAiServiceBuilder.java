@@ -0,0 +1,111 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kickstart.timetable.config.AiStudioProperties;
+import com.kickstart.timetable.config.ImportProperties;
+import com.kickstart.timetable.config.OcrCacheProperties;
+import com.kickstart.timetable.config.PaddleProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Function;
+
+/**
+ * The {@link TimetableAiService} of the tests: OCR cache off, every executor runs inline, clients with
+ * default properties. Tests replace only what they exercise (Paddle stub, OCR pool, properties, ...);
+ * set {@code om(...)} and {@code registry(...)} first, the client factories use them.
+ */
+final class TimetableAiServiceBuilder {
+
+    private ObjectMapper om = new ObjectMapper();
+    private MeterRegistry registry = new SimpleMeterRegistry();
+    private ImportProperties importProps = new ImportProperties();
+    private PaddleLayoutParsingClient paddle;
+    private AiStudioChatClient ai;
+    private TaskExecutor ocrPageExecutor = Runnable::run;
+
+    TimetableAiServiceBuilder om(ObjectMapper om) {
+        this.om = om;
+        return this;
+    }
+
+    TimetableAiServiceBuilder registry(MeterRegistry registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    TimetableAiServiceBuilder importProps(ImportProperties importProps) {
+        this.importProps = importProps;
+        return this;
+    }
+
+    TimetableAiServiceBuilder paddle(PaddleLayoutParsingClient paddle) {
+        this.paddle = paddle;
+        return this;
+    }
+
+    /** A real Paddle client calling {@code apiUrl} (usually a stub server). */
+    TimetableAiServiceBuilder paddleAt(String apiUrl) {
+        PaddleProperties props = new PaddleProperties();
+        props.setApiUrl(apiUrl);
+        props.setToken("test");
+        return paddle(new PaddleLayoutParsingClient(props, RestClient.builder(), om, registry, new HedgeBudget(0)));
+    }
+
+    /** OCR answered in-process: {@code ocr} gets the bytes sent to Paddle and returns the markdown. */
+    TimetableAiServiceBuilder ocr(Function<byte[], String> ocr) {
+        return paddle(new PaddleLayoutParsingClient(new PaddleProperties(), RestClient.builder(), om, registry,
+                new HedgeBudget(0)) {
+            @Override
+            public String extractMarkdown(InputStreamSource file, int fileType) {
+                try (InputStream in = file.getInputStream()) {
+                    return ocr.apply(in.readAllBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    TimetableAiServiceBuilder ai(AiStudioChatClient ai) {
+        this.ai = ai;
+        return this;
+    }
+
+    /** Every structured extraction call answers {@code json}. */
+    TimetableAiServiceBuilder extraction(String json) {
+        return extraction(user -> json);
+    }
+
+    /** Structured extraction answered in-process: {@code answer} gets the user prompt and returns the JSON. */
+    TimetableAiServiceBuilder extraction(Function<String, String> answer) {
+        return ai(new AiStudioChatClient(new AiStudioProperties(), RestClient.builder(), om, registry, new HedgeBudget(0)) {
+            @Override
+            public String chatStructuredJsonObject(String system, String user, double temperature, int maxTokens) {
+                return answer.apply(user);
+            }
+        });
+    }
+
+    TimetableAiServiceBuilder ocrPageExecutor(TaskExecutor ocrPageExecutor) {
+        this.ocrPageExecutor = ocrPageExecutor;
+        return this;
+    }
+
+    TimetableAiService build() {
+        OcrCacheProperties cacheProps = new OcrCacheProperties();
+        cacheProps.setEnabled(false);
+        PaddleLayoutParsingClient p = paddle != null ? paddle
+                : new PaddleLayoutParsingClient(new PaddleProperties(), RestClient.builder(), om, registry, new HedgeBudget(0));
+        AiStudioChatClient a = ai != null ? ai
+                : new AiStudioChatClient(new AiStudioProperties(), RestClient.builder(), om, registry, new HedgeBudget(0));
+        return new TimetableAiService(p, a, om, new OcrResultCache(cacheProps, registry), new PdfPageRenderer(importProps),
+                ocrPageExecutor, new ImagePreprocessor(importProps, registry), importProps, registry, Runnable::run, Runnable::run);
+    }
+}
@@ -0,0 +1,71 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimetableGridParserTest {
+
+    private final TimetableGridParser parser = new TimetableGridParser(new ObjectMapper());
+
+    @Test
+    void parsesHtmlTableWithRowspansAndMultiCourseCells() {
+        String markdown = """
+                ## 2025-2026学年第一学期 个人课表
+                <html><body><table>
+                <tr><td>节次</td><td>星期一</td><td>星期二</td><td>星期三</td><td>星期四</td><td>星期五</td></tr>
+                <tr><td>第1节</td><td rowspan="2">离散数学[06]<br>1-18周(单)<br>A101<br>张三</td><td rowspan="2">大学英语<br>1-8周<br>B202 李四<br>体育（篮球）<br>10-16周<br>体育馆</td><td></td><td></td><td></td></tr>
+                <tr><td>第2节</td><td></td><td></td><td></td></tr>
+                <tr><td>第3节</td><td></td><td></td><td>高等数学 1,3,5,7周 3-4节 教1-203 王五</td><td></td><td></td></tr>
+                <tr><td>午休</td><td colspan="5">午休</td></tr>
+                </table></body></html>
+                """;
+
+        TimetableGridParser.Result result = parser.parse(markdown);
+
+        assertEquals(1.0, result.confidence());
+        assertEquals(List.of("离散数学[06]", "大学英语", "体育（篮球）", "高等数学"),
+                result.courses().stream().map(c -> c.get("courseName").asText()).toList());
+        assertEquals(4, result.rules().size());
+        assertRule(result.rules().get(0), 0, 1, 1, 2, 1, 18, 1, "A101", "张三");
+        assertRule(result.rules().get(1), 1, 2, 1, 2, 1, 8, 0, "B202", "李四");
+        assertRule(result.rules().get(2), 2, 2, 1, 2, 10, 16, 0, "体育馆", "");
+        // Explicit 3-4节 wins over the single-row label; odd singleton weeks collapse to a 单周 range.
+        assertRule(result.rules().get(3), 3, 3, 3, 2, 1, 7, 1, "教1-203", "王五");
+    }
+
+    @Test
+    void mergesRepeatedMarkdownRowsAndReportsLowConfidenceForUnknownText() {
+        String markdown = """
+                | | 周一 | 周二 | 周三 |
+                |---|---|---|---|
+                | 1 | 线性代数<br>1-16周<br>C301 | | |
+                | 2 | 线性代数<br>1-16周<br>C301 | | |
+                | 3 | | 看不懂的 ??? 内容 | |
+                """;
+
+        TimetableGridParser.Result result = parser.parse(markdown);
+
+        assertRule(result.rules().get(0), 0, 1, 1, 2, 1, 16, 0, "C301", "");
+        assertEquals(2, result.cells());
+        assertTrue(result.confidence() < 0.9);
+    }
+
+    private static void assertRule(ObjectNode r, int id, int day, int startNode, int step, int startWeek, int endWeek,
+                                   int type, String room, String teacher) {
+        assertEquals(id, r.get("id").asInt(), "id " + r);
+        assertEquals(day, r.get("day").asInt(), "day " + r);
+        assertEquals(startNode, r.get("startNode").asInt(), "startNode " + r);
+        assertEquals(step, r.get("step").asInt(), "step " + r);
+        assertEquals(startWeek, r.get("startWeek").asInt(), "startWeek " + r);
+        assertEquals(endWeek, r.get("endWeek").asInt(), "endWeek " + r);
+        assertEquals(type, r.get("type").asInt(), "type " + r);
+        assertEquals(room, r.get("room").asText(), "room " + r);
+        assertEquals(teacher, r.get("teacher").asText(), "teacher " + r);
+    }
+}
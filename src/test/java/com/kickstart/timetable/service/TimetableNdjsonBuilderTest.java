@@ -0,0 +1,70 @@
+package com.kickstart.timetable.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TimetableNdjsonBuilderTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private JsonNode json(String s) throws Exception {
+        return om.readTree(s);
+    }
+
+    @Test
+    void holdsRulesBackUntilTheirCourseArrives() throws Exception {
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+
+        // Streamed out of order: the rule for course 5 comes before course 5 itself.
+        assertNull(builder.addRule(json("{\"id\":5,\"day\":9,\"startNode\":0,\"step\":2,\"startWeek\":3,\"endWeek\":1,\"room\":\" A(101) \"}")));
+        assertEquals(List.of(), builder.resolveDeferred());
+
+        ObjectNode course = builder.addCourse(json("{\"id\":5,\"courseName\":\"本离散数学 (1)\"}"));
+        assertNotNull(course);
+        assertEquals(0, course.get("id").asInt());
+        assertEquals("离散数学 （1）", course.get("courseName").asText());
+
+        List<ObjectNode> resolved = builder.resolveDeferred();
+        assertEquals(1, resolved.size());
+        ObjectNode rule = resolved.get(0);
+        assertEquals(0, rule.get("id").asInt());
+        assertEquals(7, rule.get("day").asInt());
+        assertEquals(1, rule.get("startNode").asInt());
+        assertEquals(3, rule.get("endWeek").asInt());
+        assertEquals("A（101）", rule.get("room").asText());
+        assertEquals(TimetableNdjsonBuilder.TABLE_ID, rule.get("tableId").asInt());
+    }
+
+    @Test
+    void mergesChunksByCourseNameAndDropsDuplicateRules() throws Exception {
+        TimetableNdjsonBuilder builder = new TimetableNdjsonBuilder(om);
+        builder.addCourse(json("{\"id\":0,\"courseName\":\"大学英语\"}"));
+        builder.addRule(json("{\"id\":0,\"day\":1,\"startNode\":1,\"step\":2,\"startWeek\":1,\"endWeek\":16}"));
+
+        // The next chunk numbers its courses from 0 again and repeats a course of the first one.
+        builder.newIdScope();
+        assertNull(builder.addCourse(json("{\"id\":0,\"courseName\":\"大学英语\"}")));
+        assertNotNull(builder.addCourse(json("{\"id\":1,\"courseName\":\"数据结构\"}")));
+        assertNull(builder.addRule(json("{\"id\":0,\"day\":1,\"startNode\":1,\"step\":2,\"startWeek\":1,\"endWeek\":16}")));
+        ObjectNode ds = builder.addRule(json("{\"id\":1,\"day\":3,\"startNode\":5,\"step\":2,\"startWeek\":1,\"endWeek\":16}"));
+        assertEquals(1, ds.get("id").asInt());
+        // A rule whose course never shows up in its chunk is dropped with the scope.
+        builder.addRule(json("{\"id\":7,\"day\":2,\"startNode\":1}"));
+        builder.newIdScope();
+
+        String[] lines = builder.build().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals(2, json(lines[3]).size());
+        assertEquals(2, json(lines[4]).size());
+        assertEquals(2, builder.courseCount());
+        assertEquals(2, builder.ruleCount());
+    }
+}
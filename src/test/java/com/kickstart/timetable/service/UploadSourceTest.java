@@ -0,0 +1,45 @@
+package com.kickstart.timetable.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class UploadSourceTest {
+
+    @Test
+    void sniffsBinaryAndEncodedUploadsFromTheHeader() {
+        byte[] png = new byte[4096];
+        new Random(7).nextBytes(png);
+        png[0] = (byte) 0x89;
+        png[1] = 'P';
+        png[2] = 'N';
+        png[3] = 'G';
+
+        UploadSource binary = UploadSource.of(png);
+        assertEquals(UploadSource.Format.PNG, binary.format());
+        assertArrayEquals(png, binary.readAllBytes());
+
+        String dataUri = "  data:image/png;base64," + Base64.getEncoder().encodeToString(png);
+        UploadSource uri = UploadSource.of(dataUri.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(UploadSource.Format.DATA_URI, uri.format());
+        assertEquals(UploadSource.Format.PNG, uri.contentFormat());
+        assertNull(uri.file());
+        assertArrayEquals(png, uri.readAllBytes());
+
+        // Line-wrapped base64, as produced by `base64` on the command line.
+        byte[] wrapped = Base64.getMimeEncoder().encode(png);
+        UploadSource text = UploadSource.of(wrapped);
+        assertEquals(UploadSource.Format.BASE64, text.format());
+        assertEquals(UploadSource.Format.PNG, text.contentFormat());
+        assertArrayEquals(png, text.readAllBytes());
+
+        UploadSource other = UploadSource.of("hello, not an image".getBytes(StandardCharsets.UTF_8));
+        assertEquals(UploadSource.Format.UNKNOWN, other.format());
+    }
+}
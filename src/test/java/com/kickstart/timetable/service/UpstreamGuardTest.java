@@ -0,0 +1,156 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.api.ApiExceptionHandler;
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamGuardTest {
+
+    private static UpstreamHttpProperties adaptive(int maxConnections) {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        props.setMaxConnections(maxConnections);
+        props.setAdaptiveLimit(true);
+        return props;
+    }
+
+    @Test
+    void defaultLimitIsAdaptiveAndStartsAtMaxConnections() {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        AdaptiveLimiter limiter = new AdaptiveLimiter(props);
+        assertTrue(props.isAdaptiveLimit());
+        assertEquals(props.getMaxConnections(), limiter.limit());
+
+        assertTrue(limiter.tryAcquire());
+        limiter.onFailure();
+        // 32 * 0.9 = 28.8: one failure takes a tenth off, no more.
+        assertEquals(28, limiter.limit());
+    }
+
+    @Test
+    void limiterBacksOffOnSlowCallsAndRecoversAdditively() {
+        UpstreamHttpProperties props = adaptive(10);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(props);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        assertEquals(10, limiter.limit());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(500));
+        }
+        // 10 * 0.9^5 = 5.9
+        assertEquals(5, limiter.limit());
+        for (int i = 0; i < 5; i++) assertTrue(limiter.tryAcquire());
+        assertTrue(!limiter.tryAcquire());
+
+        // Busy and fast again: about +1 per round of calls.
+        for (int i = 0; i < 5; i++) limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(6, limiter.limit());
+    }
+
+    @Test
+    void mixedShortAndLongCallsAtLowConcurrencyKeepTheLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(adaptive(10));
+        // One call at a time, alternating 1k-token parse-task calls and 8k-token extractions.
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess("chat/1024", TimeUnit.MILLISECONDS.toNanos(800 + i % 5 * 20));
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess("chat/8192", TimeUnit.SECONDS.toNanos(20) + TimeUnit.MILLISECONDS.toNanos(i % 7 * 100));
+        }
+        assertEquals(10, limiter.limit());
+
+        // A genuinely slow extraction still counts as congestion within its class.
+        assertTrue(limiter.tryAcquire());
+        limiter.onSuccess("chat/8192", TimeUnit.SECONDS.toNanos(60));
+        assertEquals(9, limiter.limit());
+    }
+
+    @Test
+    void limitRecoversWhileIdle() throws Exception {
+        UpstreamHttpProperties props = adaptive(10);
+        props.setLimitRecovery(Duration.ofMillis(50));
+        AdaptiveLimiter limiter = new AdaptiveLimiter(props);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onFailure();
+        }
+        assertEquals(2, limiter.limit());
+
+        Thread.sleep(300);
+        assertEquals(7, limiter.limit(), 1);
+        Thread.sleep(300);
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    void refusesCallsOverTheLimitWith503() throws Exception {
+        UpstreamHttpProperties props = adaptive(1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UpstreamGuard guard = new UpstreamGuard("stub", props, registry);
+
+        CountDownLatch inCall = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> guard.call(() -> {
+            inCall.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return "ok";
+        }));
+        assertTrue(inCall.await(5, TimeUnit.SECONDS));
+
+        UpstreamUnavailableException busy = assertThrows(UpstreamUnavailableException.class, () -> guard.call(() -> "second"));
+        release.countDown();
+        assertEquals("ok", first.get(5, TimeUnit.SECONDS));
+        assertEquals(1.0, registry.get("upstream.rejected").tag("reason", "limit").counter().count());
+
+        ResponseEntity<Map<String, Object>> resp = new ApiExceptionHandler().handleAny(new RuntimeException("wrapped", busy));
+        assertEquals(503, resp.getStatusCode().value());
+        assertEquals("1", resp.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    void breakerOpensOnFailuresAndClosesAfterASuccessfulProbe() throws Exception {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        props.setBreakerWindow(4);
+        props.setBreakerMinCalls(4);
+        props.setBreakerOpenDuration(Duration.ofMillis(200));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        UpstreamGuard guard = new UpstreamGuard("stub", props, registry);
+
+        guard.call(() -> "ok");
+        guard.call(() -> "ok");
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalArgumentException.class, () -> guard.call(() -> {
+                throw new IllegalArgumentException("down");
+            }));
+        }
+        assertEquals(1.0, registry.get("upstream.circuit.opened").counter().count());
+        assertEquals(2.0, registry.get("upstream.circuit.state").gauge().value());
+
+        UpstreamUnavailableException open = assertThrows(UpstreamUnavailableException.class, () -> guard.call(() -> "skipped"));
+        assertTrue(open.getRetryAfter().toMillis() <= 200);
+        assertEquals(1.0, registry.get("upstream.rejected").tag("reason", "circuit_open").counter().count());
+
+        Thread.sleep(250);
+        assertEquals("probe", guard.call(() -> "probe"));
+        assertEquals(0.0, registry.get("upstream.circuit.state").gauge().value());
+    }
+}
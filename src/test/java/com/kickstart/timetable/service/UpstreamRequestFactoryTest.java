@@ -0,0 +1,132 @@
+package com.kickstart.timetable.service;
+
+import com.kickstart.timetable.config.UpstreamHttpProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamRequestFactoryTest {
+
+    private HttpServer stub;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch slowStarted = new CountDownLatch(1);
+
+    @BeforeEach
+    void startStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        // Echoes the (gunzipped) request body, gzip-encoded when the client accepts it.
+        stub.createContext("/echo", exchange -> {
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) in = new GZIPInputStream(in);
+            byte[] body = ("echo:" + new String(in.readAllBytes(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accept != null && accept.contains("gzip")) {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                try (GZIPOutputStream gz = new GZIPOutputStream(buf)) {
+                    gz.write(body);
+                }
+                body = buf.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        // Sends the headers and part of the body, then stalls until the test lets it go.
+        stub.createContext("/slow", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("partial".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            slowStarted.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        stub.start();
+    }
+
+    @AfterEach
+    void stopStub() {
+        release.countDown();
+        stub.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + stub.getAddress().getPort() + path;
+    }
+
+    @Test
+    void compressesBothDirections() {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        props.setCompressRequests(true);
+        RestClient client = RestClient.builder()
+                .requestFactory(new UpstreamRequestFactory("stub", props, new SimpleMeterRegistry())).build();
+
+        String out = client.post().uri(url("/echo")).body("timetable".repeat(100)).retrieve().body(String.class);
+
+        assertEquals("echo:" + "timetable".repeat(100), out);
+    }
+
+    @Test
+    void rejectsWhenThePoolIsSaturatedAndTimesOutStalledBodies() throws Exception {
+        UpstreamHttpProperties props = new UpstreamHttpProperties();
+        props.setMaxConnections(1);
+        props.setAcquireTimeout(Duration.ofMillis(100));
+        props.setResponseTimeout(Duration.ofMillis(500));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RestClient client = RestClient.builder()
+                .requestFactory(new UpstreamRequestFactory("stub", props, registry)).build();
+
+        long start = System.nanoTime();
+        CompletableFuture<Exception> stalled = CompletableFuture.supplyAsync(() -> {
+            try {
+                client.get().uri(url("/slow")).retrieve().body(String.class);
+                return null;
+            } catch (Exception e) {
+                return e;
+            }
+        });
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+        // The only slot is held by the stalled call.
+        Exception busy = assertThrows(Exception.class, () -> client.post().uri(url("/echo")).body("x").retrieve().body(String.class));
+        assertTrue(messages(busy).contains("连接池已满"), busy.toString());
+        assertEquals(1.0, registry.get("upstream.http.pool.rejected").counter().count());
+
+        Exception timeout = stalled.get(5, TimeUnit.SECONDS);
+        assertTrue(messages(timeout).contains("响应超时"), String.valueOf(timeout));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        // The slot is free again once the timed-out response is closed.
+        assertEquals("echo:x", client.post().uri(url("/echo")).body("x").retrieve().body(String.class));
+    }
+
+    private static String messages(Throwable t) {
+        StringBuilder sb = new StringBuilder();
+        for (; t != null; t = t.getCause()) sb.append(t.getMessage()).append('\n');
+        return sb.toString();
+    }
+}
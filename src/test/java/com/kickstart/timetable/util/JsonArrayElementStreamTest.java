@@ -0,0 +1,90 @@
+package com.kickstart.timetable.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JsonArrayElementStreamTest {
+
+    private static final String JSON = """
+            {"note":"键 \\"courseDefs\\": [不是数组] {x}",
+             "courseDefs":[{"id":0,"courseName":"离散数学[06]","tags":[["a",[1]],[]]},
+                           {"id":1,"courseName":"引号\\"}]\\\\","note":"\\u005b\\\\\\""},
+                           "字符串元素 ] }", 42, true, null],
+             "meta":{"courseDefs":[{"nested":"不在顶层"}]},
+             "ignored":[{"id":9}],
+             "scheduleRules":[[0,1,"A\\"101"],{"id":1,"room":"B[2]02"}]}""";
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private static List<String> stream(String text, int[] cuts) {
+        List<String> seen = new ArrayList<>();
+        JsonArrayElementStream stream = new JsonArrayElementStream(Set.of("courseDefs", "scheduleRules"),
+                (key, json) -> seen.add(key + " " + json));
+        int from = 0;
+        for (int cut : cuts) {
+            stream.feed(text.substring(from, cut));
+            from = cut;
+        }
+        stream.feed(text.substring(from));
+        return seen;
+    }
+
+    /** What the elements should be: Jackson's reading of the selected arrays, minus numbers and literals. */
+    private List<String> expected() throws Exception {
+        JsonNode root = om.readTree(JSON);
+        List<String> out = new ArrayList<>();
+        for (String key : List.of("courseDefs", "scheduleRules")) {
+            for (JsonNode n : root.get(key)) {
+                if (n.isContainerNode() || n.isTextual()) out.add(key + " " + n);
+            }
+        }
+        return out;
+    }
+
+    private List<String> reparsed(List<String> seen) throws Exception {
+        List<String> out = new ArrayList<>();
+        for (String s : seen) {
+            int space = s.indexOf(' ');
+            out.add(s.substring(0, space) + " " + om.readTree(s.substring(space + 1)));
+        }
+        return out;
+    }
+
+    @Test
+    void oneCharacterDeltasGiveTheSameElementsAsJackson() throws Exception {
+        int[] everyChar = new int[JSON.length() - 1];
+        for (int i = 0; i < everyChar.length; i++) everyChar[i] = i + 1;
+
+        List<String> seen = stream(JSON, everyChar);
+
+        assertEquals(expected(), reparsed(seen));
+        assertEquals("courseDefs \"字符串元素 ] }\"", seen.get(2));
+        assertEquals(seen, stream(JSON, new int[0]));
+    }
+
+    @Test
+    void randomSplitsInsideStringsAndEscapesDoNotMatter() throws Exception {
+        List<String> whole = stream(JSON, new int[0]);
+        Random random = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            int[] cuts = random.ints(1 + random.nextInt(40), 1, JSON.length()).sorted().distinct().toArray();
+            assertEquals(whole, stream(JSON, cuts));
+        }
+        assertEquals(expected(), reparsed(whole));
+    }
+
+    @Test
+    void emitsNothingForOtherShapes() {
+        assertEquals(List.of(), stream("[{\"courseDefs\":[{\"id\":0}]}]", new int[]{3, 9}));
+        assertEquals(List.of(), stream("{\"data\":{\"courseDefs\":[{\"id\":0}]}}", new int[]{14}));
+        assertEquals(List.of(), stream("好的，课表如下：没有 JSON", new int[]{2}));
+    }
+}
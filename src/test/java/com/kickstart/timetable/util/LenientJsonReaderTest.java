@@ -0,0 +1,196 @@
+package com.kickstart.timetable.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LenientJsonReaderTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    /** A sample model answer from src/test/resources/llm-outputs. */
+    private static String recorded(String name) throws IOException {
+        try (InputStream in = LenientJsonReaderTest.class.getResourceAsStream("/llm-outputs/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void skipsProseAndFencesAndStopsAfterTheValue() throws IOException {
+        ObjectNode obj = LenientJsonReader.firstObject(recorded("compact-fenced.txt"), false);
+
+        assertNotNull(obj);
+        assertEquals(3, obj.path("courses").size());
+        assertEquals(3, obj.path("rules").size());
+        // The "{备注}" in the trailing prose used to break the first-'{'-to-last-'}' cut.
+        assertEquals(2, obj.size());
+    }
+
+    @Test
+    void repairsAnAnswerCutOffAtMaxTokens() throws IOException {
+        String raw = recorded("compact-truncated.txt");
+        assertNull(LenientJsonReader.firstObject(raw, false));
+
+        ObjectNode obj = LenientJsonReader.firstObject(raw, true);
+        assertNotNull(obj);
+        assertEquals(4, obj.path("courses").size());
+        // The half-written third rule is dropped, the two complete ones are kept.
+        assertEquals(2, obj.path("rules").size());
+        assertEquals("李四", obj.path("rules").path(1).path(8).asText());
+    }
+
+    @Test
+    void readsNdjsonArraysInOrder() throws IOException {
+        List<ArrayNode> arrays = LenientJsonReader.arrays(recorded("ndjson-lines.txt"), 5, false);
+
+        assertEquals(3, arrays.size());
+        assertEquals("08:00", arrays.get(0).path(0).path("startTime").asText());
+        assertEquals("离散数学", arrays.get(1).path(0).path("courseName").asText());
+        assertEquals(0.0, arrays.get(1).path(0).path("credit").doubleValue());
+        assertTrue(arrays.get(2).path(0).path("ownTime").isBoolean());
+        assertEquals("meta", LenientJsonReader.firstObject(recorded("ndjson-lines.txt"), false).fieldNames().next());
+    }
+
+    @Test
+    void keepsCompleteItemsOfATruncatedBatch() throws IOException {
+        ArrayNode arr = LenientJsonReader.firstArray(recorded("tasks-batch-truncated.txt"), true);
+
+        assertNotNull(arr);
+        assertEquals(2, arr.size());
+        assertEquals("英语听力\n练习", arr.path(1).path("title").asText());
+        assertTrue(arr.path(1).path("dueDate").isNull());
+    }
+
+    @Test
+    void matchesJacksonOnEscapesNumbersAndLiterals() throws IOException {
+        String json = "{\"s\":\"a\\\"b\\\\c\\/d\\u00e9\\t\",\"i\":-12,\"l\":12345678901,\"b\":123456789012345678901234,"
+                + "\"d\":-1.5e-3,\"z\":0,\"t\":true,\"f\":false,\"n\":null,\"e\":{},\"a\":[]}";
+        assertEquals(om.readTree(json), LenientJsonReader.firstObject("前缀 " + json + " 后缀", false));
+    }
+
+    @Test
+    void fuzzWrappedValidJsonParsesLikeJackson() throws IOException {
+        Random random = new Random(42);
+        String[] prefixes = {"", "好的：\n", "```json\n", "Here is the JSON (see [1]):\n```JSON\n", "结果如下 [注] "};
+        String[] suffixes = {"", "\n```", "\n```\n以上 {完}", "}]} trailing", "\n\n如有问题请告诉我。"};
+        for (int i = 0; i < 500; i++) {
+            JsonNode tree = randomObject(random, 0);
+            String json = random.nextBoolean() ? om.writeValueAsString(tree) : om.writerWithDefaultPrettyPrinter().writeValueAsString(tree);
+            String text = prefixes[random.nextInt(prefixes.length)] + json + suffixes[random.nextInt(suffixes.length)];
+
+            assertEquals(om.readTree(json), LenientJsonReader.firstObject(text, false), text);
+            assertEquals(om.readTree(json), LenientJsonReader.firstObject(text, true), text);
+        }
+    }
+
+    @Test
+    void fuzzTruncationKeepsOnlyCompleteArrayElements() throws IOException {
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            JsonNode tree = randomObject(random, 0);
+            String json = om.writeValueAsString(tree);
+            for (int k = 0; k < 5; k++) {
+                String cut = json.substring(0, 1 + random.nextInt(json.length()));
+                ObjectNode repaired = LenientJsonReader.firstObject(cut, true);
+                assertNotNull(repaired, cut);
+                assertPrefixOf(tree, repaired, cut);
+                // Strict mode must never throw; it either finds a complete inner object or nothing.
+                LenientJsonReader.firstObject(cut, false);
+            }
+        }
+    }
+
+    @Test
+    void fuzzGarbageNeverThrows() {
+        Random random = new Random(1234);
+        String alphabet = "{}[]\",:0123456789.-+eEtrufalsn \\\n\t/u课表`";
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = random.nextInt(120);
+            for (int j = 0; j < len; j++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            String text = sb.toString();
+            for (boolean repair : new boolean[]{false, true}) {
+                LenientJsonReader.firstObject(text, repair);
+                LenientJsonReader.firstArray(text, repair);
+                LenientJsonReader.arrays(text, 5, repair);
+            }
+        }
+        // Deep nesting is refused instead of overflowing the stack; only an inner, shallow enough part is read.
+        JsonNode deep = LenientJsonReader.firstArray("[".repeat(20_000) + "]".repeat(20_000), false);
+        int depth = 0;
+        for (JsonNode n = deep; n != null && n.isArray(); n = n.get(0)) depth++;
+        assertTrue(depth <= 256, "depth " + depth);
+        assertNull(LenientJsonReader.firstObject(null, true));
+    }
+
+    /**
+     * {@code repaired} must be what {@code original} looked like up to the cut: object members are equal or
+     * (containers) themselves prefixes, array elements are complete and equal.
+     */
+    private static void assertPrefixOf(JsonNode original, JsonNode repaired, String cut) {
+        if (repaired.isObject()) {
+            assertTrue(original.isObject(), cut);
+            for (Map.Entry<String, JsonNode> e : repaired.properties()) {
+                JsonNode o = original.get(e.getKey());
+                assertNotNull(o, cut);
+                if (e.getValue().isContainerNode()) {
+                    assertPrefixOf(o, e.getValue(), cut);
+                } else {
+                    assertEquals(o, e.getValue(), cut);
+                }
+            }
+        } else if (repaired.isArray()) {
+            assertTrue(original.isArray() && repaired.size() <= original.size(), cut);
+            for (int i = 0; i < repaired.size(); i++) assertEquals(original.get(i), repaired.get(i), cut);
+        }
+    }
+
+    private JsonNode randomValue(Random random, int depth) {
+        int kind = random.nextInt(depth > 3 ? 6 : 8);
+        return switch (kind) {
+            case 0 -> om.getNodeFactory().textNode(randomString(random));
+            case 1 -> om.getNodeFactory().numberNode(random.nextInt(2000) - 1000);
+            case 2 -> om.getNodeFactory().numberNode(random.nextLong());
+            case 3 -> om.getNodeFactory().numberNode(Math.round(random.nextDouble() * 1e6) / 100.0);
+            case 4 -> om.getNodeFactory().booleanNode(random.nextBoolean());
+            case 5 -> om.getNodeFactory().nullNode();
+            case 6 -> randomObject(random, depth + 1);
+            default -> {
+                ArrayNode arr = om.createArrayNode();
+                int n = random.nextInt(5);
+                for (int i = 0; i < n; i++) arr.add(randomValue(random, depth + 1));
+                yield arr;
+            }
+        };
+    }
+
+    private ObjectNode randomObject(Random random, int depth) {
+        ObjectNode obj = om.createObjectNode();
+        int n = random.nextInt(5);
+        for (int i = 0; i < n; i++) obj.set(randomString(random), randomValue(random, depth + 1));
+        return obj;
+    }
+
+    private static String randomString(Random random) {
+        String chars = "abc课表周节 \"\\/\n\t{}[],:é\u0001";
+        StringBuilder sb = new StringBuilder();
+        int len = random.nextInt(8);
+        for (int i = 0; i < len; i++) sb.append(chars.charAt(random.nextInt(chars.length())));
+        return sb.toString();
+    }
+}
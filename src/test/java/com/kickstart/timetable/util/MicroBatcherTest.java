@@ -0,0 +1,59 @@
+package com.kickstart.timetable.util;
+
+import com.kickstart.timetable.service.Deadline;
+import com.kickstart.timetable.service.DeadlineExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MicroBatcherTest {
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void stop() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void shortDeadlineLeaderDoesNotCutOffAFollowerWithoutOne() throws Exception {
+        CompletableFuture<Deadline> batchDeadline = new CompletableFuture<>();
+        MicroBatcher<String, String> batcher = new MicroBatcher<>("test", 2, Duration.ofSeconds(1), (items, futures) -> {
+            batchDeadline.complete(Deadline.current());
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            for (int i = 0; i < items.size(); i++) futures.get(i).complete(items.get(i).toUpperCase());
+        }, new SimpleMeterRegistry());
+
+        Future<Object> leader = callers.submit(() -> {
+            try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(300)).bind()) {
+                return batcher.call("a");
+            } catch (RuntimeException e) {
+                return e;
+            }
+        });
+        Thread.sleep(50);
+        Future<Object> follower = callers.submit(() -> batcher.call("b"));
+
+        Object leaderOutcome = leader.get(2, TimeUnit.SECONDS);
+        assertTrue(leaderOutcome instanceof DeadlineExceededException, String.valueOf(leaderOutcome));
+        assertEquals("B", follower.get(2, TimeUnit.SECONDS));
+        assertFalse(batchDeadline.get().isBounded());
+        assertFalse(batchDeadline.get().isDone());
+    }
+}
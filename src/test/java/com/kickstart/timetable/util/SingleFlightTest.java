@@ -0,0 +1,100 @@
+package com.kickstart.timetable.util;
+
+import com.kickstart.timetable.service.Deadline;
+import com.kickstart.timetable.service.DeadlineExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void stop() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void shortDeadlineLeaderDoesNotCutOffAFollowerWithoutOne() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test", new SimpleMeterRegistry());
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Deadline> workDeadline = new CompletableFuture<>();
+        AtomicInteger runs = new AtomicInteger();
+        Runnable slowWork = () -> {
+            runs.incrementAndGet();
+            workDeadline.complete(Deadline.current());
+            started.countDown();
+            Deadline.current().interruptible(() -> {
+                try {
+                    Thread.sleep(600);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return null;
+            });
+        };
+
+        Future<Object> leader = callers.submit(() -> {
+            try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(100)).bind()) {
+                return flight.execute("k", () -> {
+                    slowWork.run();
+                    return "done";
+                });
+            } catch (RuntimeException e) {
+                return e;
+            }
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        Future<Object> follower = callers.submit(() -> flight.execute("k", () -> "not run"));
+
+        long start = System.nanoTime();
+        Object leaderOutcome = leader.get(2, TimeUnit.SECONDS);
+        assertTrue(leaderOutcome instanceof DeadlineExceededException, String.valueOf(leaderOutcome));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+
+        assertEquals("done", follower.get(2, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertFalse(workDeadline.get().isBounded());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    void workIsCancelledOnceEveryCallerHasLeft() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>("test", new SimpleMeterRegistry());
+        CompletableFuture<Deadline> workDeadline = new CompletableFuture<>();
+
+        try (Deadline.Scope ignored = Deadline.after(Duration.ofMillis(100)).bind()) {
+            assertThrows(DeadlineExceededException.class, () -> flight.execute("k", () -> {
+                workDeadline.complete(Deadline.current());
+                return Deadline.current().interruptible(() -> {
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return "late";
+                });
+            }));
+        }
+        assertTrue(workDeadline.get(2, TimeUnit.SECONDS).isDone());
+        assertEquals(0, flight.size());
+        assertEquals("again", flight.execute("k", () -> "again"));
+    }
+}